@@ -0,0 +1,232 @@
+package com.jash.protokit.cli;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Message;
+import com.jash.protokit.comparer.CompareOptions;
+import com.jash.protokit.comparer.CompareSink;
+import com.jash.protokit.comparer.CompareSummary;
+import com.jash.protokit.comparer.ProtoComparer;
+
+/**
+ * Command line tool to compare two files of length-delimited records, as
+ * written by {@link Message#writeDelimitedTo(java.io.OutputStream)}, record by
+ * record. The message type is looked up in a descriptor set, e.g., one written
+ * by "protoc --include_imports --descriptor_set_out". The files are read in one
+ * streaming pass, so files of any size can be compared with the same memory.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * protokit-cli [--exclude field]... [--redact field]... [--quiet]
+ *         descriptor-set message-type first-file second-file
+ * </pre>
+ *
+ * The report of each changed record is written to the standard output, and the
+ * counts and the throughput to the standard error. The exit status is 0 if the
+ * files have no differences, 1 if they have and 2 on errors.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+public class ProtokitCli {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final String USAGE = "Usage: protokit-cli [--exclude field]... [--redact field]... [--quiet]"
+			+ " descriptor-set message-type first-file second-file";
+
+	private ProtokitCli() {
+	}
+
+	public static void main(String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Run the tool with the given arguments.
+	 *
+	 * @param args - The command line arguments.
+	 * @param out  - Stream for the reports.
+	 * @param err  - Stream for the summary and the errors.
+	 * @return The exit status.
+	 */
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+		CompareOptions.Builder options = CompareOptions.Builder.newBuilder();
+		boolean quiet = false;
+		List<String> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if ("--exclude".equals(args[i]) && i + 1 < args.length) {
+				options.addExcludeField(args[++i]);
+			} else if ("--redact".equals(args[i]) && i + 1 < args.length) {
+				options.addRedactionField(args[++i]);
+			} else if ("--quiet".equals(args[i])) {
+				quiet = true;
+			} else if (args[i].startsWith("--")) {
+				err.println(USAGE);
+				return 2;
+			} else {
+				files.add(args[i]);
+			}
+		}
+		if (files.size() != 4) {
+			err.println(USAGE);
+			return 2;
+		}
+		try {
+			Descriptor descriptor = findMessageType(readDescriptorSet(new File(files.get(0))), files.get(1));
+			File first = new File(files.get(2));
+			File second = new File(files.get(3));
+			CompareSummary summary;
+			try (InputStream in1 = new BufferedInputStream(new FileInputStream(first), BUFFER_SIZE);
+					InputStream in2 = new BufferedInputStream(new FileInputStream(second), BUFFER_SIZE)) {
+				summary = ProtoComparer.compareDelimited(in1, in2, descriptor, options.build(),
+						quiet ? new CompareSink<Message>() {
+
+							@Override
+							public boolean usesRecords() {
+								return false;
+							}
+
+						} : new ReportSink(out));
+			}
+			out.flush();
+			double seconds = summary.getElapsedNanos() / 1e9;
+			double megabytes = (first.length() + second.length()) / (1024.0 * 1024.0);
+			err.println(String.format("records: %d, added: %d, removed: %d, changed: %d, unchanged: %d",
+					summary.getRecords(), summary.getAdded(), summary.getRemoved(), summary.getChanged(),
+					summary.getUnchanged()));
+			err.println(String.format("time: %.3f s, %.1f records/s, %.1f MB/s", seconds,
+					summary.getRecordsPerSecond(), seconds > 0 ? megabytes / seconds : 0));
+			return summary.getAdded() + summary.getRemoved() + summary.getChanged() > 0 ? 1 : 0;
+		} catch (IOException | IllegalArgumentException e) {
+			err.println("Error: " + e.getMessage());
+			return 2;
+		}
+	}
+
+	private static FileDescriptorSet readDescriptorSet(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return FileDescriptorSet.parseFrom(in);
+		}
+	}
+
+	/**
+	 * Find a message type in a descriptor set by its full name, or by its simple
+	 * name if that is unique.
+	 *
+	 * @throws IllegalArgumentException if the type is not found or the set is not
+	 *                                  valid.
+	 */
+	static Descriptor findMessageType(FileDescriptorSet descriptorSet, String typeName) {
+		Map<String, FileDescriptorProto> nameVsProto = new HashMap<>();
+		for (FileDescriptorProto proto : descriptorSet.getFileList()) {
+			nameVsProto.put(proto.getName(), proto);
+		}
+		Map<String, FileDescriptor> nameVsFile = new HashMap<>();
+		Descriptor found = null;
+		for (FileDescriptorProto proto : descriptorSet.getFileList()) {
+			FileDescriptor file = buildFile(proto.getName(), nameVsProto, nameVsFile);
+			for (Descriptor descriptor : getAllMessageTypes(file)) {
+				if (descriptor.getFullName().equals(typeName)) {
+					return descriptor;
+				} else if (descriptor.getName().equals(typeName)) {
+					if (found != null) {
+						throw new IllegalArgumentException(
+								"Message type " + typeName + " is ambiguous, give the full name");
+					}
+					found = descriptor;
+				}
+			}
+		}
+		if (found == null) {
+			throw new IllegalArgumentException("Message type " + typeName + " not found in the descriptor set");
+		}
+		return found;
+	}
+
+	private static FileDescriptor buildFile(String name, Map<String, FileDescriptorProto> nameVsProto,
+			Map<String, FileDescriptor> nameVsFile) {
+		FileDescriptor file = nameVsFile.get(name);
+		if (file != null) {
+			return file;
+		}
+		FileDescriptorProto proto = nameVsProto.get(name);
+		if (proto == null) {
+			throw new IllegalArgumentException("Dependency " + name + " not found in the descriptor set");
+		}
+		FileDescriptor[] dependencies = new FileDescriptor[proto.getDependencyCount()];
+		for (int i = 0; i < dependencies.length; i++) {
+			dependencies[i] = buildFile(proto.getDependency(i), nameVsProto, nameVsFile);
+		}
+		try {
+			file = FileDescriptor.buildFrom(proto, dependencies);
+		} catch (DescriptorValidationException e) {
+			throw new IllegalArgumentException("Invalid descriptor " + name + ": " + e.getMessage(), e);
+		}
+		nameVsFile.put(name, file);
+		return file;
+	}
+
+	private static List<Descriptor> getAllMessageTypes(FileDescriptor file) {
+		List<Descriptor> descriptors = new ArrayList<>();
+		for (Descriptor descriptor : file.getMessageTypes()) {
+			addWithNestedTypes(descriptor, descriptors);
+		}
+		return descriptors;
+	}
+
+	private static void addWithNestedTypes(Descriptor descriptor, List<Descriptor> descriptors) {
+		descriptors.add(descriptor);
+		for (Descriptor nested : descriptor.getNestedTypes()) {
+			addWithNestedTypes(nested, descriptors);
+		}
+	}
+
+	/**
+	 * Writes the changes of the records as they are found.
+	 */
+	private static final class ReportSink implements CompareSink<Message> {
+
+		private final PrintStream out;
+
+		private ReportSink(PrintStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void added(Object key, Message message) {
+			out.println("+ record " + key);
+		}
+
+		@Override
+		public void removed(Object key, Message message) {
+			out.println("- record " + key);
+		}
+
+		@Override
+		public void changed(Object key, Message m1, Message m2, String report) {
+			out.println("  record " + key + ":");
+			out.print(report);
+		}
+
+		@Override
+		public boolean usesRecords() {
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,300 @@
+package com.jash.protokit.codegen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse.Feature;
+import com.jash.protokit.internal.FieldAccessors;
+
+/**
+ * A protoc plugin that generates a
+ * {@link com.jash.protokit.comparer.MessageComparator} per message type, which
+ * reads the fields through the generated accessors instead of reflection.
+ * Values are returned the same as {@link com.google.protobuf.Message#getField}
+ * returns them, so reports are the same with or without the comparators. Map
+ * fields are read through reflection. The comparators are written next to the
+ * classes generated by protoc for Java, named after the message type, e.g.,
+ * MemberComparator for Member and OuterInnerComparator for Outer.Inner.
+ * <p>
+ * Run by protoc with the request on the standard input, e.g., as a
+ * protocPlugin of the protobuf-maven-plugin.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+public class ComparatorGenerator {
+
+	private static final String COMPARATOR_INTERFACE = "com.jash.protokit.comparer.MessageComparator";
+
+	private ComparatorGenerator() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		CodeGeneratorRequest request = CodeGeneratorRequest.parseFrom(System.in);
+		generate(request).writeTo(System.out);
+		System.out.flush();
+	}
+
+	/**
+	 * Generate the comparators of the message types of the files to generate in
+	 * a request. Errors are set in the response for protoc to report.
+	 *
+	 * @param request - The request from protoc.
+	 * @return The response with a file per message type.
+	 */
+	public static CodeGeneratorResponse generate(CodeGeneratorRequest request) {
+		CodeGeneratorResponse.Builder response = CodeGeneratorResponse.newBuilder()
+				.setSupportedFeatures(Feature.FEATURE_PROTO3_OPTIONAL_VALUE);
+		// Files come in the order of their dependencies
+		Map<String, FileDescriptor> nameVsFile = new HashMap<>();
+		try {
+			for (FileDescriptorProto proto : request.getProtoFileList()) {
+				FileDescriptor[] dependencies = new FileDescriptor[proto.getDependencyCount()];
+				for (int i = 0; i < dependencies.length; i++) {
+					dependencies[i] = nameVsFile.get(proto.getDependency(i));
+				}
+				nameVsFile.put(proto.getName(), FileDescriptor.buildFrom(proto, dependencies));
+			}
+		} catch (DescriptorValidationException e) {
+			return response.setError("Invalid descriptor: " + e.getMessage()).build();
+		}
+		for (String name : request.getFileToGenerateList()) {
+			FileDescriptor file = nameVsFile.get(name);
+			for (Descriptor descriptor : getAllMessageTypes(file)) {
+				String className = getComparatorName(descriptor);
+				String javaPackage = getJavaPackage(file);
+				String path = javaPackage.isEmpty() ? className : javaPackage.replace('.', '/') + "/" + className;
+				response.addFileBuilder().setName(path + ".java").setContent(generate(descriptor));
+			}
+		}
+		return response.build();
+	}
+
+	/**
+	 * Generate the source of the comparator of a message type.
+	 *
+	 * @param descriptor - The message type.
+	 * @return The source of the comparator class.
+	 */
+	public static String generate(Descriptor descriptor) {
+		String className = getComparatorName(descriptor);
+		String messageClass = getMessageClassName(descriptor);
+		String javaPackage = getJavaPackage(descriptor.getFile());
+		StringBuilder out = new StringBuilder();
+		out.append("// Generated by ").append(ComparatorGenerator.class.getName()).append(". DO NOT EDIT!\n");
+		out.append("// source: ").append(descriptor.getFile().getName()).append("\n\n");
+		if (!javaPackage.isEmpty()) {
+			out.append("package ").append(javaPackage).append(";\n\n");
+		}
+		out.append("/**\n * Reads the fields of {@link ").append(messageClass)
+				.append("} through its accessors.\n */\n");
+		out.append("public final class ").append(className).append("\n\t\timplements ")
+				.append(COMPARATOR_INTERFACE).append("<").append(messageClass).append("> {\n\n");
+		out.append("\tpublic static final ").append(className).append(" INSTANCE = new ").append(className)
+				.append("();\n\n");
+		out.append("\t@java.lang.Override\n");
+		out.append("\tpublic java.lang.Class<").append(messageClass).append("> getMessageClass() {\n");
+		out.append("\t\treturn ").append(messageClass).append(".class;\n\t}\n\n");
+		out.append("\t@java.lang.Override\n");
+		out.append("\tpublic java.lang.Object getValue(").append(messageClass)
+				.append(" message, com.google.protobuf.Descriptors.FieldDescriptor field) {\n");
+		out.append("\t\tswitch (field.getNumber()) {\n");
+		for (FieldDescriptor field : descriptor.getFields()) {
+			if (field.isMapField()) {
+				continue;
+			}
+			out.append("\t\tcase ").append(field.getNumber()).append(":");
+			if (field.isRepeated()) {
+				appendRepeated(out, field);
+			} else {
+				out.append("\n\t\t\treturn ").append(getPresence(field)).append(" ? ").append(getValue(field))
+						.append(" : null;\n");
+			}
+		}
+		out.append("\t\tdefault:\n");
+		out.append("\t\t\treturn field.isRepeated() || message.hasField(field) ? message.getField(field) : null;\n");
+		out.append("\t\t}\n\t}\n\n}\n");
+		return out.toString();
+	}
+
+	/**
+	 * Repeated fields are returned as the list of the accessor, except enums,
+	 * which are returned as a list of their value descriptors.
+	 */
+	private static void appendRepeated(StringBuilder out, FieldDescriptor field) {
+		String name = FieldAccessors.getAccessorName(field);
+		if (field.getJavaType() != JavaType.ENUM) {
+			out.append("\n\t\t\treturn message.get").append(name).append("List();\n");
+			return;
+		}
+		out.append(" {\n\t\t\tjava.util.List<com.google.protobuf.Descriptors.EnumValueDescriptor> values = ")
+				.append("new java.util.ArrayList<>(\n\t\t\t\t\tmessage.get").append(name).append("Count());\n");
+		if (isOpenEnum(field)) {
+			out.append("\t\t\tfor (int value : message.get").append(name).append("ValueList()) {\n");
+			out.append("\t\t\t\tvalues.add(field.getEnumType().findValueByNumberCreatingIfUnknown(value));\n");
+		} else {
+			out.append("\t\t\tfor (").append(getEnumClassName(field.getEnumType())).append(" value : message.get")
+					.append(name).append("List()) {\n");
+			out.append("\t\t\t\tvalues.add(value.getValueDescriptor());\n");
+		}
+		out.append("\t\t\t}\n\t\t\treturn java.util.Collections.unmodifiableList(values);\n\t\t}\n");
+	}
+
+	/**
+	 * Condition for a singular field to be set, the same as
+	 * {@link com.google.protobuf.Message#hasField}.
+	 */
+	private static String getPresence(FieldDescriptor field) {
+		String name = FieldAccessors.getAccessorName(field);
+		OneofDescriptor oneof = field.getRealContainingOneof();
+		if (oneof != null) {
+			return "message.get" + FieldAccessors.toCamelCase(oneof.getName(), true) + "Case().getNumber() == "
+					+ field.getNumber();
+		} else if (field.hasPresence()) {
+			return "message.has" + name + "()";
+		}
+		// Without presence a field is set if it is not the default value
+		String getter = "message.get" + name + "()";
+		switch (field.getJavaType()) {
+		case INT:
+		case LONG:
+			return getter + " != 0";
+		case FLOAT:
+			return "java.lang.Float.floatToRawIntBits(" + getter + ") != 0";
+		case DOUBLE:
+			return "java.lang.Double.doubleToRawLongBits(" + getter + ") != 0";
+		case BOOLEAN:
+			return getter;
+		case STRING:
+		case BYTE_STRING:
+			return "!" + getter + ".isEmpty()";
+		case ENUM:
+			return isOpenEnum(field) ? "message.get" + name + "Value() != 0"
+					: getter + ".getNumber() != " + field.getEnumType().getValues().get(0).getNumber();
+		default:
+			return "message.has" + name + "()";
+		}
+	}
+
+	private static String getValue(FieldDescriptor field) {
+		String name = FieldAccessors.getAccessorName(field);
+		if (field.getJavaType() != JavaType.ENUM) {
+			return "message.get" + name + "()";
+		} else if (isOpenEnum(field)) {
+			return "field.getEnumType().findValueByNumberCreatingIfUnknown(message.get" + name + "Value())";
+		}
+		return "message.get" + name + "().getValueDescriptor()";
+	}
+
+	/**
+	 * Check if an enum field keeps unknown values, in which case the accessors
+	 * of the numbers are generated.
+	 */
+	private static boolean isOpenEnum(FieldDescriptor field) {
+		return !field.legacyEnumFieldTreatedAsClosed();
+	}
+
+	private static String getComparatorName(Descriptor descriptor) {
+		StringBuilder name = new StringBuilder(descriptor.getName());
+		for (Descriptor parent = descriptor.getContainingType(); parent != null; parent = parent
+				.getContainingType()) {
+			name.insert(0, parent.getName());
+		}
+		return name.append("Comparator").toString();
+	}
+
+	private static String getJavaPackage(FileDescriptor file) {
+		FileOptions options = file.getOptions();
+		return options.hasJavaPackage() ? options.getJavaPackage() : file.getPackage();
+	}
+
+	private static String getMessageClassName(Descriptor descriptor) {
+		if (descriptor.getContainingType() != null) {
+			return getMessageClassName(descriptor.getContainingType()) + "." + descriptor.getName();
+		}
+		return getTopLevelClassName(descriptor.getFile(), descriptor.getName());
+	}
+
+	private static String getEnumClassName(EnumDescriptor descriptor) {
+		if (descriptor.getContainingType() != null) {
+			return getMessageClassName(descriptor.getContainingType()) + "." + descriptor.getName();
+		}
+		return getTopLevelClassName(descriptor.getFile(), descriptor.getName());
+	}
+
+	private static String getTopLevelClassName(FileDescriptor file, String name) {
+		String javaPackage = getJavaPackage(file);
+		String prefix = javaPackage.isEmpty() ? "" : javaPackage + ".";
+		if (file.getOptions().getJavaMultipleFiles()) {
+			return prefix + name;
+		}
+		return prefix + getOuterClassName(file) + "." + name;
+	}
+
+	/**
+	 * Get the outer class name of a file, which is the file name in camel case if
+	 * not set, followed by OuterClass if a type of the file has the same name.
+	 */
+	private static String getOuterClassName(FileDescriptor file) {
+		if (file.getOptions().hasJavaOuterClassname()) {
+			return file.getOptions().getJavaOuterClassname();
+		}
+		String name = file.getName();
+		name = name.substring(name.lastIndexOf('/') + 1);
+		if (name.endsWith(".proto")) {
+			name = name.substring(0, name.length() - ".proto".length());
+		}
+		name = FieldAccessors.toCamelCase(name, true);
+		Set<String> typeNames = new HashSet<>();
+		for (Descriptor descriptor : getAllMessageTypes(file)) {
+			typeNames.add(descriptor.getName());
+			for (EnumDescriptor enumType : descriptor.getEnumTypes()) {
+				typeNames.add(enumType.getName());
+			}
+		}
+		for (EnumDescriptor enumType : file.getEnumTypes()) {
+			typeNames.add(enumType.getName());
+		}
+		for (int i = 0; i < file.getServices().size(); i++) {
+			typeNames.add(file.getServices().get(i).getName());
+		}
+		return typeNames.contains(name) ? name + "OuterClass" : name;
+	}
+
+	/**
+	 * Get the message types of a file, nested ones included, except map entries.
+	 */
+	private static List<Descriptor> getAllMessageTypes(FileDescriptor file) {
+		List<Descriptor> result = new ArrayList<>();
+		for (Descriptor descriptor : file.getMessageTypes()) {
+			addMessageTypes(descriptor, result);
+		}
+		return result;
+	}
+
+	private static void addMessageTypes(Descriptor descriptor, List<Descriptor> result) {
+		if (descriptor.getOptions().getMapEntry()) {
+			return;
+		}
+		result.add(descriptor);
+		for (Descriptor nested : descriptor.getNestedTypes()) {
+			addMessageTypes(nested, result);
+		}
+	}
+
+}
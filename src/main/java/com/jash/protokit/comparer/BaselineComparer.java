@@ -0,0 +1,96 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.google.protobuf.Message;
+
+/**
+ * Compares successive versions of a message against a retained baseline, e.g.,
+ * each new version of a record against the previous one in a cache. Each
+ * comparison advances the baseline to the compared version.
+ * <p>
+ * The fingerprints of the baseline and its sub-messages are kept from the last
+ * comparison, in which the baseline was the new version, so they are not
+ * computed again. Sub-messages shared by the two versions, as left by
+ * {@code toBuilder()} for the fields that are not set, are skipped by identity.
+ * With this, the cost of a comparison depends on the parts of the new version
+ * that are not shared with the baseline rather than on the size of the message.
+ * Fingerprints not used in a comparison are dropped, so the memory used stays
+ * that of the last two versions.
+ * <p>
+ * Sub-messages are matched to the baseline by identity only. A version parsed
+ * or built from scratch shares no sub-message with the baseline, so each of its
+ * messages is walked once to compute its fingerprint, so the comparison costs a
+ * walk of the new version, though the baseline is still not walked again and
+ * only the changed parts are compared. Matching the
+ * sub-messages by field path instead would not help, as telling an unchanged
+ * parsed sub-message apart from a changed one takes reading it.
+ * <p>
+ * Not thread safe.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ * @param <T> - Type of the message.
+ */
+public class BaselineComparer<T extends Message> {
+
+	private final CompareContext context;
+	private T baseline;
+
+	/**
+	 * Create a comparer with the first baseline.
+	 *
+	 * @param baseline - The baseline, null for none.
+	 * @param options  - Compare options to use for comparison.
+	 */
+	public BaselineComparer(T baseline, CompareOptions options) {
+		this.context = new CompareContext(options != null ? options : CompareOptions.DUMMY_OPTIONS);
+		this.baseline = baseline;
+	}
+
+	/**
+	 * Compare a new version with the baseline and make it the baseline. The report
+	 * is the same as that of
+	 * {@link ProtoComparer#compare(Message, Message, CompareOptions)}.
+	 *
+	 * @param message - The new version.
+	 * @return The differences from the baseline, empty if none.
+	 */
+	public String compare(T message) {
+		String report = "";
+		if (!context.isEqual(baseline, message)) {
+			StringBuilder sb = new StringBuilder(512);
+			try {
+				new ReportWriter(sb).write(ProtoComparer.createRoot(baseline, message, context));
+			} catch (IOException e) {
+				// Should not get here as StringBuilder does not throw IOException
+				throw new UncheckedIOException(e);
+			}
+			report = sb.toString();
+		}
+		advance(message);
+		return report;
+	}
+
+	/**
+	 * Replace the baseline without comparing, e.g., after a version is skipped.
+	 *
+	 * @param baseline - The new baseline, null for none.
+	 */
+	public void reset(T baseline) {
+		advance(baseline);
+	}
+
+	/**
+	 * Get the current baseline.
+	 */
+	public T getBaseline() {
+		return baseline;
+	}
+
+	private void advance(T message) {
+		context.advance();
+		baseline = message;
+	}
+
+}
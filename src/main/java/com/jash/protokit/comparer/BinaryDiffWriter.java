@@ -0,0 +1,385 @@
+package com.jash.protokit.comparer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+import com.jash.protokit.comparer.DiffFormat.FieldChange;
+import com.jash.protokit.comparer.DiffFormat.FieldChange.ElementKey;
+import com.jash.protokit.comparer.DiffFormat.FieldChange.ElementPosition;
+import com.jash.protokit.comparer.DiffFormat.MessageDiff;
+import com.jash.protokit.comparer.DiffNode.ChangeKind;
+import com.jash.protokit.comparer.DiffNode.Type;
+
+/**
+ * Writes the differences of a {@link DiffNode} tree as a size prefixed
+ * {@link MessageDiff} of diff.proto. The wire format is written directly as
+ * the tree is traversed, without building the messages. Along with the values,
+ * the changes have what is needed to apply them to the first message, i.e., the
+ * kind of change of each message in the path and how the elements of repeated
+ * fields in the path are matched.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class BinaryDiffWriter {
+
+	private final OutputStream out;
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+	private final CodedOutputStream bodyOut = CodedOutputStream.newInstance(body);
+	private ReportBudget budget;
+	// Field numbers, element indexes and kinds of change from the root to the
+	// current node
+	private int[] fieldNumbers = new int[16];
+	private int[] indexes = new int[16];
+	private int[] kinds = new int[16];
+	// How the elements of the repeated fields in the path are matched, as the
+	// number of the field they are ordered by, 0 if by value and -1 if by index,
+	// and the value of that field in the current element
+	private int[] keyFieldNumbers = new int[16];
+	private ByteString[] keyValues = new ByteString[16];
+	// Positions of the current elements in the compared messages, the number of
+	// elements created and deleted before them, and the size of the first list
+	private int[] oldIndexes = new int[16];
+	private int[] newIndexes = new int[16];
+	private int[] createdElements = new int[16];
+	private int[] deletedElements = new int[16];
+	private int[] oldSizes = new int[16];
+	private int depth;
+	private int changes;
+
+	BinaryDiffWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Write the diff of the given root node and its descendants. Only the type is
+	 * written if the messages are equal.
+	 */
+	void write(DiffNode root) throws IOException {
+		budget = new ReportBudget(root.getOptions());
+		Message message = (Message) (root.getOldValue() != null ? root.getOldValue() : root.getNewValue());
+		if (message != null) {
+			bodyOut.writeString(MessageDiff.MESSAGE_TYPE_FIELD_NUMBER, message.getDescriptorForType().getFullName());
+			if (!Objects.equals(root.getOldValue(), root.getNewValue())) {
+				write(root, 0);
+			}
+		}
+		if (budget.getTruncation() != null) {
+			bodyOut.writeString(MessageDiff.TRUNCATION_FIELD_NUMBER, budget.getTruncation());
+		}
+		bodyOut.flush();
+		CodedOutputStream codedOut = CodedOutputStream.newInstance(out, 16);
+		codedOut.writeUInt32NoTag(body.size());
+		codedOut.flush();
+		body.writeTo(out);
+	}
+
+	private void write(DiffNode node, int nodeDepth) throws IOException {
+		if (budget.isExhausted(node, nodeDepth)) {
+			return;
+		}
+		int savedDepth = depth;
+		if (node.getParent() != null) {
+			if (node.getIndex() >= 0) {
+				// Element of the repeated field at the end of the path
+				int position = depth - 1;
+				indexes[position] = node.getIndex();
+				kinds[position] = getKind(node);
+				if (keyFieldNumbers[position] > 0) {
+					keyValues[position] = encodeKey(node);
+				} else if (keyFieldNumbers[position] < 0) {
+					// Elements not ordered keep their order, so their positions are the
+					// index less the elements missing before them
+					int index = node.getIndex();
+					oldIndexes[position] = node.getOldValue() != null ? index - createdElements[position] : -1;
+					newIndexes[position] = node.getNewValue() != null ? index - deletedElements[position] : -1;
+					createdElements[position] += node.getOldValue() == null ? 1 : 0;
+					deletedElements[position] += node.getNewValue() == null ? 1 : 0;
+				}
+			} else {
+				push(node.getField().getNumber(), getKind(node));
+			}
+		}
+		if (node.getType() == Type.VALUE) {
+			writeChange(node, node.getOldValue(), node.getNewValue());
+			budget.countDiff();
+		} else {
+			int changesBefore = changes;
+			Iterator<DiffNode> children = ProtoComparer.iterateChildren(node, budget);
+			if (node.getType() == Type.REPEATED) {
+				keyFieldNumbers[depth - 1] = getKeyFieldNumber(node);
+				createdElements[depth - 1] = 0;
+				deletedElements[depth - 1] = 0;
+				oldSizes[depth - 1] = node.getOldValue() != null ? ((List<?>) node.getOldValue()).size() : 0;
+			}
+			while (budget.getTruncation() == null && children.hasNext()) {
+				write(children.next(), nodeDepth + 1);
+			}
+			// A created or deleted message without any compared value is a change
+			// of its own
+			if (node.getType() == Type.MESSAGE && node.getParent() != null && node.getKind() != ChangeKind.UPDATED
+					&& changes == changesBefore && budget.getTruncation() == null) {
+				writeChange(node, null, null);
+			}
+		}
+		if (node.getIndex() >= 0) {
+			indexes[depth - 1] = -1;
+			keyValues[depth - 1] = null;
+		}
+		depth = savedDepth;
+	}
+
+	private void push(int fieldNumber, int kind) {
+		if (depth == fieldNumbers.length) {
+			fieldNumbers = Arrays.copyOf(fieldNumbers, depth * 2);
+			indexes = Arrays.copyOf(indexes, depth * 2);
+			kinds = Arrays.copyOf(kinds, depth * 2);
+			keyFieldNumbers = Arrays.copyOf(keyFieldNumbers, depth * 2);
+			keyValues = Arrays.copyOf(keyValues, depth * 2);
+			oldIndexes = Arrays.copyOf(oldIndexes, depth * 2);
+			newIndexes = Arrays.copyOf(newIndexes, depth * 2);
+			createdElements = Arrays.copyOf(createdElements, depth * 2);
+			deletedElements = Arrays.copyOf(deletedElements, depth * 2);
+			oldSizes = Arrays.copyOf(oldSizes, depth * 2);
+		}
+		fieldNumbers[depth] = fieldNumber;
+		indexes[depth] = -1;
+		kinds[depth] = kind;
+		keyFieldNumbers[depth] = -1;
+		depth++;
+	}
+
+	/**
+	 * Get how the elements of a repeated node are matched. Elements of a field
+	 * ordered by a field are matched by its value, primitives of an ordered field
+	 * by their values, and others by their positions.
+	 */
+	private static int getKeyFieldNumber(DiffNode node) {
+		FieldDescriptor field = node.getField();
+		ComparePlan plan = node.getPlan();
+		if (!plan.shouldOrderRepeated(field)) {
+			return -1;
+		}
+		FieldDescriptor orderByField = plan.getOrderByField(field);
+		return orderByField != null && !orderByField.isRepeated() && orderByField.getJavaType() != JavaType.MESSAGE
+				? orderByField.getNumber()
+				: 0;
+	}
+
+	private static ByteString encodeKey(DiffNode node) throws IOException {
+		FieldDescriptor field = node.getField();
+		FieldDescriptor orderByField = node.getContainingPlan().getOrderByField(field);
+		Message element = (Message) (node.getOldValue() != null ? node.getOldValue() : node.getNewValue());
+		if (!element.hasField(orderByField)) {
+			return ByteString.EMPTY;
+		}
+		return WireValues.encode(orderByField, element.getField(orderByField));
+	}
+
+	private static int getKind(DiffNode node) {
+		if (node.getKind() == ChangeKind.CREATED) {
+			return FieldChange.Kind.CREATED_VALUE;
+		} else if (node.getKind() == ChangeKind.DELETED) {
+			return FieldChange.Kind.DELETED_VALUE;
+		}
+		return FieldChange.Kind.UPDATED_VALUE;
+	}
+
+	private void writeChange(DiffNode node, Object oldObj, Object newObj) throws IOException {
+		CompareOptions options = node.getOptions();
+		ComparePlan plan = node.getContainingPlan();
+		boolean redacted = plan.isRedacted(node.getField());
+		boolean mapped = plan.hasMapper(node.getField()) && options.getProtoMapper().shouldUseMappedValue();
+		ByteString oldValue = redacted ? null : encode(node, oldObj, mapped);
+		ByteString newValue = redacted ? null : encode(node, newObj, mapped);
+		int kind = kinds[depth - 1];
+		changes++;
+
+		int numbersSize = 0;
+		int indexesSize = 0;
+		int kindsSize = 0;
+		boolean hasKinds = false;
+		int keysSize = 0;
+		int positionsSize = 0;
+		for (int i = 0; i < depth; i++) {
+			numbersSize += CodedOutputStream.computeInt32SizeNoTag(fieldNumbers[i]);
+			indexesSize += CodedOutputStream.computeSInt32SizeNoTag(indexes[i]);
+			kindsSize += CodedOutputStream.computeEnumSizeNoTag(kinds[i]);
+			hasKinds |= kinds[i] != 0;
+			if (hasElementKey(i)) {
+				int keySize = getElementKeySize(i);
+				keysSize += CodedOutputStream.computeTagSize(FieldChange.ELEMENT_KEYS_FIELD_NUMBER)
+						+ CodedOutputStream.computeUInt32SizeNoTag(keySize) + keySize;
+			} else if (hasElementPosition(i)) {
+				int positionSize = getElementPositionSize(i);
+				positionsSize += CodedOutputStream.computeTagSize(FieldChange.ELEMENT_POSITIONS_FIELD_NUMBER)
+						+ CodedOutputStream.computeUInt32SizeNoTag(positionSize) + positionSize;
+			}
+		}
+		int size = computePackedSize(FieldChange.FIELD_NUMBERS_FIELD_NUMBER, numbersSize)
+				+ computePackedSize(FieldChange.INDEXES_FIELD_NUMBER, indexesSize) + keysSize + positionsSize;
+		if (hasKinds) {
+			size += computePackedSize(FieldChange.PATH_KINDS_FIELD_NUMBER, kindsSize);
+		}
+		if (kind != 0) {
+			size += CodedOutputStream.computeEnumSize(FieldChange.KIND_FIELD_NUMBER, kind);
+		}
+		if (oldValue != null && !oldValue.isEmpty()) {
+			size += CodedOutputStream.computeBytesSize(FieldChange.OLD_VALUE_FIELD_NUMBER, oldValue);
+		}
+		if (newValue != null && !newValue.isEmpty()) {
+			size += CodedOutputStream.computeBytesSize(FieldChange.NEW_VALUE_FIELD_NUMBER, newValue);
+		}
+		if (redacted) {
+			size += CodedOutputStream.computeBoolSize(FieldChange.REDACTED_FIELD_NUMBER, true);
+		}
+		if (mapped) {
+			size += CodedOutputStream.computeBoolSize(FieldChange.MAPPED_FIELD_NUMBER, true);
+		}
+
+		bodyOut.writeTag(MessageDiff.CHANGES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		bodyOut.writeUInt32NoTag(size);
+		if (kind != 0) {
+			bodyOut.writeEnum(FieldChange.KIND_FIELD_NUMBER, kind);
+		}
+		bodyOut.writeTag(FieldChange.FIELD_NUMBERS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		bodyOut.writeUInt32NoTag(numbersSize);
+		for (int i = 0; i < depth; i++) {
+			bodyOut.writeInt32NoTag(fieldNumbers[i]);
+		}
+		bodyOut.writeTag(FieldChange.INDEXES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		bodyOut.writeUInt32NoTag(indexesSize);
+		for (int i = 0; i < depth; i++) {
+			bodyOut.writeSInt32NoTag(indexes[i]);
+		}
+		if (oldValue != null && !oldValue.isEmpty()) {
+			bodyOut.writeBytes(FieldChange.OLD_VALUE_FIELD_NUMBER, oldValue);
+		}
+		if (newValue != null && !newValue.isEmpty()) {
+			bodyOut.writeBytes(FieldChange.NEW_VALUE_FIELD_NUMBER, newValue);
+		}
+		if (redacted) {
+			bodyOut.writeBool(FieldChange.REDACTED_FIELD_NUMBER, true);
+		}
+		if (mapped) {
+			bodyOut.writeBool(FieldChange.MAPPED_FIELD_NUMBER, true);
+		}
+		if (hasKinds) {
+			bodyOut.writeTag(FieldChange.PATH_KINDS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			bodyOut.writeUInt32NoTag(kindsSize);
+			for (int i = 0; i < depth; i++) {
+				bodyOut.writeEnumNoTag(kinds[i]);
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			if (hasElementKey(i)) {
+				bodyOut.writeTag(FieldChange.ELEMENT_KEYS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+				bodyOut.writeUInt32NoTag(getElementKeySize(i));
+				if (i != 0) {
+					bodyOut.writeInt32(ElementKey.POSITION_FIELD_NUMBER, i);
+				}
+				if (keyFieldNumbers[i] != 0) {
+					bodyOut.writeInt32(ElementKey.FIELD_NUMBER_FIELD_NUMBER, keyFieldNumbers[i]);
+				}
+				if (keyValues[i] != null && !keyValues[i].isEmpty()) {
+					bodyOut.writeBytes(ElementKey.VALUE_FIELD_NUMBER, keyValues[i]);
+				}
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			if (hasElementPosition(i)) {
+				bodyOut.writeTag(FieldChange.ELEMENT_POSITIONS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+				bodyOut.writeUInt32NoTag(getElementPositionSize(i));
+				if (i != 0) {
+					bodyOut.writeInt32(ElementPosition.POSITION_FIELD_NUMBER, i);
+				}
+				if (oldIndexes[i] != 0) {
+					bodyOut.writeSInt32(ElementPosition.OLD_INDEX_FIELD_NUMBER, oldIndexes[i]);
+				}
+				if (newIndexes[i] != 0) {
+					bodyOut.writeSInt32(ElementPosition.NEW_INDEX_FIELD_NUMBER, newIndexes[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the element at a position of the path is matched other than by its
+	 * index.
+	 */
+	private boolean hasElementKey(int position) {
+		return indexes[position] >= 0 && keyFieldNumbers[position] >= 0;
+	}
+
+	/**
+	 * Check if the element at a position of the path is matched by its positions,
+	 * and they are not its index, or it is created other than right after the
+	 * first list and the elements created before it, which is where an element
+	 * created without positions is added.
+	 */
+	private boolean hasElementPosition(int position) {
+		int index = indexes[position];
+		if (index < 0 || keyFieldNumbers[position] >= 0) {
+			return false;
+		}
+		// The created elements are counted with this one
+		return oldIndexes[position] >= 0 ? oldIndexes[position] != index
+				|| newIndexes[position] >= 0 && newIndexes[position] != index
+				: newIndexes[position] != index || index != oldSizes[position] + createdElements[position] - 1;
+	}
+
+	private int getElementPositionSize(int position) {
+		int size = 0;
+		if (position != 0) {
+			size += CodedOutputStream.computeInt32Size(ElementPosition.POSITION_FIELD_NUMBER, position);
+		}
+		if (oldIndexes[position] != 0) {
+			size += CodedOutputStream.computeSInt32Size(ElementPosition.OLD_INDEX_FIELD_NUMBER, oldIndexes[position]);
+		}
+		if (newIndexes[position] != 0) {
+			size += CodedOutputStream.computeSInt32Size(ElementPosition.NEW_INDEX_FIELD_NUMBER, newIndexes[position]);
+		}
+		return size;
+	}
+
+	private int getElementKeySize(int position) {
+		int size = 0;
+		if (position != 0) {
+			size += CodedOutputStream.computeInt32Size(ElementKey.POSITION_FIELD_NUMBER, position);
+		}
+		if (keyFieldNumbers[position] != 0) {
+			size += CodedOutputStream.computeInt32Size(ElementKey.FIELD_NUMBER_FIELD_NUMBER, keyFieldNumbers[position]);
+		}
+		if (keyValues[position] != null && !keyValues[position].isEmpty()) {
+			size += CodedOutputStream.computeBytesSize(ElementKey.VALUE_FIELD_NUMBER, keyValues[position]);
+		}
+		return size;
+	}
+
+	private static int computePackedSize(int fieldNumber, int dataSize) {
+		return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(dataSize)
+				+ dataSize;
+	}
+
+	private static ByteString encode(DiffNode node, Object value, boolean mapped) throws IOException {
+		if (value == null) {
+			return null;
+		}
+		if (mapped) {
+			return ByteString.copyFrom(String.valueOf(value), StandardCharsets.UTF_8);
+		}
+		return WireValues.encode(node.getField(), value);
+	}
+
+}
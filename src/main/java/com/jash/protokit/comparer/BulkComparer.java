@@ -0,0 +1,143 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+import com.google.protobuf.Message;
+
+/**
+ * Compares two collections of records by key. The first records are indexed by
+ * key, and the second records are joined against the index as they are read.
+ * The joined records are compared in batches, on the pool of the options if
+ * there is one, and passed to the sink in order on the calling thread.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class BulkComparer<T extends Message> {
+
+	private static final int BATCH_SIZE = 1024;
+	// Marks a key that is already joined with a second record
+	private static final Object JOINED = new Object();
+
+	private final Function<? super T, ?> keyExtractor;
+	private final CompareOptions options;
+	private final CompareSink<? super T> sink;
+
+	private final Object[] keys = new Object[BATCH_SIZE];
+	private final Message[] firsts = new Message[BATCH_SIZE];
+	private final Message[] seconds = new Message[BATCH_SIZE];
+	private final String[] reports = new String[BATCH_SIZE];
+	private int batchSize;
+
+	private long added;
+	private long removed;
+	private long changed;
+	private long unchanged;
+
+	BulkComparer(Function<? super T, ?> keyExtractor, CompareOptions options, CompareSink<? super T> sink) {
+		this.keyExtractor = keyExtractor;
+		this.options = options;
+		this.sink = sink;
+	}
+
+	@SuppressWarnings("unchecked")
+	CompareSummary compare(Iterable<? extends T> first, Iterable<? extends T> second) {
+		long start = System.nanoTime();
+		Map<Object, Object> keyVsRecord = new LinkedHashMap<>();
+		for (T message : first) {
+			Object key = keyExtractor.apply(message);
+			if (keyVsRecord.put(key, message) != null) {
+				throw new IllegalArgumentException("Keys are not unique in the first records. Duplicate key: " + key);
+			}
+		}
+		for (T message : second) {
+			Object key = keyExtractor.apply(message);
+			Object record = keyVsRecord.put(key, JOINED);
+			if (record == JOINED) {
+				throw new IllegalArgumentException("Keys are not unique in the second records. Duplicate key: " + key);
+			}
+			keys[batchSize] = key;
+			firsts[batchSize] = (Message) record;
+			seconds[batchSize] = message;
+			if (++batchSize == BATCH_SIZE) {
+				flush();
+			}
+		}
+		flush();
+		for (Map.Entry<Object, Object> entry : keyVsRecord.entrySet()) {
+			if (entry.getValue() != JOINED) {
+				removed++;
+				sink.removed(entry.getKey(), (T) entry.getValue());
+			}
+		}
+		return new CompareSummary(added, removed, changed, unchanged, System.nanoTime() - start);
+	}
+
+	/**
+	 * Compare the batch and pass it to the sink.
+	 */
+	@SuppressWarnings("unchecked")
+	private void flush() {
+		ForkJoinPool pool = options.getForkJoinPool();
+		if (pool == null || batchSize < 2) {
+			compareRange(0, batchSize);
+		} else {
+			int chunkSize = Math.max(1, batchSize / (pool.getParallelism() * 4));
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (int from = 0; from < batchSize; from += chunkSize) {
+				int chunkFrom = from;
+				int chunkTo = Math.min(from + chunkSize, batchSize);
+				tasks.add(ForkJoinTask.adapt(() -> compareRange(chunkFrom, chunkTo)));
+			}
+			CompareContext.invokeAll(pool, tasks);
+		}
+		for (int i = 0; i < batchSize; i++) {
+			if (firsts[i] == null) {
+				added++;
+				sink.added(keys[i], (T) seconds[i]);
+			} else if (reports[i].isEmpty()) {
+				unchanged++;
+			} else {
+				changed++;
+				sink.changed(keys[i], (T) firsts[i], (T) seconds[i], reports[i]);
+			}
+			keys[i] = firsts[i] = seconds[i] = null;
+			reports[i] = null;
+		}
+		batchSize = 0;
+	}
+
+	private void compareRange(int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (firsts[i] != null) {
+				reports[i] = compare(firsts[i], seconds[i]);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link ProtoComparer#compare(Message, Message, CompareOptions)},
+	 * except that a record is compared on a single thread.
+	 */
+	private String compare(Message m1, Message m2) {
+		if (m1.equals(m2)) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(512);
+		try {
+			new ReportWriter(sb).write(ProtoComparer.createRoot(m1, m2, new CompareContext(options, false)));
+		} catch (IOException e) {
+			// Should not get here as StringBuilder does not throw IOException
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,219 @@
+package com.jash.protokit.comparer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.protobuf.Message;
+
+/**
+ * State shared by all the nodes of one comparison, i.e., the options and the
+ * fingerprints of the messages compared so far. Checking two sub-messages for
+ * equality compares their fingerprints first, so the unequal ones are told
+ * apart without walking them, and each message is walked only once however
+ * deep it is nested.
+ * <p>
+ * When the options have a {@link ForkJoinPool}, parts of the comparison are run
+ * as tasks on the pool, see {@link #runInChunks(int, ChunkTask)}. Each task gets
+ * fingerprints of its own, which are dropped when the task ends, so the threads
+ * of the pool do not keep the compared messages after the comparison.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class CompareContext {
+
+	private final CompareOptions options;
+	// If parts of the comparison are run on the pool of the options
+	private final boolean parallel;
+	// Fingerprints of the task running on a thread, set only while it runs
+	private final ThreadLocal<FingerprintCache> taskFingerprints;
+	private FingerprintCache fingerprints;
+
+	CompareContext(CompareOptions options) {
+		this(options, true);
+	}
+
+	/**
+	 * Create a context that runs parts of the comparison on the pool of the
+	 * options only if parallel is true, e.g., false when the comparison itself is
+	 * one of many tasks on the pool.
+	 */
+	CompareContext(CompareOptions options, boolean parallel) {
+		this.options = options;
+		this.parallel = parallel && options.isParallel();
+		taskFingerprints = this.parallel ? new ThreadLocal<FingerprintCache>() : null;
+	}
+
+	CompareOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * Check if parts of the comparison are run on the pool of the options.
+	 */
+	boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Check if a number of elements is large enough to be split into tasks.
+	 */
+	boolean shouldSplit(int size) {
+		return parallel && size >= options.getParallelThreshold();
+	}
+
+	/**
+	 * Check if two field values are equal. Same as {@link Object#equals(Object)},
+	 * except that messages, and lists of messages, with different fingerprints are
+	 * not walked, and lists of primitives of generated messages are compared
+	 * without boxing.
+	 */
+	boolean isEqual(Object v1, Object v2) {
+		return isEqual(this, v1, v2);
+	}
+
+	/**
+	 * Check if two field values are equal with the fingerprints of a context. If
+	 * the context is null, messages are compared with plain
+	 * {@link Object#equals(Object)}, so that nothing is allocated, e.g., for a one
+	 * off check that walks each message only once anyway.
+	 */
+	static boolean isEqual(CompareContext context, Object v1, Object v2) {
+		if (v1 == v2) {
+			return true;
+		} else if (v1 == null || v2 == null) {
+			return false;
+		}
+		if (v1 instanceof Message && v2 instanceof Message) {
+			if (context != null
+					&& context.getFingerprints().of((Message) v1) != context.getFingerprints().of((Message) v2)) {
+				return false;
+			}
+		} else if (v1 instanceof List && v2 instanceof List) {
+			List<?> l1 = (List<?>) v1;
+			List<?> l2 = (List<?>) v2;
+			if (l1.size() != l2.size()) {
+				return false;
+			} else if (PrimitiveLists.isPrimitive(l1, l2)) {
+				return PrimitiveLists.equals(l1, l2);
+			} else if (context != null && context.shouldSplit(l1.size())) {
+				return context.isEqualInChunks(l1, l2);
+			}
+			for (int i = 0; i < l1.size(); i++) {
+				if (!isEqual(context, l1.get(i), l2.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return v1.equals(v2);
+	}
+
+	/**
+	 * Compare two lists of the same size in chunks on the pool. Chunks stop once
+	 * a difference is found in any of them.
+	 */
+	private boolean isEqualInChunks(List<?> l1, List<?> l2) {
+		AtomicBoolean unequal = new AtomicBoolean();
+		runInChunks(l1.size(), (from, to) -> {
+			for (int i = from; i < to && !unequal.get(); i++) {
+				if (!isEqual(this, l1.get(i), l2.get(i))) {
+					unequal.set(true);
+				}
+			}
+		});
+		return !unequal.get();
+	}
+
+	/**
+	 * Split a number of elements into chunks, a few per thread of the pool, and
+	 * run a task per chunk on the pool. Returns once all the chunks are done.
+	 */
+	void runInChunks(int size, ChunkTask task) {
+		ForkJoinPool pool = options.getForkJoinPool();
+		int chunkSize = Math.max(1, size / (pool.getParallelism() * 4));
+		List<ForkJoinTask<?>> tasks = new ArrayList<>((size + chunkSize - 1) / chunkSize);
+		for (int from = 0; from < size; from += chunkSize) {
+			int chunkFrom = from;
+			int chunkTo = Math.min(from + chunkSize, size);
+			tasks.add(adapt(() -> task.run(chunkFrom, chunkTo)));
+		}
+		invokeAll(pool, tasks);
+	}
+
+	/**
+	 * Wrap a part of the comparison into a task for the pool, which compares
+	 * with fingerprints of its own that are dropped when the task ends.
+	 */
+	ForkJoinTask<?> adapt(Runnable task) {
+		return ForkJoinTask.adapt(() -> {
+			// Tasks can run within the join of another task on the same thread
+			FingerprintCache outer = taskFingerprints.get();
+			taskFingerprints.set(new FingerprintCache());
+			try {
+				task.run();
+			} finally {
+				if (outer != null) {
+					taskFingerprints.set(outer);
+				} else {
+					taskFingerprints.remove();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run the tasks on the pool and wait for them to complete.
+	 */
+	static void invokeAll(ForkJoinPool pool, List<ForkJoinTask<?>> tasks) {
+		if (ForkJoinTask.getPool() == pool) {
+			// Already on the pool, i.e., within a task
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		}
+	}
+
+	/**
+	 * Start a new generation of the fingerprints, keeping only those used since
+	 * the last call.
+	 */
+	void advance() {
+		if (fingerprints != null) {
+			fingerprints = fingerprints.advance();
+		}
+	}
+
+	/**
+	 * Get the fingerprints of the running task, or those of the comparison
+	 * outside of tasks.
+	 */
+	FingerprintCache getFingerprints() {
+		if (taskFingerprints != null) {
+			FingerprintCache taskCache = taskFingerprints.get();
+			if (taskCache != null) {
+				return taskCache;
+			}
+		}
+		if (fingerprints == null) {
+			fingerprints = new FingerprintCache();
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * A task over a chunk of elements.
+	 */
+	interface ChunkTask {
+
+		/**
+		 * Run the task over the elements from the index from, inclusive, to the
+		 * index to, exclusive.
+		 */
+		void run(int from, int to);
+
+	}
+
+}
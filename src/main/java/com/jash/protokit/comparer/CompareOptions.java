@@ -1,11 +1,19 @@
 package com.jash.protokit.comparer;
 
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
-import com.jash.protokit.comparer.Internal.UtilAdapter;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Message;
+import com.jash.protokit.internal.PathTrie;
 
 /**
  * A class to hold options for comparing two messages.
@@ -22,6 +30,22 @@ public class CompareOptions {
 	private List<String> excludeFields;
 	private List<String> redactionFields;
 	private ProtoMapper protoMapper;
+	private boolean sequenceAlignment;
+	private int maxAlignmentSize;
+	private int maxAlignmentEdits;
+	private ForkJoinPool forkJoinPool;
+	private int parallelThreshold;
+	private int maxDiffs;
+	private int maxDepth;
+	private long maxOutputSize;
+	private long timeoutMillis;
+	private Map<String, String> descriptorVsKeyField;
+	private Map<String, MessageComparator<?>> descriptorVsComparator;
+	private PathTrie<FieldRule> fieldRules;
+	// Plans are held weakly as well as their keys, as a plan holds its descriptor,
+	// so that descriptors built at runtime, e.g., per request, are not kept alive
+	private Map<Descriptor, Reference<ComparePlan>> descriptorVsPlan;
+	private Map<Descriptor, Map<PathTrie.State<FieldRule>, Reference<ComparePlan>>> pathVsPlan;
 
 	private CompareOptions(Builder builder) {
 		messageVsKeyField = builder.messageVsKeyField;
@@ -29,26 +53,114 @@ public class CompareOptions {
 		excludeFields = builder.excludeFields;
 		redactionFields = builder.redactionFields;
 		protoMapper = builder.protoMapper;
+		sequenceAlignment = builder.sequenceAlignment;
+		maxAlignmentSize = builder.maxAlignmentSize;
+		maxAlignmentEdits = builder.maxAlignmentEdits;
+		forkJoinPool = builder.forkJoinPool;
+		parallelThreshold = builder.parallelThreshold;
+		maxDiffs = builder.maxDiffs;
+		maxDepth = builder.maxDepth;
+		maxOutputSize = builder.maxOutputSize;
+		timeoutMillis = builder.timeoutMillis;
+		descriptorVsKeyField = new HashMap<>();
+		for (Map.Entry<Class<?>, String> entry : messageVsKeyField.entrySet()) {
+			Descriptor descriptor = getDescriptorForClass(entry.getKey());
+			if (descriptor != null) {
+				descriptorVsKeyField.put(descriptor.getFullName(), entry.getValue());
+			}
+		}
+		descriptorVsComparator = new HashMap<>();
+		for (MessageComparator<?> comparator : builder.messageComparators) {
+			Descriptor descriptor = getDescriptorForClass(comparator.getMessageClass());
+			if (descriptor != null) {
+				descriptorVsComparator.put(descriptor.getFullName(), comparator);
+			}
+		}
+		fieldRules = new PathTrie<>();
+		for (String field : excludeFields) {
+			fieldRules.put(field, FieldRule.EXCLUDE);
+		}
+		for (String field : redactionFields) {
+			fieldRules.put(field, FieldRule.REDACT);
+		}
+		for (Map.Entry<String, String> entry : orderRepeatedMsgByField.entrySet()) {
+			fieldRules.put(entry.getKey(), new FieldRule(FieldRule.ORDERED, entry.getValue()));
+		}
+		descriptorVsPlan = Collections.synchronizedMap(new WeakHashMap<>());
+		pathVsPlan = Collections.synchronizedMap(new WeakHashMap<>());
 	}
 
-	protected String getMessageKeyField(Class<?> messageClass) {
-		return messageVsKeyField.get(messageClass);
+	/**
+	 * Resolve the descriptor of a generated message class through its static
+	 * getDescriptor() method. Returns null if the class is not a generated message.
+	 */
+	private static Descriptor getDescriptorForClass(Class<?> messageClass) {
+		if (messageClass == null || !Message.class.isAssignableFrom(messageClass)) {
+			return null;
+		}
+		try {
+			Object descriptor = messageClass.getMethod("getDescriptor").invoke(null);
+			return descriptor instanceof Descriptor ? (Descriptor) descriptor : null;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the comparison plan of a compared message type. The plan is built on
+	 * first use and reused for further comparisons with these options until it is
+	 * collected, which it can be once no comparison in progress uses it.
+	 */
+	protected ComparePlan getPlan(Descriptor descriptor) {
+		Reference<ComparePlan> reference = descriptorVsPlan.get(descriptor);
+		ComparePlan plan = reference != null ? reference.get() : null;
+		if (plan == null) {
+			plan = new ComparePlan(descriptor, fieldRules.start(descriptor), this);
+			descriptorVsPlan.put(descriptor, new WeakReference<>(plan));
+		}
+		return plan;
 	}
 
-	protected boolean shouldOrderRepeatedMsg(String repeatedField) {
-		return orderRepeatedMsgByField.containsKey(UtilAdapter.getFieldName(repeatedField));
+	/**
+	 * Get the comparison plan of a message type at a state of the field rules,
+	 * i.e., of a message within the compared message. If there are no path rules,
+	 * the plan is the same as that of the type.
+	 */
+	protected ComparePlan getPlan(Descriptor descriptor, PathTrie.State<FieldRule> rules) {
+		if (!fieldRules.hasPaths()) {
+			return getPlan(descriptor);
+		}
+		Map<PathTrie.State<FieldRule>, Reference<ComparePlan>> stateVsPlan = pathVsPlan.get(descriptor);
+		if (stateVsPlan == null) {
+			stateVsPlan = new ConcurrentHashMap<>();
+			Map<PathTrie.State<FieldRule>, Reference<ComparePlan>> existing = pathVsPlan.putIfAbsent(descriptor,
+					stateVsPlan);
+			if (existing != null) {
+				stateVsPlan = existing;
+			}
+		}
+		Reference<ComparePlan> reference = stateVsPlan.get(rules);
+		ComparePlan plan = reference != null ? reference.get() : null;
+		if (plan == null) {
+			plan = new ComparePlan(descriptor, rules, this);
+			stateVsPlan.put(rules, new WeakReference<>(plan));
+		}
+		return plan;
 	}
 
-	protected String getOrderByFieldForRepeatedMsg(String repeatedField) {
-		return orderRepeatedMsgByField.get(UtilAdapter.getFieldName(repeatedField));
+	/**
+	 * Get the generated comparator set for a message type. Null if not set.
+	 */
+	protected MessageComparator<?> getMessageComparator(Descriptor descriptor) {
+		return descriptorVsComparator.get(descriptor.getFullName());
 	}
 
-	protected boolean isFieldExcluded(String fieldFullName) {
-		return excludeFields.contains(UtilAdapter.getFieldName(fieldFullName));
+	protected String getMessageKeyField(Class<?> messageClass) {
+		return messageVsKeyField.get(messageClass);
 	}
 
-	protected boolean isFieldRedacted(String fieldFullName) {
-		return redactionFields.contains(UtilAdapter.getFieldName(fieldFullName));
+	protected String getMessageKeyField(Descriptor descriptor) {
+		return descriptorVsKeyField.get(descriptor.getFullName());
 	}
 
 	protected boolean hasProtoMapper() {
@@ -59,11 +171,85 @@ public class CompareOptions {
 		return protoMapper;
 	}
 
+	protected boolean isSequenceAlignment() {
+		return sequenceAlignment;
+	}
+
+	protected int getMaxAlignmentSize() {
+		return maxAlignmentSize;
+	}
+
+	protected int getMaxAlignmentEdits() {
+		return maxAlignmentEdits;
+	}
+
+	protected boolean isParallel() {
+		return forkJoinPool != null;
+	}
+
+	protected ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	protected int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	protected int getMaxDiffs() {
+		return maxDiffs;
+	}
+
+	protected int getMaxDepth() {
+		return maxDepth;
+	}
+
+	protected long getMaxOutputSize() {
+		return maxOutputSize;
+	}
+
+	protected long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Check if the report is limited by the number of differences, the depth or
+	 * the size. Such reports are written sequentially so that they are cut at the
+	 * same point every time.
+	 */
+	protected boolean hasReportLimits() {
+		return maxDiffs != Integer.MAX_VALUE || maxDepth != Integer.MAX_VALUE || maxOutputSize != Long.MAX_VALUE;
+	}
+
 	@Override
 	public String toString() {
 		return "CompareOptions [messageVsKeyField=" + messageVsKeyField + ", orderRepeatedMsgByField="
 				+ orderRepeatedMsgByField + ", excludeFields=" + excludeFields + ", redactionFields=" + redactionFields
-				+ ", protoMapper=" + protoMapper + "]";
+				+ ", protoMapper=" + protoMapper + ", sequenceAlignment=" + sequenceAlignment + ", maxAlignmentSize="
+				+ maxAlignmentSize + ", maxAlignmentEdits=" + maxAlignmentEdits + ", forkJoinPool=" + forkJoinPool
+				+ ", parallelThreshold=" + parallelThreshold + ", maxDiffs=" + maxDiffs + ", maxDepth=" + maxDepth
+				+ ", maxOutputSize=" + maxOutputSize + ", timeoutMillis=" + timeoutMillis + "]";
+	}
+
+	/**
+	 * A rule of the options for a field.
+	 */
+	static final class FieldRule {
+
+		static final int EXCLUDED = 0;
+		static final int REDACTED = 1;
+		static final int ORDERED = 2;
+		static final FieldRule EXCLUDE = new FieldRule(EXCLUDED, null);
+		static final FieldRule REDACT = new FieldRule(REDACTED, null);
+
+		final int kind;
+		// Field to order a repeated field by
+		final String orderByField;
+
+		FieldRule(int kind, String orderByField) {
+			this.kind = kind;
+			this.orderByField = orderByField;
+		}
+
 	}
 
 	/**
@@ -76,12 +262,29 @@ public class CompareOptions {
 		private List<String> excludeFields;
 		private List<String> redactionFields;
 		private ProtoMapper protoMapper;
+		private boolean sequenceAlignment;
+		private int maxAlignmentSize;
+		private int maxAlignmentEdits;
+		private ForkJoinPool forkJoinPool;
+		private int parallelThreshold;
+		private int maxDiffs;
+		private int maxDepth;
+		private long maxOutputSize;
+		private long timeoutMillis;
+		private List<MessageComparator<?>> messageComparators;
 
 		private Builder() {
 			messageVsKeyField = new HashMap<>();
 			orderRepeatedMsgByField = new HashMap<>();
 			excludeFields = new ArrayList<>();
 			redactionFields = new ArrayList<>();
+			messageComparators = new ArrayList<>();
+			maxAlignmentSize = 10000;
+			maxAlignmentEdits = 1000;
+			parallelThreshold = 1000;
+			maxDiffs = Integer.MAX_VALUE;
+			maxDepth = Integer.MAX_VALUE;
+			maxOutputSize = Long.MAX_VALUE;
 		}
 
 		/**
@@ -138,7 +341,9 @@ public class CompareOptions {
 		 * the repeated field is of primitive type, the order by field can be set as
 		 * null. Field format should be like "EncasingMessage.fieldName". E.g.:
 		 * "SampleMessage.keyField" Field format should be like
-		 * "EncasingMessage.fieldName". E.g.: "SampleMessage.keyField"
+		 * "EncasingMessage.fieldName". E.g.: "SampleMessage.keyField". The repeated
+		 * field can also be a path from the compared message with "*" for any field
+		 * and "**" for any number of fields. E.g.: "Member.**.borrowHistory"
 		 * 
 		 * @param repeatedField - The repeated field to be ordered.
 		 * @param orderByField  - The field to order by.
@@ -176,7 +381,10 @@ public class CompareOptions {
 		 * Add a field to be excluded from comparison.
 		 * 
 		 * @param field - Field to be excluded. Field format should be like
-		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field"
+		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field". Can
+		 *              also be a path from the compared message with "*" for any
+		 *              field and "**" for any number of fields. E.g.:
+		 *              "Member.**.price"
 		 * @return The current instance of {@link Builder}.
 		 */
 		public Builder addExcludeField(String field) {
@@ -208,7 +416,10 @@ public class CompareOptions {
 		 * contains sensitive information and needs to be redacted in comparison report
 		 * 
 		 * @param field - Field to be redacted. Field format should be like
-		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field"
+		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field". Can
+		 *              also be a path from the compared message with "*" for any
+		 *              field and "**" for any number of fields. E.g.:
+		 *              "Member.**.price"
 		 * @return The current instance of {@link Builder}.
 		 */
 		public Builder addRedactionField(String field) {
@@ -254,6 +465,171 @@ public class CompareOptions {
 			return protoMapper;
 		}
 
+		/**
+		 * Align the elements of repeated fields that are not ordered by a field by
+		 * their longest common subsequence instead of their position. With this, an
+		 * element inserted into or deleted from a repeated field is reported as such
+		 * instead of as a change in every element after it. Repeated fields with more
+		 * elements than the limit, or that need more edits than the limit, are
+		 * compared by position.
+		 * 
+		 * @param sequenceAlignment - If sequence alignment should be used.
+		 * @return The current instance of {@link Builder}.
+		 * @see #setSequenceAlignmentLimits(int, int)
+		 */
+		public Builder setSequenceAlignment(boolean sequenceAlignment) {
+			this.sequenceAlignment = sequenceAlignment;
+			return this;
+		}
+
+		/**
+		 * Set the limits for sequence alignment. Defaults to 10000 elements and 1000
+		 * edits.
+		 * 
+		 * @param maxSize  - Maximum number of elements in a repeated field to align.
+		 * @param maxEdits - Maximum number of inserted and deleted elements to look
+		 *                 for while aligning.
+		 * @return The current instance of {@link Builder}.
+		 * @see #setSequenceAlignment(boolean)
+		 */
+		public Builder setSequenceAlignmentLimits(int maxSize, int maxEdits) {
+			if (maxSize < 0 || maxEdits < 0) {
+				throw new IllegalArgumentException("Sequence alignment limits cannot be negative");
+			}
+			this.maxAlignmentSize = maxSize;
+			this.maxAlignmentEdits = maxEdits;
+			return this;
+		}
+
+		/**
+		 * Should repeated fields be aligned by their longest common subsequence.
+		 */
+		public boolean isSequenceAlignment() {
+			return sequenceAlignment;
+		}
+
+		/**
+		 * Compare and write the comparison report in parallel on the given pool. The
+		 * top level fields are compared one per task, and the aligned elements of a
+		 * repeated field with at least threshold elements are compared in chunks.
+		 * The changed top level fields and the changed elements of a repeated field
+		 * with at least threshold changed elements are written in chunks too. The
+		 * parts are joined in order, so the report is the same as without the pool.
+		 * Mappers must be thread safe to be used with a pool. Can be
+		 * {@link ForkJoinPool#commonPool()}. Defaults to null, i.e., the comparison
+		 * runs on the calling thread.
+		 * 
+		 * @param forkJoinPool - The pool to compare on. Null to not compare in
+		 *                     parallel.
+		 * @param threshold    - Minimum number of elements of a repeated field to
+		 *                     compare or write it in chunks. Defaults to 1000.
+		 * @return The current instance of {@link Builder}.
+		 */
+		public Builder setParallelism(ForkJoinPool forkJoinPool, int threshold) {
+			if (threshold < 1) {
+				throw new IllegalArgumentException("Parallel threshold should be positive");
+			}
+			this.forkJoinPool = forkJoinPool;
+			this.parallelThreshold = threshold;
+			return this;
+		}
+
+		/**
+		 * Get the pool to compare on.
+		 */
+		public ForkJoinPool getForkJoinPool() {
+			return forkJoinPool;
+		}
+
+		/**
+		 * Set the maximum number of differences, i.e., changed values, to report. The
+		 * comparison stops once the limit is reached and the report ends with a line
+		 * starting with "... truncated". Not limited by default.
+		 * 
+		 * @param maxDiffs - Maximum number of differences to report.
+		 * @return The current instance of {@link Builder}.
+		 */
+		public Builder setMaxDiffs(int maxDiffs) {
+			if (maxDiffs < 1) {
+				throw new IllegalArgumentException("Max diffs should be positive");
+			}
+			this.maxDiffs = maxDiffs;
+			return this;
+		}
+
+		/**
+		 * Set the maximum depth of messages and repeated fields to compare, where the
+		 * compared messages are at depth 0. The comparison stops at the first change
+		 * deeper than the limit and the report ends with a line starting with "...
+		 * truncated". Not limited by default.
+		 * 
+		 * @param maxDepth - Maximum depth to compare.
+		 * @return The current instance of {@link Builder}.
+		 */
+		public Builder setMaxDepth(int maxDepth) {
+			if (maxDepth < 0) {
+				throw new IllegalArgumentException("Max depth cannot be negative");
+			}
+			this.maxDepth = maxDepth;
+			return this;
+		}
+
+		/**
+		 * Set the maximum size of the report in characters. The comparison stops once
+		 * the report reaches the size, so the report can go over it by a line and the
+		 * closing of the open messages, and ends with a line starting with "...
+		 * truncated". Not limited by default.
+		 * 
+		 * @param maxOutputSize - Maximum size of the report in characters.
+		 * @return The current instance of {@link Builder}.
+		 */
+		public Builder setMaxOutputSize(long maxOutputSize) {
+			if (maxOutputSize < 1) {
+				throw new IllegalArgumentException("Max output size should be positive");
+			}
+			this.maxOutputSize = maxOutputSize;
+			return this;
+		}
+
+		/**
+		 * Set the time limit of writing a report. The comparison stops once the time
+		 * is over and the report ends with a line starting with "... truncated". The
+		 * time is checked between the changes, so a single large repeated field being
+		 * aligned can go over it. Not limited by default.
+		 * 
+		 * @param timeoutMillis - Time limit in milliseconds. 0 for no limit.
+		 * @return The current instance of {@link Builder}.
+		 */
+		public Builder setTimeout(long timeoutMillis) {
+			if (timeoutMillis < 0) {
+				throw new IllegalArgumentException("Timeout cannot be negative");
+			}
+			this.timeoutMillis = timeoutMillis;
+			return this;
+		}
+
+		/**
+		 * Add a comparator generated by
+		 * {@link com.jash.protokit.codegen.ComparatorGenerator} to read the fields of
+		 * its message type through the generated accessors. The report stays the
+		 * same, and messages of the type that are not of the generated class, e.g.,
+		 * {@link com.google.protobuf.DynamicMessage}, are read through reflection.
+		 * 
+		 * @param comparator - The generated comparator.
+		 * @return The current instance of {@link Builder}.
+		 */
+		public Builder addMessageComparator(MessageComparator<?> comparator) {
+			messageComparators.add(comparator);
+			return this;
+		}
+
+		/**
+		 * Get all the generated comparators added.
+		 */
+		public List<MessageComparator<?>> getMessageComparators() {
+			return messageComparators;
+		}
+
 		/**
 		 * Build the {@link CompareOptions} instance.
 		 * 
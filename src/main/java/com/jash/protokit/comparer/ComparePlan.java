@@ -0,0 +1,189 @@
+package com.jash.protokit.comparer;
+
+import java.util.List;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+import com.jash.protokit.comparer.CompareOptions.FieldRule;
+import com.jash.protokit.comparer.Internal.UtilAdapter;
+import com.jash.protokit.comparer.ProtoMapper.MapperFunction;
+import com.jash.protokit.internal.FieldAccessors;
+import com.jash.protokit.internal.PathTrie;
+
+/**
+ * Comparison decisions of a message type resolved against a
+ * {@link CompareOptions} instance. A plan is built once per descriptor and
+ * cached in the options, so that the comparison of a message does not need any
+ * field name or option lookups. All the arrays are indexed by
+ * {@link FieldDescriptor#getIndex()}.
+ * <p>
+ * If the options have path rules, a plan is of a message type at a path, and
+ * the plans of its message fields are got with {@link #getChildPlan}.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class ComparePlan {
+
+	private static final int MAP_KEY_FIELD_NUMBER = 1;
+
+	private final Descriptor descriptor;
+	private final PathTrie.State<FieldRule> rules;
+	private final CompareOptions options;
+	private final List<FieldDescriptor> fields;
+	private final boolean[] excluded;
+	private final boolean[] redacted;
+	private final boolean[] keyField;
+	private final boolean[] orderRepeated;
+	private final String[] orderByFieldName;
+	private final FieldDescriptor[] orderByField;
+	private final MapperFunction[] mapper;
+	private final boolean[] bulkMapper;
+	private final ComparePlan[] childPlan;
+	private final MessageComparator<Message> comparator;
+
+	@SuppressWarnings("unchecked")
+	ComparePlan(Descriptor descriptor, PathTrie.State<FieldRule> rules, CompareOptions options) {
+		this.descriptor = descriptor;
+		this.rules = rules;
+		this.options = options;
+		this.fields = descriptor.getFields();
+		int n = fields.size();
+		excluded = new boolean[n];
+		redacted = new boolean[n];
+		keyField = new boolean[n];
+		orderRepeated = new boolean[n];
+		orderByFieldName = new String[n];
+		orderByField = new FieldDescriptor[n];
+		mapper = new MapperFunction[n];
+		bulkMapper = new boolean[n];
+		childPlan = new ComparePlan[n];
+		comparator = (MessageComparator<Message>) options.getMessageComparator(descriptor);
+		String keyFieldName = options.getMessageKeyField(descriptor);
+		boolean mapEntry = descriptor.getOptions().getMapEntry();
+		ProtoMapper protoMapper = options.getProtoMapper();
+		for (FieldDescriptor field : fields) {
+			int i = field.getIndex();
+			// The key of a map entry is its key field
+			keyField[i] = mapEntry ? field.getNumber() == MAP_KEY_FIELD_NUMBER
+					: keyFieldName != null && field.getFullName().endsWith(keyFieldName);
+			for (FieldRule rule : rules.get(field)) {
+				if (rule.kind == FieldRule.EXCLUDED) {
+					excluded[i] = true;
+				} else if (rule.kind == FieldRule.REDACTED) {
+					redacted[i] = true;
+				} else if (field.isRepeated() && !orderRepeated[i]) {
+					orderRepeated[i] = true;
+					orderByFieldName[i] = rule.orderByField;
+				}
+			}
+			if (field.isMapField()) {
+				// Entries of a map are matched by their key whatever the rules
+				orderRepeated[i] = true;
+				orderByFieldName[i] = field.getMessageType().findFieldByNumber(MAP_KEY_FIELD_NUMBER).getName();
+			}
+			if (orderByFieldName[i] != null && field.getJavaType() == JavaType.MESSAGE) {
+				orderByField[i] = resolveField(field.getMessageType(), orderByFieldName[i]);
+			}
+			if (protoMapper != null) {
+				String fieldName = UtilAdapter.getFieldName(field.getFullName());
+				mapper[i] = protoMapper.getMapper(fieldName);
+				bulkMapper[i] = protoMapper.hasBulkMapper(fieldName);
+			}
+		}
+	}
+
+	private static FieldDescriptor resolveField(Descriptor descriptor, String fieldName) {
+		for (FieldDescriptor field : descriptor.getFields()) {
+			if (field.getFullName().endsWith(fieldName)) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	Descriptor getDescriptor() {
+		return descriptor;
+	}
+
+	List<FieldDescriptor> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Get the plan of the message type of a message field of this type, at the
+	 * path through the field.
+	 */
+	ComparePlan getChildPlan(FieldDescriptor field) {
+		int i = field.getIndex();
+		ComparePlan plan = childPlan[i];
+		if (plan == null) {
+			plan = options.getPlan(field.getMessageType(), rules.next(field));
+			childPlan[i] = plan;
+		}
+		return plan;
+	}
+
+	/**
+	 * Get the value of a field of a message of this type, through the generated
+	 * comparator if the message is of its class, else through the bound accessors
+	 * of {@link FieldAccessors}. Null if the message is null or the field is
+	 * singular and not set.
+	 */
+	Object getValue(Message message, FieldDescriptor field) {
+		if (comparator != null && message != null && comparator.getMessageClass() == message.getClass()) {
+			return comparator.getValue(message, field);
+		}
+		return FieldAccessors.getValue(message, field);
+	}
+
+	boolean isExcluded(FieldDescriptor field) {
+		return excluded[field.getIndex()];
+	}
+
+	boolean isRedacted(FieldDescriptor field) {
+		return redacted[field.getIndex()];
+	}
+
+	boolean isKeyField(FieldDescriptor field) {
+		return keyField[field.getIndex()];
+	}
+
+	boolean shouldOrderRepeated(FieldDescriptor field) {
+		return orderRepeated[field.getIndex()];
+	}
+
+	/**
+	 * Get the field name given to order a repeated field by, as set in the
+	 * options. Can be null for repeated primitive fields.
+	 */
+	String getOrderByFieldName(FieldDescriptor field) {
+		return orderByFieldName[field.getIndex()];
+	}
+
+	/**
+	 * Get the field of the element type to order a repeated message field by. Null
+	 * if the field is not found in the element type.
+	 */
+	FieldDescriptor getOrderByField(FieldDescriptor field) {
+		return orderByField[field.getIndex()];
+	}
+
+	boolean hasMapper(FieldDescriptor field) {
+		return mapper[field.getIndex()] != null;
+	}
+
+	boolean hasBulkMapper(FieldDescriptor field) {
+		return bulkMapper[field.getIndex()];
+	}
+
+	Object map(FieldDescriptor field, Object value, boolean firstObj) {
+		MapperFunction mapperFunction = mapper[field.getIndex()];
+		if (mapperFunction == null) {
+			return value;
+		}
+		return mapperFunction.map(value, firstObj);
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.jash.protokit.comparer;
+
+import com.google.protobuf.Message;
+
+/**
+ * Receives the records found by
+ * {@link ProtoComparer#compareAll(Iterable, Iterable, java.util.function.Function, CompareOptions, CompareSink)}.
+ * Methods are called on the calling thread, in the order of the second records
+ * followed by the removed records in the order of the first records.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+public interface CompareSink<T extends Message> {
+
+	/**
+	 * Called for a record present only in the second records.
+	 *
+	 * @param key     - Key of the record.
+	 * @param message - The record.
+	 */
+	default void added(Object key, T message) {
+	}
+
+	/**
+	 * Called for a record present only in the first records.
+	 *
+	 * @param key     - Key of the record.
+	 * @param message - The record.
+	 */
+	default void removed(Object key, T message) {
+	}
+
+	/**
+	 * Called for a record present in both with differences to report.
+	 *
+	 * @param key    - Key of the record.
+	 * @param m1     - The first record.
+	 * @param m2     - The second record.
+	 * @param report - The comparison report of the records.
+	 */
+	default void changed(Object key, T m1, T m2, String report) {
+	}
+
+	/**
+	 * Check if the sink uses the records. If not, the comparisons of serialized
+	 * records, e.g.,
+	 * {@link ProtoComparer#compareDelimited(java.io.InputStream, java.io.InputStream, com.google.protobuf.Descriptors.Descriptor, CompareOptions, CompareSink)},
+	 * do not parse the records and pass null instead. True by default.
+	 *
+	 * @return True if the records are passed to the sink.
+	 */
+	default boolean usesRecords() {
+		return true;
+	}
+
+}
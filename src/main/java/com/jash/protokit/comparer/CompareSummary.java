@@ -0,0 +1,83 @@
+package com.jash.protokit.comparer;
+
+/**
+ * A class to hold the counts of a bulk comparison.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ * @see ProtoComparer#compareAll(Iterable, Iterable, java.util.function.Function,
+ *      CompareOptions, CompareSink)
+ */
+public class CompareSummary {
+
+	private long added;
+	private long removed;
+	private long changed;
+	private long unchanged;
+	private long elapsedNanos;
+
+	protected CompareSummary(long added, long removed, long changed, long unchanged, long elapsedNanos) {
+		this.added = added;
+		this.removed = removed;
+		this.changed = changed;
+		this.unchanged = unchanged;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Get the number of records present only in the second records.
+	 */
+	public long getAdded() {
+		return added;
+	}
+
+	/**
+	 * Get the number of records present only in the first records.
+	 */
+	public long getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Get the number of records present in both with differences.
+	 */
+	public long getChanged() {
+		return changed;
+	}
+
+	/**
+	 * Get the number of records present in both without differences.
+	 */
+	public long getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Get the total number of distinct keys.
+	 */
+	public long getRecords() {
+		return added + removed + changed + unchanged;
+	}
+
+	/**
+	 * Get the time taken for the comparison in nanoseconds, including reading the
+	 * records and calling the sink.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Get the number of records compared per second.
+	 */
+	public double getRecordsPerSecond() {
+		return elapsedNanos > 0 ? getRecords() * 1e9 / elapsedNanos : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "CompareSummary [added=" + added + ", removed=" + removed + ", changed=" + changed + ", unchanged="
+				+ unchanged + ", elapsedNanos=" + elapsedNanos + ", recordsPerSecond="
+				+ String.format("%.1f", getRecordsPerSecond()) + "]";
+	}
+
+}
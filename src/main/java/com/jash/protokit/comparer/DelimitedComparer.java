@@ -0,0 +1,111 @@
+package com.jash.protokit.comparer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * Compares two streams of length-delimited records, as written by
+ * {@link Message#writeDelimitedTo(java.io.OutputStream)}, record by record.
+ * Only one record of each stream is held at a time, so the memory used does not
+ * depend on the size of the streams. Records that are byte for byte equal are
+ * not parsed, and the others are compared as serialized messages, so that only
+ * their differing fields are parsed. Records are parsed in full only to be
+ * passed to a sink that uses them.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class DelimitedComparer {
+
+	// Size of the buffer a record is read into before any of its bytes are read
+	static final int MAX_INITIAL_BUFFER_SIZE = 1 << 16;
+
+	private final Descriptor descriptor;
+	private final CompareOptions options;
+	private final CompareSink<? super Message> sink;
+	private final boolean parseRecords;
+
+	private long added;
+	private long removed;
+	private long changed;
+	private long unchanged;
+
+	DelimitedComparer(Descriptor descriptor, CompareOptions options, CompareSink<? super Message> sink) {
+		this.descriptor = descriptor;
+		this.options = options;
+		this.sink = sink;
+		parseRecords = sink.usesRecords();
+	}
+
+	CompareSummary compare(InputStream first, InputStream second) throws IOException {
+		long start = System.nanoTime();
+		for (long index = 0;; index++) {
+			ByteString b1 = readRecord(first);
+			ByteString b2 = readRecord(second);
+			if (b1 == null && b2 == null) {
+				break;
+			} else if (b1 == null) {
+				added++;
+				sink.added(index, parse(b2));
+			} else if (b2 == null) {
+				removed++;
+				sink.removed(index, parse(b1));
+			} else if (b1.equals(b2)) {
+				unchanged++;
+			} else {
+				String report = ProtoComparer.compare(b1, b2, descriptor, options);
+				if (report.isEmpty()) {
+					unchanged++;
+				} else {
+					changed++;
+					sink.changed(index, parse(b1), parse(b2), report);
+				}
+			}
+		}
+		return new CompareSummary(added, removed, changed, unchanged, System.nanoTime() - start);
+	}
+
+	private Message parse(ByteString bytes) throws IOException {
+		return parseRecords ? DynamicMessage.parseFrom(descriptor, bytes) : null;
+	}
+
+	/**
+	 * Read the next length-delimited record of a stream. Null at the end of the
+	 * stream. The buffer of a large record grows as its bytes are read, so that a
+	 * corrupt size fails at the end of the stream instead of allocating the size
+	 * up front.
+	 *
+	 * @throws EOFException if the stream ends within a record.
+	 */
+	static ByteString readRecord(InputStream in) throws IOException {
+		int firstByte = in.read();
+		if (firstByte == -1) {
+			return null;
+		}
+		int size = CodedInputStream.readRawVarint32(firstByte, in);
+		if (size < 0) {
+			throw new IOException("Negative record size: " + size);
+		}
+		byte[] bytes = new byte[Math.min(size, MAX_INITIAL_BUFFER_SIZE)];
+		for (int read = 0; read < size;) {
+			if (read == bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(size, 2L * bytes.length));
+			}
+			int count = in.read(bytes, read, bytes.length - read);
+			if (count == -1) {
+				throw new EOFException("Stream ends within a record of " + size + " bytes");
+			}
+			read += count;
+		}
+		return UnsafeByteOperations.unsafeWrap(bytes);
+	}
+
+}
@@ -0,0 +1,302 @@
+package com.jash.protokit.comparer;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * A node in the structured result of a comparison. The root node stands for the
+ * compared messages and each child node for a field (or an element of a
+ * repeated field) that differs between them. Children of a node are computed
+ * only when they are first asked for, so callers that only look at a few nodes
+ * do not pay for the whole comparison.
+ * <p>
+ * A message or repeated node can end up without any changes if all of its
+ * differences are in excluded fields or are mapped away. Use
+ * {@link #hasChanges()} to check for it.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ * @see ProtoComparer#diff(com.google.protobuf.Message,
+ *      com.google.protobuf.Message, CompareOptions)
+ */
+public class DiffNode {
+
+	private final DiffNode parent;
+	private final FieldDescriptor field;
+	private final String name;
+	private final Type type;
+	private final ChangeKind kind;
+	private final Object oldValue;
+	private final Object newValue;
+	private final int index;
+	private final int oldIndex;
+	private final int newIndex;
+	private final CompareContext context;
+
+	private List<DiffNode> children;
+	private String keyValue;
+	private String path;
+	private Boolean hasChanges;
+	private ComparePlan plan;
+
+	DiffNode(DiffNode parent, FieldDescriptor field, String name, Type type, Object oldValue, Object newValue,
+			int index, int oldIndex, int newIndex, CompareContext context) {
+		this.parent = parent;
+		this.field = field;
+		this.name = name;
+		this.type = type;
+		this.kind = ChangeKind.of(oldValue, newValue);
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+		this.index = index;
+		this.oldIndex = oldIndex;
+		this.newIndex = newIndex;
+		this.context = context;
+	}
+
+	/**
+	 * Get the parent node. Null for the root node.
+	 */
+	public DiffNode getParent() {
+		return parent;
+	}
+
+	/**
+	 * Get the field of this node. Null for the root node.
+	 */
+	public FieldDescriptor getField() {
+		return field;
+	}
+
+	/**
+	 * Get the name of this node, i.e., the field name or the message name for the
+	 * root node.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the path of this node from the root message. Fields are separated by "."
+	 * and elements of repeated fields are given as "field[index]". E.g.:
+	 * "borrowHistory[1].author". The path of the root node is empty.
+	 */
+	public String getPath() {
+		if (path == null) {
+			if (parent == null) {
+				path = "";
+			} else {
+				StringBuilder sb = new StringBuilder(parent.getPath());
+				if (index >= 0) {
+					sb.append('[').append(index).append(']');
+				} else {
+					if (sb.length() > 0) {
+						sb.append('.');
+					}
+					sb.append(name);
+				}
+				path = sb.toString();
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Get the type of this node.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Get the kind of change of this node.
+	 */
+	public ChangeKind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Get the value from the first message. Null if the value is created. If the
+	 * field has a mapper set to use the mapped value, this is the mapped value.
+	 */
+	public Object getOldValue() {
+		return oldValue;
+	}
+
+	/**
+	 * Get the value from the second message. Null if the value is deleted. If the
+	 * field has a mapper set to use the mapped value, this is the mapped value.
+	 */
+	public Object getNewValue() {
+		return newValue;
+	}
+
+	/**
+	 * Get the position of this node within the compared elements of a repeated
+	 * field. -1 if the node is not an element of a repeated field. If the repeated
+	 * field is ordered by a field, this is the position after ordering.
+	 * 
+	 * @see #getOldIndex()
+	 * @see #getNewIndex()
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get the index of the element of this node in the repeated field of the
+	 * first message. -1 if the element is created or the node is not an element
+	 * of a repeated field. Unlike {@link #getIndex()}, this does not depend on how
+	 * the elements are aligned for comparison. For map fields, this is the index
+	 * in the list of entries.
+	 */
+	public int getOldIndex() {
+		return oldIndex;
+	}
+
+	/**
+	 * Get the index of the element of this node in the repeated field of the
+	 * second message. -1 if the element is deleted or the node is not an element
+	 * of a repeated field.
+	 * 
+	 * @see #getOldIndex()
+	 */
+	public int getNewIndex() {
+		return newIndex;
+	}
+
+	/**
+	 * Get the value of the key field of a message node, if a key field is set for
+	 * the message type and its value is equal in both messages. Empty otherwise.
+	 */
+	public String getKeyValue() {
+		if (keyValue == null) {
+			keyValue = type == Type.MESSAGE ? ProtoComparer.getKeyValue(this) : "";
+		}
+		return keyValue;
+	}
+
+	/**
+	 * Get the changes within this node. Empty for value nodes.
+	 */
+	public List<DiffNode> getChildren() {
+		if (children == null) {
+			children = Collections.unmodifiableList(ProtoComparer.diffChildren(this));
+		}
+		return children;
+	}
+
+	/**
+	 * Check if this node or any of its descendants has a change to report.
+	 */
+	public boolean hasChanges() {
+		if (hasChanges == null) {
+			if (type == Type.VALUE) {
+				hasChanges = true;
+			} else if (children != null) {
+				boolean changes = false;
+				for (int i = 0; !changes && i < children.size(); i++) {
+					changes = children.get(i).hasChanges();
+				}
+				hasChanges = changes;
+			} else {
+				// Check without computing the children
+				hasChanges = !ProtoComparer.isEquivalent(this);
+			}
+		}
+		return hasChanges;
+	}
+
+	/**
+	 * Get the plan of the message of a message node, or of the message containing
+	 * the field for other nodes. The plans depend on the path when there are path
+	 * rules in the options. Null for a root node of two null messages.
+	 */
+	ComparePlan getPlan() {
+		if (plan == null) {
+			if (parent == null) {
+				Message message = (Message) (oldValue != null ? oldValue : newValue);
+				plan = message == null ? null : getOptions().getPlan(message.getDescriptorForType());
+			} else if (type == Type.MESSAGE) {
+				plan = getContainingPlan().getChildPlan(field);
+			} else {
+				plan = getContainingPlan();
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Get the plan of the message containing the field of this node.
+	 */
+	ComparePlan getContainingPlan() {
+		return parent.getPlan();
+	}
+
+	CompareOptions getOptions() {
+		return context.getOptions();
+	}
+
+	CompareContext getContext() {
+		return context;
+	}
+
+	@Override
+	public String toString() {
+		return "DiffNode [path=" + getPath() + ", type=" + type + ", kind=" + kind + "]";
+	}
+
+	/**
+	 * Type of a {@link DiffNode}.
+	 */
+	public enum Type {
+
+		/**
+		 * A message, i.e., the root or a message field or element.
+		 */
+		MESSAGE,
+		/**
+		 * A repeated field. The children are the changed elements.
+		 */
+		REPEATED,
+		/**
+		 * A primitive field or element.
+		 */
+		VALUE;
+
+	}
+
+	/**
+	 * Kind of change of a {@link DiffNode}.
+	 */
+	public enum ChangeKind {
+
+		/**
+		 * Value is present only in the second message.
+		 */
+		CREATED,
+		/**
+		 * Value is present only in the first message.
+		 */
+		DELETED,
+		/**
+		 * Value is present in both the messages.
+		 */
+		UPDATED;
+
+		static ChangeKind of(Object v1, Object v2) {
+			if (v1 == null && v2 != null) {
+				return CREATED;
+			} else if (v1 != null && v2 == null) {
+				return DELETED;
+			}
+			return UPDATED;
+		}
+
+	}
+
+}
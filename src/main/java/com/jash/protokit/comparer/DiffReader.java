@@ -0,0 +1,158 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.jash.protokit.comparer.DiffFormat.FieldChange;
+import com.jash.protokit.comparer.DiffFormat.MessageDiff;
+
+/**
+ * Reads the diffs written by
+ * {@link ProtoComparer#writeBinaryDiff(com.google.protobuf.Message, com.google.protobuf.Message, CompareOptions, java.io.OutputStream)}
+ * one at a time from a stream, and resolves the paths and values of their
+ * changes against the descriptor of the compared message type.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+public class DiffReader {
+
+	private final InputStream in;
+
+	/**
+	 * Create a reader of the diffs in a stream.
+	 *
+	 * @param in - The stream to read from.
+	 */
+	public DiffReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read the next diff.
+	 *
+	 * @return The next diff, or null at the end of the stream.
+	 * @throws IOException if the stream cannot be read or parsed.
+	 */
+	public MessageDiff next() throws IOException {
+		return MessageDiff.parseDelimitedFrom(in);
+	}
+
+	/**
+	 * Get the path of a change in the same form as {@link DiffNode#getPath()}.
+	 * E.g.: "borrowHistory[1].author".
+	 *
+	 * @param change     - The change.
+	 * @param descriptor - Descriptor of the compared message type.
+	 * @return The path of the change.
+	 * @throws IllegalArgumentException if the path is not found in the descriptor.
+	 */
+	public static String getPath(FieldChange change, Descriptor descriptor) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < change.getFieldNumbersCount(); i++) {
+			FieldDescriptor field = findField(descriptor, change.getFieldNumbers(i));
+			if (sb.length() > 0) {
+				sb.append('.');
+			}
+			sb.append(field.getName());
+			if (i < change.getIndexesCount() && change.getIndexes(i) >= 0) {
+				sb.append('[').append(change.getIndexes(i)).append(']');
+			}
+			if (field.getJavaType() == JavaType.MESSAGE) {
+				descriptor = field.getMessageType();
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the changed field.
+	 *
+	 * @param change     - The change.
+	 * @param descriptor - Descriptor of the compared message type.
+	 * @return The descriptor of the changed field.
+	 * @throws IllegalArgumentException if the path is not found in the descriptor.
+	 */
+	public static FieldDescriptor getField(FieldChange change, Descriptor descriptor) {
+		FieldDescriptor field = null;
+		for (int i = 0; i < change.getFieldNumbersCount(); i++) {
+			if (field != null) {
+				descriptor = field.getMessageType();
+			}
+			field = findField(descriptor, change.getFieldNumbers(i));
+		}
+		if (field == null) {
+			throw new IllegalArgumentException("Change has no field");
+		}
+		return field;
+	}
+
+	/**
+	 * Get the value from the first message. Null if the value is created or
+	 * redacted. If the field is compared by mapped value, this is the string form
+	 * of the mapped value.
+	 *
+	 * @param change     - The change.
+	 * @param descriptor - Descriptor of the compared message type.
+	 * @return The value from the first message.
+	 * @throws IOException if the value cannot be decoded.
+	 */
+	public static Object getOldValue(FieldChange change, Descriptor descriptor) throws IOException {
+		if (change.getKind() == FieldChange.Kind.CREATED) {
+			return null;
+		}
+		return decode(change, change.getOldValue(), descriptor);
+	}
+
+	/**
+	 * Get the value from the second message. Null if the value is deleted or
+	 * redacted. If the field is compared by mapped value, this is the string form
+	 * of the mapped value.
+	 *
+	 * @param change     - The change.
+	 * @param descriptor - Descriptor of the compared message type.
+	 * @return The value from the second message.
+	 * @throws IOException if the value cannot be decoded.
+	 */
+	public static Object getNewValue(FieldChange change, Descriptor descriptor) throws IOException {
+		if (change.getKind() == FieldChange.Kind.DELETED) {
+			return null;
+		}
+		return decode(change, change.getNewValue(), descriptor);
+	}
+
+	private static Object decode(FieldChange change, ByteString value, Descriptor descriptor) throws IOException {
+		if (change.getRedacted()) {
+			return null;
+		} else if (change.getMapped()) {
+			return value.toStringUtf8();
+		}
+		return decodeValue(getField(change, descriptor), value);
+	}
+
+	/**
+	 * Decode a value of a field as written in a change, e.g., the value of the
+	 * field the elements of a repeated field are ordered by. Messages are decoded
+	 * as {@link com.google.protobuf.DynamicMessage}.
+	 *
+	 * @param field - The field of the value.
+	 * @param value - The value as encoded on the wire without the tag.
+	 * @return The value.
+	 * @throws IOException if the value cannot be decoded.
+	 */
+	public static Object decodeValue(FieldDescriptor field, ByteString value) throws IOException {
+		return WireValues.decode(field, value);
+	}
+
+	private static FieldDescriptor findField(Descriptor descriptor, int number) {
+		FieldDescriptor field = descriptor.findFieldByNumber(number);
+		if (field == null) {
+			throw new IllegalArgumentException("Field " + number + " not found in " + descriptor.getFullName());
+		}
+		return field;
+	}
+
+}
@@ -0,0 +1,273 @@
+package com.jash.protokit.comparer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.jash.protokit.comparer.DiffNode.ChangeKind;
+
+/**
+ * Counts the changes found by comparisons per field path, without building any
+ * report. A change is counted for every changed primitive value, i.e., for every
+ * line of the report with a value. Paths are the names of the fields from the
+ * root message, without the element index of repeated fields. E.g.:
+ * "Member.borrowHistory.author". The root is named by the full name of its
+ * type if another root type has the same simple name. The counts are held in arrays indexed by field,
+ * one per message type within the compared messages, so counting does not
+ * create any strings.
+ * <p>
+ * Instances are not thread safe. Use one per thread and {@link #merge(DiffStats)}
+ * them.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ * @see ProtoComparer#collectStats(Message, Message, CompareOptions, DiffStats)
+ */
+public class DiffStats {
+
+	private static final int KIND_COUNT = ChangeKind.values().length;
+
+	private final Map<Descriptor, FieldCounts> roots = new LinkedHashMap<>();
+	private long compareCount;
+	private long diffCount;
+
+	/**
+	 * Count the changes of a comparison.
+	 *
+	 * @return True if any change is found.
+	 */
+	boolean collect(DiffNode root) {
+		compareCount++;
+		Message message = (Message) (root.getOldValue() != null ? root.getOldValue() : root.getNewValue());
+		if (message == null) {
+			return false;
+		}
+		boolean changes = collect(root, getRoot(message.getDescriptorForType()));
+		if (changes) {
+			diffCount++;
+		}
+		return changes;
+	}
+
+	/**
+	 * Count a comparison without changes.
+	 */
+	void collectEqual() {
+		compareCount++;
+	}
+
+	private static boolean collect(DiffNode node, FieldCounts counts) {
+		boolean changes = false;
+		for (DiffNode child : ProtoComparer.diffChildren(node)) {
+			FieldDescriptor field = child.getField();
+			switch (child.getType()) {
+			case VALUE:
+				counts.counts[field.getIndex() * KIND_COUNT + child.getKind().ordinal()]++;
+				changes = true;
+				break;
+			case REPEATED:
+				// Elements are counted under the repeated field
+				changes |= collect(child, counts);
+				break;
+			case MESSAGE:
+				changes |= collect(child, counts.getChild(field));
+				break;
+			}
+		}
+		return changes;
+	}
+
+	private FieldCounts getRoot(Descriptor descriptor) {
+		FieldCounts counts = roots.get(descriptor);
+		if (counts == null) {
+			counts = new FieldCounts(descriptor);
+			roots.put(descriptor, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Get the number of comparisons counted.
+	 */
+	public long getCompareCount() {
+		return compareCount;
+	}
+
+	/**
+	 * Get the number of comparisons with at least one change.
+	 */
+	public long getDiffCount() {
+		return diffCount;
+	}
+
+	/**
+	 * Get the number of changes of a kind at a field path.
+	 *
+	 * @param path - Path of the field from the root message, starting with the
+	 *             simple or full name of the root type. E.g.:
+	 *             "Member.borrowHistory.author"
+	 * @param kind - The kind of change.
+	 * @return The number of changes, 0 if none.
+	 * @throws IllegalArgumentException if the path starts with a simple name of
+	 *                                  more than one root type.
+	 */
+	public long getCount(String path, ChangeKind kind) {
+		for (FieldCounts root : roots.values()) {
+			if (path.startsWith(root.descriptor.getFullName() + ".")) {
+				return getCount(root, path.substring(root.descriptor.getFullName().length() + 1), kind);
+			}
+		}
+		FieldCounts counts = null;
+		for (FieldCounts root : roots.values()) {
+			if (path.startsWith(root.descriptor.getName() + ".")) {
+				if (counts != null) {
+					throw new IllegalArgumentException("Root type " + root.descriptor.getName()
+							+ " is ambiguous, use its full name: " + path);
+				}
+				counts = root;
+			}
+		}
+		return counts != null ? getCount(counts, path.substring(counts.descriptor.getName().length() + 1), kind) : 0;
+	}
+
+	/**
+	 * Get the number of changes of a kind at a field path of a root type.
+	 *
+	 * @param root - The type of the compared messages.
+	 * @param path - Path of the field from the root message. E.g.:
+	 *             "borrowHistory.author"
+	 * @param kind - The kind of change.
+	 * @return The number of changes, 0 if none.
+	 */
+	public long getCount(Descriptor root, String path, ChangeKind kind) {
+		FieldCounts counts = roots.get(root);
+		return counts != null ? getCount(counts, path, kind) : 0;
+	}
+
+	private static long getCount(FieldCounts counts, String path, ChangeKind kind) {
+		String[] names = path.split("\\.");
+		for (int i = 0; counts != null && i < names.length; i++) {
+			FieldDescriptor field = counts.descriptor.findFieldByName(names[i]);
+			if (field == null) {
+				return 0;
+			}
+			if (i == names.length - 1) {
+				return counts.counts[field.getIndex() * KIND_COUNT + kind.ordinal()];
+			}
+			counts = counts.children[field.getIndex()];
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the number of changes of a kind for all field paths with changes.
+	 *
+	 * @param kind - The kind of change.
+	 * @return The map of field path vs number of changes, sorted by path, see
+	 *         {@link #getCount(String, ChangeKind)} for the paths.
+	 */
+	public Map<String, Long> getCounts(ChangeKind kind) {
+		Map<String, Long> pathVsCount = new TreeMap<>();
+		for (FieldCounts root : roots.values()) {
+			addCounts(root, getRootName(root.descriptor), kind, pathVsCount);
+		}
+		return pathVsCount;
+	}
+
+	/**
+	 * Get the simple name of a root type, or its full name if another root type
+	 * has the same simple name.
+	 */
+	private String getRootName(Descriptor descriptor) {
+		for (Descriptor root : roots.keySet()) {
+			if (root != descriptor && root.getName().equals(descriptor.getName())) {
+				return descriptor.getFullName();
+			}
+		}
+		return descriptor.getName();
+	}
+
+	private static void addCounts(FieldCounts counts, String path, ChangeKind kind, Map<String, Long> pathVsCount) {
+		for (FieldDescriptor field : counts.descriptor.getFields()) {
+			long count = counts.counts[field.getIndex() * KIND_COUNT + kind.ordinal()];
+			String fieldPath = path + "." + field.getName();
+			if (count > 0) {
+				pathVsCount.put(fieldPath, count);
+			}
+			if (counts.children[field.getIndex()] != null) {
+				addCounts(counts.children[field.getIndex()], fieldPath, kind, pathVsCount);
+			}
+		}
+	}
+
+	/**
+	 * Add the counts of another instance to this one.
+	 *
+	 * @param other - The instance to add.
+	 * @return The current instance.
+	 */
+	public DiffStats merge(DiffStats other) {
+		compareCount += other.compareCount;
+		diffCount += other.diffCount;
+		for (Map.Entry<Descriptor, FieldCounts> entry : other.roots.entrySet()) {
+			getRoot(entry.getKey()).merge(entry.getValue());
+		}
+		return this;
+	}
+
+	/**
+	 * Clear all the counts so that the instance can be reused.
+	 */
+	public void reset() {
+		roots.clear();
+		compareCount = 0;
+		diffCount = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "DiffStats [compareCount=" + compareCount + ", diffCount=" + diffCount + ", created="
+				+ getCounts(ChangeKind.CREATED) + ", deleted=" + getCounts(ChangeKind.DELETED) + ", updated="
+				+ getCounts(ChangeKind.UPDATED) + "]";
+	}
+
+	/**
+	 * Counts of the fields of a message type at a path, by field index and kind.
+	 */
+	private static final class FieldCounts {
+
+		private final Descriptor descriptor;
+		private final long[] counts;
+		private final FieldCounts[] children;
+
+		private FieldCounts(Descriptor descriptor) {
+			this.descriptor = descriptor;
+			counts = new long[descriptor.getFields().size() * KIND_COUNT];
+			children = new FieldCounts[descriptor.getFields().size()];
+		}
+
+		private FieldCounts getChild(FieldDescriptor field) {
+			FieldCounts child = children[field.getIndex()];
+			if (child == null) {
+				child = new FieldCounts(field.getMessageType());
+				children[field.getIndex()] = child;
+			}
+			return child;
+		}
+
+		private void merge(FieldCounts other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			for (int i = 0; i < children.length; i++) {
+				if (other.children[i] != null) {
+					getChild(descriptor.getFields().get(i)).merge(other.children[i]);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,172 @@
+package com.jash.protokit.comparer;
+
+import java.util.List;
+
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.jash.protokit.internal.FieldAccessors;
+
+/**
+ * Computes and remembers a 64 bit structural fingerprint of messages, keyed by
+ * identity. Equal messages always have the same fingerprint, so messages with
+ * different fingerprints can be told apart without walking them again. The
+ * fingerprint of a message is built from the fingerprints of its sub-messages,
+ * so every message is walked only once. Not thread safe.
+ * <p>
+ * A cache can be advanced to a new generation, which keeps only the
+ * fingerprints used since the last advance, e.g., those of the baseline of a
+ * {@link BaselineComparer}, and drops the rest.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class FingerprintCache {
+
+	private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	private Object[] keys = new Object[16];
+	private long[] values = new long[16];
+	private int size;
+	// Number of fingerprints computed by this generation, i.e., messages walked
+	private int computed;
+	// The last generation, looked up before computing a fingerprint
+	private FingerprintCache previous;
+
+	/**
+	 * Get the fingerprint of a message.
+	 */
+	long of(Message message) {
+		int i = slotOf(message);
+		if (keys[i] == message) {
+			return values[i];
+		}
+		long fingerprint;
+		int j = previous != null ? previous.slotOf(message) : -1;
+		if (j >= 0 && previous.keys[j] == message) {
+			fingerprint = previous.values[j];
+		} else {
+			fingerprint = compute(message);
+			computed++;
+		}
+		put(message, fingerprint);
+		return fingerprint;
+	}
+
+	/**
+	 * Get the number of messages walked to compute their fingerprints since this
+	 * generation was started.
+	 */
+	int getComputedCount() {
+		return computed;
+	}
+
+	/**
+	 * Start a new generation of the cache. The fingerprints of this generation
+	 * are moved to the new one as they are used, and the rest are dropped when
+	 * the new one is advanced.
+	 *
+	 * @return The new generation.
+	 */
+	FingerprintCache advance() {
+		FingerprintCache next = new FingerprintCache();
+		next.previous = this;
+		previous = null;
+		return next;
+	}
+
+	/**
+	 * Get the slot of a message, or the empty slot to put it in.
+	 */
+	private int slotOf(Object message) {
+		int mask = keys.length - 1;
+		int i = System.identityHashCode(message) & mask;
+		while (keys[i] != null && keys[i] != message) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void put(Message message, long fingerprint) {
+		if ((size + 1) * 2 > keys.length) {
+			resize();
+		}
+		int mask = keys.length - 1;
+		int i = System.identityHashCode(message) & mask;
+		while (keys[i] != null) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = message;
+		values[i] = fingerprint;
+		size++;
+	}
+
+	private void resize() {
+		Object[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new Object[oldKeys.length * 2];
+		values = new long[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != null) {
+				int i = System.identityHashCode(oldKeys[j]) & mask;
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * Fingerprint of the fields known to the descriptor and the unknown fields.
+	 * Extensions are left out, which only makes the fingerprint less selective.
+	 */
+	private long compute(Message message) {
+		long fingerprint = mix(message.getDescriptorForType().getFullName().hashCode(), 0);
+		List<FieldDescriptor> fields = message.getDescriptorForType().getFields();
+		for (int i = 0; i < fields.size(); i++) {
+			FieldDescriptor field = fields.get(i);
+			long fieldFingerprint;
+			if (field.isRepeated()) {
+				int count = FieldAccessors.getCount(message, field);
+				if (count == 0) {
+					continue;
+				}
+				fieldFingerprint = count;
+				// Lists of primitives of generated messages are hashed without boxing
+				List<?> values = (List<?>) FieldAccessors.getValue(message, field);
+				boolean primitive = PrimitiveLists.isPrimitive(values);
+				for (int j = 0; j < count; j++) {
+					long valueFingerprint = primitive ? PrimitiveLists.hashCodeAt(values, j) : valueOf(values.get(j));
+					// Map entries are not ordered
+					fieldFingerprint = field.isMapField() ? fieldFingerprint + valueFingerprint
+							: mix(fieldFingerprint, valueFingerprint);
+				}
+			} else {
+				Object value = FieldAccessors.getValue(message, field);
+				if (value == null) {
+					continue;
+				}
+				fieldFingerprint = valueOf(value);
+			}
+			fingerprint = mix(mix(fingerprint, field.getNumber()), fieldFingerprint);
+		}
+		return mix(fingerprint, message.getUnknownFields().hashCode());
+	}
+
+	private long valueOf(Object value) {
+		if (value instanceof Message) {
+			return of((Message) value);
+		} else if (value instanceof EnumValueDescriptor) {
+			return ((EnumValueDescriptor) value).getNumber();
+		}
+		return value.hashCode();
+	}
+
+	private static long mix(long fingerprint, long value) {
+		long h = (fingerprint ^ value) * MULTIPLIER;
+		return h ^ (h >>> 32);
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.jash.protokit.comparer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * Reads the length-delimited records of a file through a memory-mapped window
+ * of the file. The window is moved forward as the records are read, so files
+ * larger than the 2GB limit of a single mapping can be read, and the records
+ * are not copied to the heap. A record is returned as a {@link ByteString} over
+ * the mapped window, which stays valid for as long as the record is referenced.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class MappedRecordReader implements Closeable {
+
+	static final long DEFAULT_WINDOW_SIZE = 256L << 20;
+	private static final int MAX_VARINT32_SIZE = 5;
+
+	private final FileChannel channel;
+	private final long size;
+	private final long windowSize;
+	private MappedByteBuffer window;
+	// Position of the window in the file
+	private long windowStart;
+	// Position of the next record in the file
+	private long position;
+
+	MappedRecordReader(Path path, long windowSize) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Read the next record. Null at the end of the file.
+	 *
+	 * @throws EOFException if the file ends within a record.
+	 */
+	ByteString next() throws IOException {
+		if (position >= size) {
+			return null;
+		}
+		mapWindow(position, Math.min(MAX_VARINT32_SIZE, size - position));
+		int offset = (int) (position - windowStart);
+		int recordSize = 0;
+		int headerSize = 0;
+		for (int shift = 0;; shift += 7) {
+			if (headerSize == MAX_VARINT32_SIZE || position + headerSize >= size) {
+				throw new EOFException("Malformed record size at " + position);
+			}
+			byte b = window.get(offset + headerSize++);
+			recordSize |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+		}
+		if (recordSize < 0) {
+			throw new IOException("Negative record size at " + position + ": " + recordSize);
+		}
+		long recordStart = position + headerSize;
+		if (recordStart + recordSize > size) {
+			throw new EOFException("File ends within a record of " + recordSize + " bytes at " + position);
+		}
+		mapWindow(recordStart, recordSize);
+		ByteBuffer record = window.duplicate();
+		record.position((int) (recordStart - windowStart));
+		record.limit(record.position() + recordSize);
+		position = recordStart + recordSize;
+		return UnsafeByteOperations.unsafeWrap(record.slice());
+	}
+
+	/**
+	 * Map the window of the file from the given position, unless the current
+	 * window already covers the given length from it.
+	 */
+	private void mapWindow(long start, long length) throws IOException {
+		if (window != null && start >= windowStart && start + length <= windowStart + window.capacity()) {
+			return;
+		}
+		long mapSize = Math.min(Math.max(windowSize, length), size - start);
+		window = channel.map(MapMode.READ_ONLY, start, mapSize);
+		windowStart = start;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.jash.protokit.comparer;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.jash.protokit.comparer.DiffNode.Type;
+import com.jash.protokit.comparer.Internal.UtilAdapter;
+
+/**
+ * Mapped values of the fields with a bulk display mapper in a {@link DiffNode}
+ * tree. The changed values of such fields are collected from the whole tree and
+ * mapped with one call per field and side, so that the report does not call the
+ * mapper per value.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class MappedValues {
+
+	private final Map<FieldDescriptor, Map<Object, Object>> firstValues = new HashMap<>();
+	private final Map<FieldDescriptor, Map<Object, Object>> secondValues = new HashMap<>();
+
+	private MappedValues() {
+	}
+
+	/**
+	 * Map the values of the tree of a root node. Null if the options have no bulk
+	 * display mapper, or have report limits, in which case the tree is not walked
+	 * ahead of the report.
+	 */
+	static MappedValues of(DiffNode root) {
+		CompareOptions options = root.getOptions();
+		ProtoMapper protoMapper = options.getProtoMapper();
+		if (protoMapper == null || !protoMapper.hasBulkMappers() || protoMapper.shouldUseMappedValue()
+				|| options.hasReportLimits()) {
+			return null;
+		}
+		Map<FieldDescriptor, Set<Object>> firstUnmapped = new HashMap<>();
+		Map<FieldDescriptor, Set<Object>> secondUnmapped = new HashMap<>();
+		collect(root, firstUnmapped, secondUnmapped);
+		if (firstUnmapped.isEmpty() && secondUnmapped.isEmpty()) {
+			return null;
+		}
+		MappedValues mappedValues = new MappedValues();
+		mapAll(protoMapper, firstUnmapped, true, mappedValues.firstValues);
+		mapAll(protoMapper, secondUnmapped, false, mappedValues.secondValues);
+		return mappedValues;
+	}
+
+	private static void collect(DiffNode node, Map<FieldDescriptor, Set<Object>> firstUnmapped,
+			Map<FieldDescriptor, Set<Object>> secondUnmapped) {
+		if (node.getType() != Type.VALUE) {
+			// Children are not cached in the node, so the tree is not kept in memory
+			for (DiffNode child : ProtoComparer.diffChildren(node)) {
+				collect(child, firstUnmapped, secondUnmapped);
+			}
+			return;
+		}
+		FieldDescriptor field = node.getField();
+		ComparePlan plan = node.getContainingPlan();
+		if (!plan.hasBulkMapper(field) || plan.isRedacted(field)) {
+			return;
+		}
+		if (node.getOldValue() != null) {
+			firstUnmapped.computeIfAbsent(field, key -> new LinkedHashSet<>()).add(node.getOldValue());
+		}
+		if (node.getNewValue() != null) {
+			secondUnmapped.computeIfAbsent(field, key -> new LinkedHashSet<>()).add(node.getNewValue());
+		}
+	}
+
+	private static void mapAll(ProtoMapper protoMapper, Map<FieldDescriptor, Set<Object>> unmapped,
+			boolean firstObj, Map<FieldDescriptor, Map<Object, Object>> mapped) {
+		for (Map.Entry<FieldDescriptor, Set<Object>> entry : unmapped.entrySet()) {
+			String fieldName = UtilAdapter.getFieldName(entry.getKey().getFullName());
+			mapped.put(entry.getKey(), protoMapper.mapAll(fieldName, entry.getValue(), firstObj));
+		}
+	}
+
+	/**
+	 * Get the mapped value of a field value, mapping it with the plan if it is not
+	 * mapped already.
+	 */
+	Object map(ComparePlan plan, FieldDescriptor field, Object value, boolean firstObj) {
+		Map<Object, Object> values = (firstObj ? firstValues : secondValues).get(field);
+		if (values != null && values.containsKey(value)) {
+			return values.get(value);
+		}
+		return plan.map(field, value, firstObj);
+	}
+
+}
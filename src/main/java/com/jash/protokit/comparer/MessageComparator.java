@@ -0,0 +1,36 @@
+package com.jash.protokit.comparer;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Reads the fields of one generated message type for {@link ProtoComparer}
+ * through the generated accessors instead of reflection. Implementations are
+ * generated per message type by
+ * {@link com.jash.protokit.codegen.ComparatorGenerator} and set with
+ * {@link CompareOptions.Builder#addMessageComparator(MessageComparator)}. The
+ * report is the same as without them, and messages of any other class, e.g.,
+ * {@link com.google.protobuf.DynamicMessage}, are read through reflection.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ * @param <T> - The generated message class.
+ */
+public interface MessageComparator<T extends Message> {
+
+	/**
+	 * Get the generated message class read by this instance.
+	 */
+	Class<T> getMessageClass();
+
+	/**
+	 * Get the value of a field of a message the same as
+	 * {@link Message#getField(FieldDescriptor)}, or null if the field is singular
+	 * and not set.
+	 *
+	 * @param message - The message.
+	 * @param field   - The field of the message type.
+	 * @return The value of the field.
+	 */
+	Object getValue(T message, FieldDescriptor field);
+
+}
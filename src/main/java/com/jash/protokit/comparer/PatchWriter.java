@@ -0,0 +1,216 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Objects;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.jash.protokit.comparer.DiffNode.ChangeKind;
+import com.jash.protokit.comparer.DiffNode.Type;
+
+/**
+ * Writes the differences of a {@link DiffNode} tree to an {@link Appendable} as
+ * a JSON array of patch operations, one per changed value, as the tree is
+ * traversed. E.g.:
+ *
+ * <pre>
+ * [
+ * {"op":"replace","path":"/address/city","value":"City 2","oldValue":"City 1"},
+ * {"op":"add","path":"/borrowHistory/1/author","value":"Author"}
+ * ]
+ * </pre>
+ *
+ * Operations are "add", "remove" and "replace", with a JSON pointer path made
+ * of the field names and the element indexes of repeated fields. The index of
+ * an element is its index in the first message, or in the second message if
+ * the element is created, whatever the order the elements are compared in.
+ * Entries of map fields are elements of the list of entries. Values are
+ * written as in the proto3 JSON mapping, except that messages are not written as
+ * a whole but as an operation per field. Redacted values are written as "****",
+ * and values of fields with a display mapper get the mapped value as
+ * "mappedValue" and "oldMappedValue". If a limit of the options is reached, the
+ * last operation is "truncated" with the reason.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class PatchWriter {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private Appendable out;
+	private ReportBudget budget;
+	// JSON pointer of the current node
+	private final StringBuilder path = new StringBuilder(64);
+	private boolean firstOperation = true;
+	// Values mapped ahead by bulk mappers, if any
+	private MappedValues mappedValues;
+
+	PatchWriter(Appendable out) {
+		this.out = out;
+	}
+
+	/**
+	 * Write the patch of the given node and its descendants.
+	 */
+	void write(DiffNode node) throws IOException {
+		budget = new ReportBudget(node.getOptions());
+		out = budget.count(out);
+		mappedValues = MappedValues.of(node);
+		out.append('[');
+		if (node.getOldValue() != null || node.getNewValue() != null) {
+			write(node, 0);
+		}
+		if (budget.getTruncation() != null) {
+			startOperation();
+			out.append("{\"op\":\"truncated\",\"reason\":");
+			writeString(budget.getTruncation());
+			out.append('}');
+		}
+		out.append(firstOperation ? "]\n" : "\n]\n");
+	}
+
+	private void write(DiffNode node, int depth) throws IOException {
+		if (budget.isExhausted(node, depth)) {
+			return;
+		}
+		int pathLength = path.length();
+		if (node.getParent() != null) {
+			path.append('/');
+			if (node.getIndex() >= 0) {
+				// Index of the element in the first message, or in the second if created
+				path.append(node.getOldIndex() >= 0 ? node.getOldIndex() : node.getNewIndex());
+			} else {
+				path.append(node.getName());
+			}
+		}
+		if (node.getType() == Type.VALUE) {
+			writeOperation(node);
+			budget.countDiff();
+		} else {
+			Iterator<DiffNode> children = ProtoComparer.iterateChildren(node, budget);
+			while (budget.getTruncation() == null && children.hasNext()) {
+				write(children.next(), depth + 1);
+			}
+		}
+		path.setLength(pathLength);
+	}
+
+	private void writeOperation(DiffNode node) throws IOException {
+		FieldDescriptor field = node.getField();
+		CompareOptions options = node.getOptions();
+		ComparePlan plan = node.getContainingPlan();
+		boolean redacted = plan.isRedacted(field);
+		boolean displayMapper = !redacted && plan.hasMapper(field)
+				&& !options.getProtoMapper().shouldUseMappedValue();
+		ChangeKind kind = node.getKind();
+		startOperation();
+		out.append("{\"op\":\"");
+		out.append(kind == ChangeKind.CREATED ? "add" : kind == ChangeKind.DELETED ? "remove" : "replace");
+		out.append("\",\"path\":");
+		writeString(path);
+		if (kind != ChangeKind.DELETED) {
+			out.append(",\"value\":");
+			writeValue(field, node.getNewValue(), redacted);
+			if (displayMapper) {
+				writeMappedValue(",\"mappedValue\":", field, node.getNewValue(), plan, false);
+			}
+		}
+		if (kind != ChangeKind.CREATED) {
+			out.append(",\"oldValue\":");
+			writeValue(field, node.getOldValue(), redacted);
+			if (displayMapper) {
+				writeMappedValue(",\"oldMappedValue\":", field, node.getOldValue(), plan, true);
+			}
+		}
+		out.append('}');
+	}
+
+	private void writeMappedValue(String name, FieldDescriptor field, Object value, ComparePlan plan,
+			boolean firstObj) throws IOException {
+		Object mappedValue = mappedValues != null ? mappedValues.map(plan, field, value, firstObj)
+				: plan.map(field, value, firstObj);
+		if (!Objects.equals(mappedValue, value)) {
+			out.append(name);
+			writeValue(field, mappedValue, false);
+		}
+	}
+
+	private void startOperation() throws IOException {
+		out.append(firstOperation ? "\n" : ",\n");
+		firstOperation = false;
+	}
+
+	private void writeValue(FieldDescriptor field, Object value, boolean redacted) throws IOException {
+		if (redacted) {
+			writeString("****");
+		} else if (value == null) {
+			out.append("null");
+		} else if (value instanceof Integer) {
+			// Unsigned types are held in signed values
+			boolean unsigned = field.getType() == FieldDescriptor.Type.UINT32
+					|| field.getType() == FieldDescriptor.Type.FIXED32;
+			out.append(unsigned ? Integer.toUnsignedString((Integer) value) : value.toString());
+		} else if (value instanceof Long) {
+			// 64 bit integers are written as strings as in the proto3 JSON mapping
+			boolean unsigned = field.getType() == FieldDescriptor.Type.UINT64
+					|| field.getType() == FieldDescriptor.Type.FIXED64;
+			writeString(unsigned ? Long.toUnsignedString((Long) value) : value.toString());
+		} else if (value instanceof Float || value instanceof Double) {
+			double number = ((Number) value).doubleValue();
+			if (Double.isNaN(number) || Double.isInfinite(number)) {
+				writeString(value.toString());
+			} else {
+				out.append(value.toString());
+			}
+		} else if (value instanceof Boolean) {
+			out.append(value.toString());
+		} else if (value instanceof EnumValueDescriptor) {
+			writeString(((EnumValueDescriptor) value).getName());
+		} else if (value instanceof ByteString) {
+			writeString(Base64.getEncoder().encodeToString(((ByteString) value).toByteArray()));
+		} else {
+			writeString(String.valueOf(value));
+		}
+	}
+
+	/**
+	 * Write a JSON string, escaping the characters that need to be.
+	 */
+	private void writeString(CharSequence value) throws IOException {
+		out.append('"');
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				continue;
+			}
+			out.append(value, start, i);
+			start = i + 1;
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+			}
+		}
+		out.append(value, start, value.length());
+		out.append('"');
+	}
+
+}
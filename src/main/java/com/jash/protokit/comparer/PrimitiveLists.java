@@ -0,0 +1,158 @@
+package com.jash.protokit.comparer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.protobuf.Internal.BooleanList;
+import com.google.protobuf.Internal.DoubleList;
+import com.google.protobuf.Internal.FloatList;
+import com.google.protobuf.Internal.IntList;
+import com.google.protobuf.Internal.LongList;
+
+/**
+ * Operations on the repeated scalar fields of generated messages that do not
+ * box the elements. The accessors of generated messages return such fields as
+ * lists backed by a primitive array, e.g., {@link IntList}, so their elements
+ * can be read as primitives. Elements are compared as their boxed values are,
+ * i.e., floating point values by their bits, and hashed to the hash code of
+ * their boxed values, so the results are the same as for any other list.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class PrimitiveLists {
+
+	private PrimitiveLists() {
+	}
+
+	/**
+	 * Check if two values are lists of the same primitive type.
+	 */
+	static boolean isPrimitive(Object v1, Object v2) {
+		return (v1 instanceof IntList && v2 instanceof IntList) || (v1 instanceof LongList && v2 instanceof LongList)
+				|| (v1 instanceof DoubleList && v2 instanceof DoubleList)
+				|| (v1 instanceof FloatList && v2 instanceof FloatList)
+				|| (v1 instanceof BooleanList && v2 instanceof BooleanList);
+	}
+
+	/**
+	 * Check if a value is a list of a primitive type.
+	 */
+	static boolean isPrimitive(Object value) {
+		return isPrimitive(value, value);
+	}
+
+	/**
+	 * Check if two lists of the same primitive type are equal.
+	 */
+	static boolean equals(List<?> l1, List<?> l2) {
+		if (l1.size() != l2.size()) {
+			return false;
+		}
+		for (int i = 0; i < l1.size(); i++) {
+			if (!equalsAt(l1, l2, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if the elements at an index of two lists of the same primitive type
+	 * are equal.
+	 */
+	static boolean equalsAt(List<?> l1, List<?> l2, int index) {
+		return bitsAt(l1, index) == bitsAt(l2, index);
+	}
+
+	/**
+	 * Hash code of the boxed value of an element of a list of a primitive type.
+	 */
+	static int hashCodeAt(List<?> list, int index) {
+		if (list instanceof IntList) {
+			return Integer.hashCode(((IntList) list).getInt(index));
+		} else if (list instanceof LongList) {
+			return Long.hashCode(((LongList) list).getLong(index));
+		} else if (list instanceof DoubleList) {
+			return Double.hashCode(((DoubleList) list).getDouble(index));
+		} else if (list instanceof FloatList) {
+			return Float.hashCode(((FloatList) list).getFloat(index));
+		}
+		return Boolean.hashCode(((BooleanList) list).getBoolean(index));
+	}
+
+	/**
+	 * Drop the elements present in both lists of the same primitive type, first
+	 * occurrences first, through sorted copies of the elements. No element is
+	 * boxed.
+	 *
+	 * @return The indexes of the elements left as {first, second}.
+	 */
+	static int[][] dropCommonElements(List<?> l1, List<?> l2) {
+		long[] bits1 = toBits(l1);
+		long[] bits2 = toBits(l2);
+		long[] sorted1 = bits1.clone();
+		long[] sorted2 = bits2.clone();
+		Arrays.sort(sorted1);
+		Arrays.sort(sorted2);
+		// Distinct common values and the number of times each is in both lists
+		long[] values = new long[Math.min(sorted1.length, sorted2.length)];
+		int[] counts = new int[values.length];
+		int n = 0;
+		for (int i = 0, j = 0; i < sorted1.length && j < sorted2.length;) {
+			if (sorted1[i] < sorted2[j]) {
+				i++;
+			} else if (sorted1[i] > sorted2[j]) {
+				j++;
+			} else {
+				if (n == 0 || values[n - 1] != sorted1[i]) {
+					values[n++] = sorted1[i];
+				}
+				counts[n - 1]++;
+				i++;
+				j++;
+			}
+		}
+		return new int[][] { dropCommonElements(bits1, values, counts.clone(), n),
+				dropCommonElements(bits2, values, counts, n) };
+	}
+
+	private static int[] dropCommonElements(long[] bits, long[] values, int[] counts, int n) {
+		int[] indexes = new int[bits.length];
+		int size = 0;
+		for (int i = 0; i < bits.length; i++) {
+			int index = Arrays.binarySearch(values, 0, n, bits[i]);
+			if (index >= 0 && counts[index] > 0) {
+				counts[index]--;
+				continue;
+			}
+			indexes[size++] = i;
+		}
+		return Arrays.copyOf(indexes, size);
+	}
+
+	private static long[] toBits(List<?> list) {
+		long[] bits = new long[list.size()];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = bitsAt(list, i);
+		}
+		return bits;
+	}
+
+	/**
+	 * Element of a list of a primitive type as a long that is equal for two
+	 * elements if and only if their boxed values are equal.
+	 */
+	private static long bitsAt(List<?> list, int index) {
+		if (list instanceof IntList) {
+			return ((IntList) list).getInt(index);
+		} else if (list instanceof LongList) {
+			return ((LongList) list).getLong(index);
+		} else if (list instanceof DoubleList) {
+			return Double.doubleToLongBits(((DoubleList) list).getDouble(index));
+		} else if (list instanceof FloatList) {
+			return Float.floatToIntBits(((FloatList) list).getFloat(index));
+		}
+		return ((BooleanList) list).getBoolean(index) ? 1 : 0;
+	}
+
+}
@@ -1,18 +1,35 @@
 package com.jash.protokit.comparer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
-import com.google.protobuf.Descriptors;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import com.jash.protokit.comparer.DiffNode.ChangeKind;
+import com.jash.protokit.comparer.DiffNode.Type;
 
 /**
  * Utility class to compare two messages.
@@ -21,19 +38,6 @@ import com.google.protobuf.Message;
  */
 public class ProtoComparer {
 
-	private static final String MESSAGE_START = "{\n";
-	private static final String MESSAGE_END = "}\n";
-	private static final String LIST_START = "[\n";
-	private static final String LIST_END = "]\n";
-	private static final String COLON_SPACE = ": ";
-
-	private static final int LEVEL_SPACE_COUNT = 2;
-
-	private static final char SIGN_CREATE = '+';
-	private static final char SIGN_UPDATE = ' ';
-	private static final char SIGN_DELETE = '-';
-	private static final char SIGN_EMPTY = ' ';
-
 	/**
 	 * Compare two messages and return the differences.
 	 * 
@@ -58,9 +62,362 @@ public class ProtoComparer {
 			// No diff
 			return new String();
 		}
+		StringBuilder sb = new StringBuilder(512);
+		try {
+			new ReportWriter(sb).write(diff(m1, m2, options));
+		} catch (IOException e) {
+			// Should not get here as StringBuilder does not throw IOException
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Compare two messages and write the differences to the given output as they
+	 * are found. Can be used with a {@link java.io.Writer} to write large reports
+	 * without holding them in memory. Options can be null.
+	 * 
+	 * @param m1      - The first message.
+	 * @param m2      - The second message.
+	 * @param options - Compare options to use for comparison.
+	 * @param out     - The output to write the differences to.
+	 * @throws IOException if writing to the output fails.
+	 */
+	public static void compare(Message m1, Message m2, CompareOptions options, Appendable out) throws IOException {
+		if (Objects.equals(m1, m2)) {
+			// No diff
+			return;
+		}
+		new ReportWriter(out).write(diff(m1, m2, options));
+	}
+
+	/**
+	 * Compare two messages and write the differences to the given output as a JSON
+	 * array of patch operations, one per changed value, as they are found. E.g.:
+	 * {"op":"replace","path":"/address/city","value":"City 2","oldValue":"City
+	 * 1"}. Operations are "add", "remove" and "replace". Redaction, mappers and
+	 * limits of the options are applied as for the text report. Options can be
+	 * null.
+	 * 
+	 * @param m1      - The first message.
+	 * @param m2      - The second message.
+	 * @param options - Compare options to use for comparison.
+	 * @param out     - The output to write the patch to.
+	 * @throws IOException if writing to the output fails.
+	 */
+	public static void writePatch(Message m1, Message m2, CompareOptions options, Appendable out)
+			throws IOException {
+		if (Objects.equals(m1, m2)) {
+			// No diff
+			out.append("[]\n");
+			return;
+		}
+		new PatchWriter(out).write(diff(m1, m2, options));
+	}
+
+	/**
+	 * Compare two messages and write the differences to the given stream as a
+	 * {@link DiffFormat.MessageDiff} of diff.proto, prefixed with its size. Each
+	 * changed value is a {@link DiffFormat.FieldChange} with the field number path
+	 * and the values as encoded on the wire, so the diff is much smaller and
+	 * faster to write than the text report. A diff is written even if there are
+	 * no differences, so that the diffs of many comparisons can be written one
+	 * after another and read back in order with {@link DiffReader}. Redaction and
+	 * limits of the options are applied as for the text report. Options can be
+	 * null.
+	 * 
+	 * @param m1      - The first message.
+	 * @param m2      - The second message.
+	 * @param options - Compare options to use for comparison.
+	 * @param out     - The stream to write the diff to.
+	 * @throws IOException if writing to the stream fails.
+	 */
+	public static void writeBinaryDiff(Message m1, Message m2, CompareOptions options, OutputStream out)
+			throws IOException {
+		new BinaryDiffWriter(out).write(diff(m1, m2, options));
+	}
+
+	/**
+	 * Compare two messages and count the differences per field path in the given
+	 * stats, without building any report. The stats can be reused across
+	 * comparisons to aggregate the counts.
+	 * 
+	 * @param m1      - The first message.
+	 * @param m2      - The second message.
+	 * @param options - Compare options to use for comparison.
+	 * @param stats   - The stats to count the differences in.
+	 * @return True if any difference is found.
+	 */
+	public static boolean collectStats(Message m1, Message m2, CompareOptions options, DiffStats stats) {
+		if (Objects.equals(m1, m2)) {
+			// No diff
+			stats.collectEqual();
+			return false;
+		}
+		return stats.collect(diff(m1, m2, options));
+	}
+
+	/**
+	 * Compare two messages and get the paths of the fields that differ, e.g., to
+	 * send a partial update of only the changed fields. The paths are those of the
+	 * changed values and of the sub-messages created or deleted as a whole, in
+	 * the order of the report. Elements of repeated and map fields cannot be
+	 * addressed in a field mask, so the path of a changed repeated field is that
+	 * of the whole field. No values are formatted. Options can be null.
+	 * 
+	 * @param m1      - The first message.
+	 * @param m2      - The second message.
+	 * @param options - Compare options to use for comparison.
+	 * @return A {@link FieldMask} of the changed paths. Empty if there are no
+	 *         differences.
+	 */
+	public static FieldMask changedPaths(Message m1, Message m2, CompareOptions options) {
+		FieldMask.Builder mask = FieldMask.newBuilder();
+		if (!Objects.equals(m1, m2)) {
+			collectChangedPaths(diff(m1, m2, options), new StringBuilder(), mask);
+		}
+		return mask.build();
+	}
+
+	private static void collectChangedPaths(DiffNode node, StringBuilder path, FieldMask.Builder mask) {
+		int pathLength = path.length();
+		for (DiffNode child : diffChildren(node)) {
+			if (path.length() > 0) {
+				path.append('.');
+			}
+			path.append(child.getField().getName());
+			if (child.getType() == Type.MESSAGE && child.getKind() == ChangeKind.UPDATED) {
+				collectChangedPaths(child, path, mask);
+			} else if (child.getType() != Type.REPEATED || !diffChildren(child).isEmpty()) {
+				mask.addPaths(path.toString());
+			}
+			path.setLength(pathLength);
+		}
+	}
+
+	/**
+	 * Compare two serialized messages and return the differences. Fields that are
+	 * byte for byte equal in both the messages are skipped without parsing, and
+	 * only the differing parts are parsed for comparison. The report is the same
+	 * as comparing the parsed messages.
+	 * 
+	 * @param b1         - The first serialized message. Null if absent.
+	 * @param b2         - The second serialized message. Null if absent.
+	 * @param descriptor - Descriptor of the message type.
+	 * @param options    - Compare options to use for comparison.
+	 * @return The differences between the two messages.
+	 * @throws InvalidProtocolBufferException if a message cannot be parsed.
+	 */
+	public static String compare(ByteString b1, ByteString b2, Descriptor descriptor, CompareOptions options)
+			throws InvalidProtocolBufferException {
+		if (Objects.equals(b1, b2)) {
+			// No diff
+			return new String();
+		}
 		if (options == null) {
 			options = CompareOptions.DUMMY_OPTIONS;
 		}
+		Message m1 = null, m2 = null;
+		try {
+			ByteString[] reduced = new WireReducer(options).reduce(b1 != null ? b1 : ByteString.EMPTY,
+					b2 != null ? b2 : ByteString.EMPTY, descriptor);
+			if (b1 != null) {
+				m1 = DynamicMessage.parseFrom(descriptor, reduced[0]);
+			}
+			if (b2 != null) {
+				m2 = DynamicMessage.parseFrom(descriptor, reduced[1]);
+			}
+		} catch (InvalidProtocolBufferException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new InvalidProtocolBufferException(e);
+		}
+		return compare(m1, m2, options);
+	}
+
+	/**
+	 * Compare two streams of length-delimited records, as written by
+	 * {@link Message#writeDelimitedTo(OutputStream)}, record by record, i.e., the
+	 * n-th record of the first stream with the n-th record of the second. The
+	 * streams are read in one pass holding only the current records, so the
+	 * memory used does not depend on the size of the streams. Records are
+	 * compared as serialized messages, see
+	 * {@link #compare(ByteString, ByteString, Descriptor, CompareOptions)}, and
+	 * are parsed as {@link DynamicMessage} only to be passed to the sink, if it
+	 * uses them, see {@link CompareSink#usesRecords()}. The key of a record is its
+	 * position in the stream as a {@link Long}. The streams are not closed.
+	 * 
+	 * @param first      - The first records.
+	 * @param second     - The second records.
+	 * @param descriptor - Descriptor of the message type of the records.
+	 * @param options    - Compare options to use for comparison.
+	 * @param sink       - The sink for the added, removed and changed records.
+	 * @return The counts and the throughput of the comparison.
+	 * @throws IOException if reading a stream fails or a record cannot be parsed.
+	 */
+	public static CompareSummary compareDelimited(InputStream first, InputStream second, Descriptor descriptor,
+			CompareOptions options, CompareSink<? super Message> sink) throws IOException {
+		if (options == null) {
+			options = CompareOptions.DUMMY_OPTIONS;
+		}
+		return new DelimitedComparer(descriptor, options, sink).compare(first, second);
+	}
+
+	/**
+	 * Compare two snapshot files of length-delimited records, as written by
+	 * {@link Message#writeDelimitedTo(OutputStream)}, that are sorted by a key
+	 * field. The files are memory-mapped in windows, so files larger than 2GB can
+	 * be compared, and joined by the key in one pass. The key of a record is read
+	 * from its bytes, and only the records whose bytes differ are compared, see
+	 * {@link #compare(ByteString, ByteString, Descriptor, CompareOptions)}, and
+	 * parsed as {@link DynamicMessage} to be passed to the sink, if it uses them,
+	 * see {@link CompareSink#usesRecords()}. Numbers are expected to be sorted by
+	 * their value, unsigned for the unsigned types, strings by
+	 * {@link String#compareTo(String)}, bytes as unsigned bytes and enums by their
+	 * numbers.
+	 * 
+	 * @param first    - The first snapshot file.
+	 * @param second   - The second snapshot file.
+	 * @param keyField - The singular primitive field the records are sorted by.
+	 * @param options  - Compare options to use for comparison.
+	 * @param sink     - The sink for the added, removed and changed records.
+	 * @return The counts and the throughput of the comparison.
+	 * @throws IOException              if reading a file fails or a record cannot
+	 *                                  be parsed.
+	 * @throws IllegalArgumentException if the key field is not a singular
+	 *                                  primitive field, or a file is not sorted by
+	 *                                  unique keys.
+	 */
+	public static CompareSummary compareSnapshots(Path first, Path second, FieldDescriptor keyField,
+			CompareOptions options, CompareSink<? super Message> sink) throws IOException {
+		return compareSnapshots(first, second, keyField, options, sink, MappedRecordReader.DEFAULT_WINDOW_SIZE);
+	}
+
+	static CompareSummary compareSnapshots(Path first, Path second, FieldDescriptor keyField,
+			CompareOptions options, CompareSink<? super Message> sink, long windowSize) throws IOException {
+		if (options == null) {
+			options = CompareOptions.DUMMY_OPTIONS;
+		}
+		return new SnapshotComparer(keyField, options, sink, windowSize).compare(first, second);
+	}
+
+	/**
+	 * Compare two collections of records by key, e.g., two snapshots of a table.
+	 * Records are joined by the key from the key extractor, which should be unique
+	 * within each collection. Added, removed and changed records are passed to the
+	 * sink. Records are compared on the pool of the options if set with
+	 * {@link CompareOptions.Builder#setParallelism(java.util.concurrent.ForkJoinPool, int)},
+	 * but the sink is always called on the calling thread, in order.
+	 * 
+	 * @param first        - The first records.
+	 * @param second       - The second records.
+	 * @param keyExtractor - Function to get the key of a record.
+	 * @param options      - Compare options to use for comparison.
+	 * @param sink         - The sink for the added, removed and changed records.
+	 * @return The counts and the throughput of the comparison.
+	 * @throws IllegalArgumentException if a key is not unique.
+	 */
+	public static <T extends Message> CompareSummary compareAll(Iterable<? extends T> first,
+			Iterable<? extends T> second, Function<? super T, ?> keyExtractor, CompareOptions options,
+			CompareSink<? super T> sink) {
+		if (options == null) {
+			options = CompareOptions.DUMMY_OPTIONS;
+		}
+		return new BulkComparer<T>(keyExtractor, options, sink).compare(first, second);
+	}
+
+	/**
+	 * Compare two streams of records by key. Same as
+	 * {@link #compareAll(Iterable, Iterable, Function, CompareOptions, CompareSink)}.
+	 * 
+	 * @param first        - The first records.
+	 * @param second       - The second records.
+	 * @param keyExtractor - Function to get the key of a record.
+	 * @param options      - Compare options to use for comparison.
+	 * @param sink         - The sink for the added, removed and changed records.
+	 * @return The counts and the throughput of the comparison.
+	 * @throws IllegalArgumentException if a key is not unique.
+	 */
+	public static <T extends Message> CompareSummary compareAll(Stream<T> first, Stream<T> second,
+			Function<? super T, ?> keyExtractor, CompareOptions options, CompareSink<? super T> sink) {
+		Iterable<T> firstIterable = first::iterator;
+		Iterable<T> secondIterable = second::iterator;
+		return compareAll(firstIterable, secondIterable, keyExtractor, options, sink);
+	}
+
+	/**
+	 * Check if two messages have no differences to report. Returns as soon as the
+	 * first difference is found and does not build any report.
+	 * 
+	 * @param m1 - The first message.
+	 * @param m2 - The second message.
+	 * @return True if {@link #compare(Message, Message)} would return an empty
+	 *         report.
+	 */
+	public static boolean isEquivalent(Message m1, Message m2) {
+		return isEquivalent(m1, m2, null);
+	}
+
+	/**
+	 * Check if two messages have no differences to report as per the options, i.e.,
+	 * the same exclude, mapper and default value rules as
+	 * {@link #compare(Message, Message, CompareOptions)} are applied. Returns as
+	 * soon as the first difference is found and does not build any report.
+	 * 
+	 * @param m1      - The first message.
+	 * @param m2      - The second message.
+	 * @param options - Compare options to use for comparison.
+	 * @return True if {@link #compare(Message, Message, CompareOptions)} would
+	 *         return an empty report.
+	 */
+	public static boolean isEquivalent(Message m1, Message m2, CompareOptions options) {
+		if (Objects.equals(m1, m2)) {
+			return true;
+		}
+		if (options == null) {
+			options = CompareOptions.DUMMY_OPTIONS;
+		}
+		if (m1 != null && m2 != null && !m1.getClass().equals(m2.getClass())) {
+			throw new IllegalArgumentException(
+					"Cannot compare different messages: " + m1.getClass() + " - " + m2.getClass());
+		}
+		// No context, so that nothing is allocated for the fingerprints
+		return isEquivalentMessage(m1, m2, getPlan(m1, m2, options), options, null);
+	}
+
+	/**
+	 * Compare two messages and return the differences as a tree of
+	 * {@link DiffNode}. The tree is built lazily as it is traversed.
+	 * 
+	 * @param m1 - The first message.
+	 * @param m2 - The second message.
+	 * @return The root node of the differences between the two messages.
+	 */
+	public static DiffNode diff(Message m1, Message m2) {
+		return diff(m1, m2, null);
+	}
+
+	/**
+	 * Compare two messages and return the differences as a tree of
+	 * {@link DiffNode}. The tree is built lazily as it is traversed.
+	 * 
+	 * @param m1      - The first message.
+	 * @param m2      - The second message.
+	 * @param options - Compare options to use for comparison.
+	 * @return The root node of the differences between the two messages.
+	 */
+	public static DiffNode diff(Message m1, Message m2, CompareOptions options) {
+		if (options == null) {
+			options = CompareOptions.DUMMY_OPTIONS;
+		}
+		return createRoot(m1, m2, new CompareContext(options));
+	}
+
+	/**
+	 * Compare two messages with the given context, e.g., one that keeps the
+	 * fingerprints of the messages across comparisons.
+	 */
+	static DiffNode createRoot(Message m1, Message m2, CompareContext context) {
 		String protoBufName = null;
 		if (m1 != null) {
 			protoBufName = m1.getDescriptorForType().getName();
@@ -71,257 +428,636 @@ public class ProtoComparer {
 			throw new IllegalArgumentException(
 					"Cannot compare different messages: " + m1.getClass() + " - " + m2.getClass());
 		}
-		StringBuilder sb = new StringBuilder(512);
-		compareMessageField(m1, m2, protoBufName, options, sb, 0);
-		return sb.toString();
+		return new DiffNode(null, null, protoBufName, Type.MESSAGE, m1, m2, -1, -1, -1, context);
 	}
 
-	private static void compareMessageField(Message m1, Message m2, String messageName, CompareOptions options,
-			StringBuilder sb, int indent) {
-		Object v1 = null, v2 = null;
-		char sign = getSign(m1, m2);
-		StringBuilder diffSb = new StringBuilder();
-		String keyFieldVal = "";
-		String keyField = null;
-		if (m1 != null) {
-			keyField = options.getMessageKeyField(m1.getClass());
-		} else if (m2 != null) {
-			keyField = options.getMessageKeyField(m2.getClass());
+	/**
+	 * Compute the changes within a message or repeated node.
+	 */
+	static List<DiffNode> diffChildren(DiffNode node) {
+		return diffChildren(node, null);
+	}
+
+	/**
+	 * Compute the changes within a message or repeated node for a report, which
+	 * stops once the report is cut or the time limit of the report is reached.
+	 */
+	static List<DiffNode> diffChildren(DiffNode node, ReportBudget budget) {
+		if (node.getType() == Type.MESSAGE) {
+			return compareMessageField(node, budget);
+		} else if (node.getType() == Type.REPEATED) {
+			return compareRepeatedField(node, budget);
 		}
-		List<FieldDescriptor> fields = getAllFields(m1, m2);
-		for (FieldDescriptor field : fields) {
-			// Skip if field is excluded
-			if (options.isFieldExcluded(field.getFullName())) {
-				continue;
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Iterate the changes within a message or repeated node for a report. If the
+	 * report has limits other than the time, the changes are computed one at a
+	 * time as they are written, so that no more are computed than can be written.
+	 * Either way, none are computed once the report is cut.
+	 */
+	static Iterator<DiffNode> iterateChildren(DiffNode node, ReportBudget budget) {
+		if (!node.getOptions().hasReportLimits()) {
+			return diffChildren(node, budget).iterator();
+		}
+		if (node.getType() == Type.MESSAGE && node.getPlan() != null) {
+			ComparePlan plan = node.getPlan();
+			List<FieldDescriptor> fields = plan.getFields();
+			return lazily(fields.size(), i -> compareField(node, plan, fields.get(i)), budget);
+		} else if (node.getType() == Type.REPEATED) {
+			Alignment alignment = alignRepeatedField(node);
+			boolean primitive = PrimitiveLists.isPrimitive(alignment.first, alignment.second);
+			return lazily(alignment.size(), i -> compareElement(node, alignment, primitive, i), budget);
+		}
+		return Collections.emptyIterator();
+	}
+
+	/**
+	 * Iterate the changes of the indexes from 0 to size, computing each when it is
+	 * asked for. A null change is skipped.
+	 */
+	private static Iterator<DiffNode> lazily(int size, IntFunction<DiffNode> change, ReportBudget budget) {
+		return new Iterator<DiffNode>() {
+
+			private int index;
+			private DiffNode next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && index < size && !budget.isStopped()) {
+					next = change.apply(index++);
+				}
+				return next != null;
 			}
-			// Skip if values are equal
-			v1 = getValue(m1, field);
-			v2 = getValue(m2, field);
-			if (Objects.equals(v1, v2)) {
-				if (keyField != null && field.getFullName().endsWith(keyField)) {
-					keyFieldVal = v1.toString();
+
+			@Override
+			public DiffNode next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
 				}
+				DiffNode node = next;
+				next = null;
+				return node;
+			}
+
+		};
+	}
+
+	/**
+	 * Get the value of the key field of a message node if it is equal in both the
+	 * messages. For an entry of a map that is only in one of the messages, the
+	 * key of that entry.
+	 */
+	static String getKeyValue(DiffNode node) {
+		Message m1 = (Message) node.getOldValue();
+		Message m2 = (Message) node.getNewValue();
+		ComparePlan plan = node.getPlan();
+		String keyFieldVal = "";
+		if (plan == null) {
+			return keyFieldVal;
+		}
+		Object v1 = null;
+		for (FieldDescriptor field : plan.getFields()) {
+			if (!plan.isKeyField(field) || plan.isExcluded(field)) {
 				continue;
 			}
-			// use mapped values if provided
-			if (options.hasProtoMapper() && options.getProtoMapper().shouldUseMappedValue()) {
-				v1 = options.getProtoMapper().map(field.getFullName(), v1, true);
-				v2 = options.getProtoMapper().map(field.getFullName(), v2, false);
-				if (Objects.equals(v1, v2)) {
-					continue;
-				}
+			v1 = plan.getValue(m1, field);
+			if (v1 != null && Objects.equals(v1, plan.getValue(m2, field))) {
+				keyFieldVal = v1.toString();
+			} else if ((m1 == null || m2 == null) && plan.getDescriptor().getOptions().getMapEntry()) {
+				v1 = plan.getValue(m1 != null ? m1 : m2, field);
+				keyFieldVal = v1 != null ? v1.toString() : keyFieldVal;
 			}
-			if (field.getJavaType() != JavaType.MESSAGE && (v1 == null || v2 == null)) {
-				if ((v1 != null && Objects.equals(v1, field.getDefaultValue()))
-						|| (v2 != null && Objects.equals(v2, field.getDefaultValue()))) {
-					continue;
+		}
+		return keyFieldVal;
+	}
+
+	/**
+	 * Compare the fields of a message node. The top level fields are compared one
+	 * task per field on the pool, if any.
+	 */
+	private static List<DiffNode> compareMessageField(DiffNode node, ReportBudget budget) {
+		CompareContext context = node.getContext();
+		ComparePlan plan = node.getPlan();
+		if (plan == null) {
+			return Collections.emptyList();
+		}
+		List<FieldDescriptor> fields = plan.getFields();
+		if (node.getParent() == null && context.isParallel() && fields.size() > 1) {
+			DiffNode[] nodes = new DiffNode[fields.size()];
+			context.runInChunks(fields.size(), (from, to) -> {
+				for (int i = from; i < to && !isStopped(budget); i++) {
+					nodes[i] = compareField(node, plan, fields.get(i));
 				}
-			}
-			// Write field
-			compareField(field, v1, v2, options, diffSb, indent + 1);
+			});
+			return toChildren(nodes);
 		}
-		if (!diffSb.toString().trim().isEmpty()) {
-			// Write message start
-			sb.append(getPrefix(sign, indent)).append(messageName);
-			if (!keyFieldVal.isEmpty()) {
-				sb.append(" (").append(keyFieldVal).append(")");
+		List<DiffNode> children = new ArrayList<>();
+		for (int i = 0; i < fields.size() && !isStopped(budget); i++) {
+			DiffNode child = compareField(node, plan, fields.get(i));
+			if (child != null) {
+				children.add(child);
 			}
-			sb.append(COLON_SPACE).append(MESSAGE_START);
-			sb.append(diffSb.toString());
-			// Write message end
-			sb.append(getPrefix(sign, indent)).append(MESSAGE_END);
 		}
+		return children;
 	}
 
-	private static void compareField(FieldDescriptor field, Object v1, Object v2, CompareOptions options,
-			StringBuilder sb, int indent) {
+	/**
+	 * Compare a field of the messages of a message node. Null if there is no
+	 * change to report.
+	 */
+	private static DiffNode compareField(DiffNode node, ComparePlan plan, FieldDescriptor field) {
+		// Skip if field is excluded
+		if (plan.isExcluded(field)) {
+			return null;
+		}
+		CompareContext context = node.getContext();
+		CompareOptions options = context.getOptions();
+		// Skip if values are equal
+		Object v1 = plan.getValue((Message) node.getOldValue(), field);
+		Object v2 = plan.getValue((Message) node.getNewValue(), field);
+		if (context.isEqual(v1, v2)) {
+			return null;
+		}
+		// use mapped values if provided
+		if (options.hasProtoMapper() && options.getProtoMapper().shouldUseMappedValue() && plan.hasMapper(field)) {
+			v1 = plan.map(field, v1, true);
+			v2 = plan.map(field, v2, false);
+			if (Objects.equals(v1, v2)) {
+				return null;
+			}
+		}
+		if (isDefaultValueChange(field, v1, v2)) {
+			return null;
+		}
 		if (field.isRepeated()) {
-			compareRepeatedField(field, v1, v2, options, sb, indent);
-		} else {
-			compareSingleField(field, v1, v2, options, sb, indent);
+			return new DiffNode(node, field, field.getName(), Type.REPEATED, v1, v2, -1, -1, -1, context);
 		}
+		return createElementNode(node, field, v1, v2, -1, -1, -1);
 	}
 
-	private static void compareRepeatedField(FieldDescriptor field, Object v1, Object v2, CompareOptions options,
-			StringBuilder sb, int indent) {
-		List<?> l1 = new ArrayList<>(v1 != null ? (List<?>) v1 : Collections.emptyList());
-		List<?> l2 = new ArrayList<>(v2 != null ? (List<?>) v2 : Collections.emptyList());
-		if (options.shouldOrderRepeatedMsg(field.getFullName())) {
-			List<?> intersection = new ArrayList<>(l1);
-			intersection.retainAll(l2);
-			for (Object val : intersection) {
-				if (!l1.contains(val) || !l2.contains(val)) {
-					continue;
-				}
-				l1.remove(val);
-				l2.remove(val);
-			}
-			if (field.getJavaType() == JavaType.MESSAGE) {
-				String orderByField = options.getOrderByFieldForRepeatedMsg(field.getFullName());
-				if (orderByField == null) {
-					throw new IllegalArgumentException(
-							"Order by field not found for repeated message field: " + field.getFullName());
+	/**
+	 * Compare the aligned elements of a repeated node. The pairs of elements of a
+	 * large field are compared in chunks on the pool, if any.
+	 */
+	private static List<DiffNode> compareRepeatedField(DiffNode node, ReportBudget budget) {
+		CompareContext context = node.getContext();
+		Alignment alignment = alignRepeatedField(node);
+		int n = alignment.size();
+		if (context.shouldSplit(n)) {
+			// The lists are not checked as a whole first, as that is done by the chunks.
+			// The changes of a chunk are kept at the index the chunk starts from
+			@SuppressWarnings("unchecked")
+			List<DiffNode>[] chunks = new List[n];
+			context.runInChunks(n, (from, to) -> chunks[from] = compareElements(node, alignment, from, to, budget));
+			List<DiffNode> children = new ArrayList<>();
+			for (List<DiffNode> chunk : chunks) {
+				if (chunk != null) {
+					children.addAll(chunk);
 				}
-				Function<Object, Object> mapper = message -> {
-					Message msg = (Message) message;
-					Object val = null;
-					for (FieldDescriptor f : getAllFields(msg, null)) {
-						if (f.getFullName().endsWith(orderByField)) {
-							val = getValue(msg, f);
-							break;
-						}
-					}
-					return val;
-				};
-				List<?> mappedl1 = l1.stream().map(mapper).collect(Collectors.toList());
-				List<?> mappedl2 = l2.stream().map(mapper).collect(Collectors.toList());
-				int size1 = new HashSet<>(mappedl1).size();
-				int size2 = new HashSet<>(mappedl2).size();
-				if (l1.size() == size1 && l2.size() == size2) {
-					// mapped values need to be unique
-					intersection = new ArrayList<>(mappedl1);
-					intersection.retainAll(mappedl2);
-					Object[] orderedl1 = new Object[l1.size()];
-					Object[] orderedl2 = new Object[l2.size()];
-					int j = intersection.size();
-					for (int i = 0; i < l1.size(); i++) {
-						Object val = l1.get(i);
-						Object mappedVal = mappedl1.get(i);
-						int index = intersection.indexOf(mappedVal);
-						if (index >= 0) {
-							orderedl1[index] = val;
-						} else {
-							orderedl1[j++] = val;
-						}
-					}
-					j = intersection.size();
-					for (int i = 0; i < l2.size(); i++) {
-						Object val = l2.get(i);
-						Object mappedVal = mappedl2.get(i);
-						int index = intersection.indexOf(mappedVal);
-						if (index >= 0) {
-							orderedl2[index] = val;
-						} else {
-							orderedl2[j++] = val;
-						}
-					}
-					l1 = Arrays.asList(orderedl1);
-					l2 = Arrays.asList(orderedl2);
-				} else {
-					throw new IllegalArgumentException("Mapped values are not unique for repeated message field: "
-							+ field.getFullName() + " - " + orderByField);
+			}
+			return children;
+		}
+		if (context.isEqual(alignment.first, alignment.second)) {
+			return Collections.emptyList();
+		}
+		return compareElements(node, alignment, 0, n, budget);
+	}
+
+	private static Alignment alignRepeatedField(DiffNode node) {
+		return alignRepeatedField(node.getField(), node.getPlan(), node.getOptions(), node.getOldValue(),
+				node.getNewValue());
+	}
+
+	/**
+	 * Compare the aligned elements from the index from, inclusive, to the index
+	 * to, exclusive.
+	 */
+	private static List<DiffNode> compareElements(DiffNode node, Alignment alignment, int from, int to,
+			ReportBudget budget) {
+		// Only the changed elements of lists of primitives are boxed
+		boolean primitive = PrimitiveLists.isPrimitive(alignment.first, alignment.second);
+		List<DiffNode> children = new ArrayList<>();
+		for (int i = from; i < to && !isStopped(budget); i++) {
+			DiffNode child = compareElement(node, alignment, primitive, i);
+			if (child != null) {
+				children.add(child);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Compare the aligned elements at an index. Null if they are equal.
+	 */
+	private static DiffNode compareElement(DiffNode node, Alignment alignment, boolean primitive, int i) {
+		List<?> l1 = alignment.first;
+		List<?> l2 = alignment.second;
+		if (primitive && i < l1.size() && i < l2.size() && PrimitiveLists.equalsAt(l1, l2, i)) {
+			return null;
+		}
+		Object value1 = i < l1.size() ? l1.get(i) : null;
+		Object value2 = i < l2.size() ? l2.get(i) : null;
+		// Skip if values are equal
+		if (node.getContext().isEqual(value1, value2)) {
+			return null;
+		}
+		return createElementNode(node, node.getField(), value1, value2, i, alignment.getFirstIndex(i),
+				alignment.getSecondIndex(i));
+	}
+
+	private static boolean isStopped(ReportBudget budget) {
+		return budget != null && budget.isStopped();
+	}
+
+	/**
+	 * Get the nodes of the fields with changes, in order.
+	 */
+	private static List<DiffNode> toChildren(DiffNode[] nodes) {
+		List<DiffNode> children = new ArrayList<>();
+		for (DiffNode child : nodes) {
+			if (child != null) {
+				children.add(child);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Align the elements of a repeated field for comparison. If the field is set
+	 * to be ordered, the elements present in both lists are dropped and the rest
+	 * are ordered by the order by field. Elements with the same order by value are
+	 * placed at the same position, in the order of the first list, followed by the
+	 * rest of the elements of each list in their own order. Otherwise the elements
+	 * are compared by position, or by their longest common subsequence if sequence
+	 * alignment is set in the options. Entries of map fields are always matched by
+	 * their key. Repeated scalar fields of generated messages are aligned without
+	 * boxing their elements, see {@link PrimitiveLists}.
+	 */
+	private static Alignment alignRepeatedField(FieldDescriptor field, ComparePlan plan, CompareOptions options,
+			Object v1, Object v2) {
+		List<?> l1 = v1 != null ? (List<?>) v1 : Collections.emptyList();
+		List<?> l2 = v2 != null ? (List<?>) v2 : Collections.emptyList();
+		if (field.isMapField()) {
+			return alignMapField(plan.getChildPlan(field), plan.getOrderByField(field), l1, l2);
+		}
+		if (!plan.shouldOrderRepeated(field)) {
+			if (options.isSequenceAlignment() && Math.max(l1.size(), l2.size()) <= options.getMaxAlignmentSize()) {
+				int[][] aligned = SequenceAligner.alignIndexes(l1, l2, options.getMaxAlignmentEdits());
+				if (aligned != null) {
+					return new Alignment(l1, l2, aligned[0], aligned[1]);
 				}
 			}
+			return new Alignment(l1, l2);
 		}
-		if (Objects.equals(l1, l2)) {
-			return;
+		if (PrimitiveLists.isPrimitive(l1, l2)) {
+			int[][] dropped = PrimitiveLists.dropCommonElements(l1, l2);
+			return new Alignment(l1, l2, dropped[0], dropped[1]);
 		}
-		Object value1, value2;
-		int n = Math.max(l1.size(), l2.size());
-		char sign = getSign(v1, v2);
+		// Drop the elements present in both lists, first occurrences first. The
+		// counts are {occurrences in l2, drops left in l1, drops left in l2}
+		Map<Object, int[]> commonCount = new HashMap<>();
+		for (Object val : l2) {
+			int[] count = commonCount.get(val);
+			if (count == null) {
+				commonCount.put(val, new int[] { 1, 0, 0 });
+			} else {
+				count[0]++;
+			}
+		}
+		for (Object val : l1) {
+			int[] count = commonCount.get(val);
+			if (count != null && count[1] < count[0]) {
+				count[1]++;
+				count[2]++;
+			}
+		}
+		int[] indexes1 = dropCommonElements(l1, commonCount, 1);
+		int[] indexes2 = dropCommonElements(l2, commonCount, 2);
+		if (field.getJavaType() != JavaType.MESSAGE) {
+			return new Alignment(l1, l2, indexes1, indexes2);
+		}
+		String orderByField = plan.getOrderByFieldName(field);
+		if (orderByField == null) {
+			throw new IllegalArgumentException(
+					"Order by field not found for repeated message field: " + field.getFullName());
+		}
+		FieldDescriptor orderByFieldDesc = plan.getOrderByField(field);
+		ComparePlan elementPlan = plan.getChildPlan(field);
+		// mapped values need to be unique
+		Map<Object, Integer> keyVsIndex2 = indexByKey(field, orderByField, elementPlan, orderByFieldDesc, l2,
+				indexes2);
+		Object[] keys1 = getUniqueKeys(field, orderByField, elementPlan, orderByFieldDesc, l1, indexes1);
+		// Elements with a key present in both lists get the rank of the key in l1
+		int[] rank2 = new int[indexes2.length];
+		Arrays.fill(rank2, -1);
+		boolean[] matched1 = new boolean[indexes1.length];
+		int common = 0;
+		for (int i = 0; i < indexes1.length; i++) {
+			Integer index2 = keyVsIndex2.get(keys1[i]);
+			if (index2 != null) {
+				matched1[i] = true;
+				rank2[index2] = common++;
+			}
+		}
+		int[] ordered1 = new int[indexes1.length];
+		int[] ordered2 = new int[indexes2.length];
+		int j = common;
+		for (int i = 0, k = 0; i < indexes1.length; i++) {
+			if (matched1[i]) {
+				ordered1[k++] = indexes1[i];
+			} else {
+				ordered1[j++] = indexes1[i];
+			}
+		}
+		j = common;
+		for (int i = 0; i < indexes2.length; i++) {
+			if (rank2[i] >= 0) {
+				ordered2[rank2[i]] = indexes2[i];
+			} else {
+				ordered2[j++] = indexes2[i];
+			}
+		}
+		return new Alignment(l1, l2, ordered1, ordered2);
+	}
+
+	/**
+	 * Align the entries of a map field by their key through a hash index of the
+	 * second map. Entries with a key in both maps are placed at the same position,
+	 * in the order of the first map, unless they are equal. Entries only in the
+	 * first map are placed against null and entries only in the second map are
+	 * placed after them, also against null. If a key occurs more than once, as it
+	 * can in a list of entries that is not parsed, the last entry wins as on the
+	 * wire.
+	 */
+	private static Alignment alignMapField(ComparePlan entryPlan, FieldDescriptor keyField, List<?> l1,
+			List<?> l2) {
+		Map<Object, Integer> keyVsIndex1 = indexMapEntries(entryPlan, keyField, l1);
+		Map<Object, Integer> keyVsIndex2 = indexMapEntries(entryPlan, keyField, l2);
+		int[] aligned1 = new int[l1.size() + l2.size()];
+		int[] aligned2 = new int[aligned1.length];
+		int size = 0;
+		for (int i = 0; i < l1.size(); i++) {
+			Object key = getKey(entryPlan, l1.get(i), keyField);
+			if (keyVsIndex1.get(key) != i) {
+				continue;
+			}
+			Integer index2 = keyVsIndex2.remove(key);
+			if (index2 == null || !l1.get(i).equals(l2.get(index2))) {
+				aligned1[size] = i;
+				aligned2[size++] = index2 != null ? index2 : -1;
+			}
+		}
+		for (int i = 0; i < l2.size(); i++) {
+			Integer index2 = keyVsIndex2.get(getKey(entryPlan, l2.get(i), keyField));
+			if (index2 != null && index2 == i) {
+				aligned1[size] = -1;
+				aligned2[size++] = i;
+			}
+		}
+		return new Alignment(l1, l2, Arrays.copyOf(aligned1, size), Arrays.copyOf(aligned2, size));
+	}
 
-		StringBuilder diffSb = new StringBuilder();
+	private static Map<Object, Integer> indexMapEntries(ComparePlan entryPlan, FieldDescriptor keyField,
+			List<?> entries) {
+		Map<Object, Integer> keyVsIndex = new HashMap<>(entries.size() * 2);
+		for (int i = 0; i < entries.size(); i++) {
+			keyVsIndex.put(getKey(entryPlan, entries.get(i), keyField), i);
+		}
+		return keyVsIndex;
+	}
 
-		// Iterate and write each field
-		for (int i = 0; i < n; i++) {
-			value1 = i < l1.size() ? l1.get(i) : null;
-			value2 = i < l2.size() ? l2.get(i) : null;
-			// Skip if values are equal
-			if (Objects.equals(value1, value2)) {
+	/**
+	 * Get the indexes of the elements of a list that are not dropped as common.
+	 */
+	private static int[] dropCommonElements(List<?> list, Map<Object, int[]> commonCount, int countIndex) {
+		int[] indexes = new int[list.size()];
+		int size = 0;
+		for (int i = 0; i < list.size(); i++) {
+			int[] count = commonCount.get(list.get(i));
+			if (count != null && count[countIndex] > 0) {
+				count[countIndex]--;
 				continue;
 			}
-			compareSingleField(field, value1, value2, options, diffSb, indent + 1);
+			indexes[size++] = i;
 		}
+		return Arrays.copyOf(indexes, size);
+	}
 
-		if (!diffSb.toString().trim().isEmpty()) {
-			// Write repeated field start
-			sb.append(getPrefix(sign, indent)).append(field.getName());
-			sb.append(COLON_SPACE).append(LIST_START);
-			sb.append(diffSb);
-			// Write repeated field end
-			sb.append(getPrefix(sign, indent)).append(LIST_END);
+	/**
+	 * Index the elements of a repeated message field at the given indexes by the
+	 * order by field, as the position of each element in the indexes.
+	 * 
+	 * @throws IllegalArgumentException if the order by value is not unique.
+	 */
+	private static Map<Object, Integer> indexByKey(FieldDescriptor field, String orderByField,
+			ComparePlan elementPlan, FieldDescriptor orderByFieldDesc, List<?> list, int[] indexes) {
+		Map<Object, Integer> keyVsIndex = new HashMap<>(indexes.length * 2);
+		for (int i = 0; i < indexes.length; i++) {
+			Object key = getKey(elementPlan, list.get(indexes[i]), orderByFieldDesc);
+			if (keyVsIndex.put(key, i) != null) {
+				throw new IllegalArgumentException("Mapped values are not unique for repeated message field: "
+						+ field.getFullName() + " - " + orderByField + ". Duplicate value: " + key);
+			}
 		}
+		return keyVsIndex;
 	}
 
-	private static void compareSingleField(FieldDescriptor field, Object v1, Object v2, CompareOptions options,
-			StringBuilder sb, int indent) {
-		if (field.getJavaType() == JavaType.MESSAGE) {
-			compareMessageField((Message) v1, (Message) v2, field.getName(), options, sb, indent);
-		} else {
-			comparePrimitiveField(field, v1, v2, options, sb, indent);
+	/**
+	 * Get the order by values of the elements of a repeated message field at the
+	 * given indexes.
+	 * 
+	 * @throws IllegalArgumentException if the order by value is not unique.
+	 */
+	private static Object[] getUniqueKeys(FieldDescriptor field, String orderByField, ComparePlan elementPlan,
+			FieldDescriptor orderByFieldDesc, List<?> list, int[] indexes) {
+		Object[] keys = new Object[indexes.length];
+		Set<Object> uniqueKeys = new HashSet<>(indexes.length * 2);
+		for (int i = 0; i < indexes.length; i++) {
+			keys[i] = getKey(elementPlan, list.get(indexes[i]), orderByFieldDesc);
+			if (!uniqueKeys.add(keys[i])) {
+				throw new IllegalArgumentException("Mapped values are not unique for repeated message field: "
+						+ field.getFullName() + " - " + orderByField + ". Duplicate value: " + keys[i]);
+			}
 		}
+		return keys;
 	}
 
-	private static void comparePrimitiveField(FieldDescriptor field, Object v1, Object v2, CompareOptions options,
-			StringBuilder sb, int indent) {
-		char sign = getSign(v1, v2);
-		sb.append(getPrefix(sign, indent));
-		sb.append(field.getName());
-		sb.append(COLON_SPACE);
-		if (sign == SIGN_UPDATE) {
-			sb.append(valueToString(field, v1, options, true));
-			sb.append(" => ");
-			sb.append(valueToString(field, v2, options, false));
-		} else if (sign == SIGN_CREATE) {
-			sb.append(valueToString(field, v2, options, false));
-		} else if (sign == SIGN_DELETE) {
-			sb.append(valueToString(field, v1, options, true));
+	private static Object getKey(ComparePlan elementPlan, Object message, FieldDescriptor orderByFieldDesc) {
+		if (orderByFieldDesc == null) {
+			return null;
 		}
-		sb.append('\n');
+		return elementPlan.getValue((Message) message, orderByFieldDesc);
 	}
 
-	private static String valueToString(FieldDescriptor field, Object value, CompareOptions options, boolean firstObj) {
-		if (options.isFieldRedacted(field.getFullName())) {
-			return "****";
+	/**
+	 * Check if a message or repeated node has no changes to report.
+	 */
+	static boolean isEquivalent(DiffNode node) {
+		if (node.getType() == Type.MESSAGE) {
+			return isEquivalentMessage((Message) node.getOldValue(), (Message) node.getNewValue(), node.getPlan(),
+					node.getOptions(), node.getContext());
+		} else if (node.getType() == Type.REPEATED) {
+			return isEquivalentRepeated(node.getField(), node.getOldValue(), node.getNewValue(), node.getPlan(),
+					node.getOptions(), node.getContext());
 		}
-		String returnVal = String.valueOf(value);
-		if (field.getJavaType() == JavaType.ENUM) {
-			returnVal = ((Descriptors.EnumValueDescriptor) value).getName();
+		return false;
+	}
+
+	/**
+	 * Check if two messages have no changes to report. The context can be null,
+	 * in which case values are compared without fingerprints.
+	 */
+	private static boolean isEquivalentMessage(Message m1, Message m2, ComparePlan plan, CompareOptions options,
+			CompareContext context) {
+		if (m1 == m2) {
+			return true;
 		}
-		if (options.hasProtoMapper() && !options.getProtoMapper().shouldUseMappedValue()) {
-			Object mappedValue = options.getProtoMapper().map(field.getFullName(), value, firstObj);
-			if (Objects.equals(mappedValue, value)) {
-				return returnVal;
-			} else {
-				return returnVal + " (" + String.valueOf(mappedValue) + ")";
+		boolean useMappedValue = options.hasProtoMapper() && options.getProtoMapper().shouldUseMappedValue();
+		List<FieldDescriptor> fields = plan.getFields();
+		Object v1 = null, v2 = null;
+		for (int i = 0; i < fields.size(); i++) {
+			FieldDescriptor field = fields.get(i);
+			if (plan.isExcluded(field)) {
+				continue;
+			}
+			v1 = plan.getValue(m1, field);
+			v2 = plan.getValue(m2, field);
+			if (CompareContext.isEqual(context, v1, v2)) {
+				continue;
+			}
+			if (useMappedValue && plan.hasMapper(field)) {
+				v1 = plan.map(field, v1, true);
+				v2 = plan.map(field, v2, false);
+				if (Objects.equals(v1, v2)) {
+					continue;
+				}
+			}
+			if (isDefaultValueChange(field, v1, v2)) {
+				continue;
+			}
+			if (field.isRepeated()) {
+				if (!isEquivalentRepeated(field, v1, v2, plan, options, context)) {
+					return false;
+				}
+			} else if (field.getJavaType() != JavaType.MESSAGE
+					|| !isEquivalentMessage((Message) v1, (Message) v2, plan.getChildPlan(field), options, context)) {
+				return false;
 			}
 		}
-		return returnVal;
+		return true;
 	}
 
-	private static char[] getPrefix(char sign, int indent) {
-		char[] indentBuf = new char[(indent * LEVEL_SPACE_COUNT) + 2];
-		Arrays.fill(indentBuf, SIGN_EMPTY);
-		indentBuf[0] = sign;
-		return indentBuf;
+	private static boolean isEquivalentRepeated(FieldDescriptor field, Object v1, Object v2, ComparePlan plan,
+			CompareOptions options, CompareContext context) {
+		Alignment alignment = alignRepeatedField(field, plan, options, v1, v2);
+		List<?> l1 = alignment.first;
+		List<?> l2 = alignment.second;
+		if (PrimitiveLists.isPrimitive(l1, l2)) {
+			return PrimitiveLists.equals(l1, l2);
+		}
+		ComparePlan elementPlan = field.getJavaType() == JavaType.MESSAGE ? plan.getChildPlan(field) : null;
+		int n = Math.max(l1.size(), l2.size());
+		Object value1, value2;
+		for (int i = 0; i < n; i++) {
+			value1 = i < l1.size() ? l1.get(i) : null;
+			value2 = i < l2.size() ? l2.get(i) : null;
+			if (CompareContext.isEqual(context, value1, value2)) {
+				continue;
+			}
+			if (field.getJavaType() != JavaType.MESSAGE
+					|| !isEquivalentMessage((Message) value1, (Message) value2, elementPlan, options, context)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	private static List<FieldDescriptor> getAllFields(Message m1, Message m2) {
-		if (m1 != null) {
-			return m1.getDescriptorForType().getFields();
-		} else if (m2 != null) {
-			return m2.getDescriptorForType().getFields();
+	/**
+	 * Check if a primitive field is set only in one of the messages and that too
+	 * with its default value. Such changes are not reported.
+	 */
+	private static boolean isDefaultValueChange(FieldDescriptor field, Object v1, Object v2) {
+		if (field.getJavaType() != JavaType.MESSAGE && (v1 == null || v2 == null)) {
+			return (v1 != null && Objects.equals(v1, field.getDefaultValue()))
+					|| (v2 != null && Objects.equals(v2, field.getDefaultValue()));
 		}
-		return Collections.emptyList();
+		return false;
+	}
+
+	private static DiffNode createElementNode(DiffNode parent, FieldDescriptor field, Object v1, Object v2,
+			int index, int oldIndex, int newIndex) {
+		Type type = field.getJavaType() == JavaType.MESSAGE ? Type.MESSAGE : Type.VALUE;
+		return new DiffNode(parent, field, field.getName(), type, v1, v2, index, oldIndex, newIndex,
+				parent.getContext());
 	}
 
-	private static Object getValue(Message message, FieldDescriptor field) {
-		if (message != null && (field.isRepeated() || message.hasField(field))) {
-			return message.getField(field);
+	private static ComparePlan getPlan(Message m1, Message m2, CompareOptions options) {
+		if (m1 != null) {
+			return options.getPlan(m1.getDescriptorForType());
+		} else if (m2 != null) {
+			return options.getPlan(m2.getDescriptorForType());
 		}
 		return null;
 	}
 
-	private static char getSign(Object v1, Object v2) {
-		if (v1 != null && v2 != null) {
-			return SIGN_UPDATE;
-		} else if (v1 == null) {
-			return SIGN_CREATE;
-		} else if (v2 == null) {
-			return SIGN_DELETE;
+	/**
+	 * Elements of a repeated field in the order they are to be compared, and the
+	 * indexes of the elements in their lists.
+	 */
+	private static final class Alignment {
+
+		private final List<?> first;
+		private final List<?> second;
+		// Index of each element in its list, -1 for null. Null if the elements are
+		// compared by position
+		private final int[] firstIndexes;
+		private final int[] secondIndexes;
+
+		private Alignment(List<?> first, List<?> second) {
+			this.first = first;
+			this.second = second;
+			this.firstIndexes = null;
+			this.secondIndexes = null;
+		}
+
+		private Alignment(List<?> l1, List<?> l2, int[] firstIndexes, int[] secondIndexes) {
+			this.first = SequenceAligner.select(l1, firstIndexes);
+			this.second = SequenceAligner.select(l2, secondIndexes);
+			this.firstIndexes = firstIndexes;
+			this.secondIndexes = secondIndexes;
 		}
-		// Should not get here
-		return SIGN_EMPTY;
+
+		/**
+		 * Get the number of aligned positions.
+		 */
+		private int size() {
+			return Math.max(first.size(), second.size());
+		}
+
+		/**
+		 * Get the index in the first list of the element at a position, -1 if none.
+		 */
+		private int getFirstIndex(int position) {
+			return getIndex(first, firstIndexes, position);
+		}
+
+		/**
+		 * Get the index in the second list of the element at a position, -1 if
+		 * none.
+		 */
+		private int getSecondIndex(int position) {
+			return getIndex(second, secondIndexes, position);
+		}
+
+		private static int getIndex(List<?> elements, int[] indexes, int position) {
+			if (indexes == null) {
+				return position < elements.size() ? position : -1;
+			}
+			return position < indexes.length ? indexes[position] : -1;
+		}
+
 	}
 
 }
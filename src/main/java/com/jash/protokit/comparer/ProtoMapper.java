@@ -1,7 +1,12 @@
 package com.jash.protokit.comparer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.jash.protokit.comparer.Internal.UtilAdapter;
@@ -9,18 +14,54 @@ import com.jash.protokit.comparer.Internal.UtilAdapter;
 /**
  * Use if a field value needs to be mapped to another value for comparison only
  * if a diff is found.
+ * <p>
+ * Mapped values can be cached with {@link Builder#setCacheSize(int)}, in which
+ * case the least recently used values are evicted once the cache is full. For
+ * mappers that are costly per call, a {@link BulkMapperFunction} resolves all
+ * the values of a field shown in a report in one call.
  * 
  * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
  * @see Builder
  */
 public class ProtoMapper {
 
+	// Stands for a null mapped value in the cache
+	private static final Object NULL_VALUE = new Object();
+
 	private Map<String, MapperFunction> fieldVsMapper = new LinkedHashMap<>();
+	private Map<String, BulkMapperFunction> fieldVsBulkMapper;
 	private boolean useMappedValue;
+	private int cacheSize;
+	private Map<List<Object>, Object> cache;
 
 	private ProtoMapper(Builder builder) {
-		this.fieldVsMapper = builder.fieldVsMapper;
+		this.fieldVsMapper = new HashMap<>(builder.fieldVsMapper);
+		this.fieldVsBulkMapper = new HashMap<>(builder.fieldVsBulkMapper);
 		this.useMappedValue = builder.useMappedValue;
+		this.cacheSize = builder.cacheSize;
+		if (cacheSize > 0) {
+			cache = Collections.synchronizedMap(new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+					return size() > cacheSize;
+				}
+
+			});
+		}
+		for (String field : fieldVsBulkMapper.keySet()) {
+			fieldVsMapper.put(field, (value, firstObj) -> mapAll(field, Collections.singletonList(value), firstObj)
+					.get(value));
+		}
+		if (cache != null) {
+			for (Map.Entry<String, MapperFunction> entry : fieldVsMapper.entrySet()) {
+				if (!fieldVsBulkMapper.containsKey(entry.getKey())) {
+					entry.setValue(new CachedMapper(entry.getKey(), entry.getValue()));
+				}
+			}
+		}
 	}
 
 	protected Object map(String field, Object value, boolean firstObj) {
@@ -31,6 +72,72 @@ public class ProtoMapper {
 		return mapper.map(value, firstObj);
 	}
 
+	protected MapperFunction getMapper(String fieldName) {
+		return fieldVsMapper.get(fieldName);
+	}
+
+	protected boolean hasBulkMappers() {
+		return !fieldVsBulkMapper.isEmpty();
+	}
+
+	protected boolean hasBulkMapper(String fieldName) {
+		return fieldVsBulkMapper.containsKey(fieldName);
+	}
+
+	/**
+	 * Map all the given values of a field from one side. Cached values are not
+	 * mapped again and the rest are mapped in one call if the field has a bulk
+	 * mapper.
+	 *
+	 * @param fieldName - Field name as "EncasingMessage.fieldName".
+	 * @param values    - The values to map.
+	 * @param firstObj  - If the values are from the first object while comparing.
+	 * @return Map of value vs mapped value.
+	 */
+	protected Map<Object, Object> mapAll(String fieldName, Collection<?> values, boolean firstObj) {
+		Map<Object, Object> mappedValues = new HashMap<>();
+		List<Object> unmapped = new ArrayList<>();
+		for (Object value : values) {
+			Object mappedValue = cache != null ? cache.get(getCacheKey(fieldName, value, firstObj)) : null;
+			if (mappedValue != null) {
+				mappedValues.put(value, mappedValue == NULL_VALUE ? null : mappedValue);
+			} else if (!mappedValues.containsKey(value)) {
+				mappedValues.put(value, value);
+				unmapped.add(value);
+			}
+		}
+		if (unmapped.isEmpty()) {
+			return mappedValues;
+		}
+		BulkMapperFunction bulkMapper = fieldVsBulkMapper.get(fieldName);
+		if (bulkMapper != null) {
+			Map<Object, Object> result = bulkMapper.mapAll(Collections.unmodifiableList(unmapped), firstObj);
+			for (Object value : unmapped) {
+				if (result != null && result.containsKey(value)) {
+					mappedValues.put(value, result.get(value));
+				}
+			}
+		} else {
+			MapperFunction mapper = fieldVsMapper.get(fieldName);
+			for (Object value : unmapped) {
+				mappedValues.put(value, mapper != null ? mapper.map(value, firstObj) : value);
+			}
+			// Cached by the mapper
+			return mappedValues;
+		}
+		if (cache != null) {
+			for (Object value : unmapped) {
+				Object mappedValue = mappedValues.get(value);
+				cache.put(getCacheKey(fieldName, value, firstObj), mappedValue == null ? NULL_VALUE : mappedValue);
+			}
+		}
+		return mappedValues;
+	}
+
+	private static List<Object> getCacheKey(String fieldName, Object value, boolean firstObj) {
+		return Arrays.asList(fieldName, value, firstObj);
+	}
+
 	protected boolean shouldUseMappedValue() {
 		return useMappedValue;
 	}
@@ -38,7 +145,34 @@ public class ProtoMapper {
 	@Override
 	public String toString() {
 		return "ProtoMapper [fieldVsMapper fields=" + fieldVsMapper.keySet() + ", useMappedValue=" + useMappedValue
-				+ "]";
+				+ ", cacheSize=" + cacheSize + "]";
+	}
+
+	/**
+	 * Mapper that looks up the cache before mapping a value.
+	 */
+	private final class CachedMapper implements MapperFunction {
+
+		private final String fieldName;
+		private final MapperFunction mapper;
+
+		private CachedMapper(String fieldName, MapperFunction mapper) {
+			this.fieldName = fieldName;
+			this.mapper = mapper;
+		}
+
+		@Override
+		public Object map(Object value, boolean firstObj) {
+			List<Object> key = getCacheKey(fieldName, value, firstObj);
+			Object mappedValue = cache.get(key);
+			if (mappedValue == null) {
+				mappedValue = mapper.map(value, firstObj);
+				cache.put(key, mappedValue == null ? NULL_VALUE : mappedValue);
+				return mappedValue;
+			}
+			return mappedValue == NULL_VALUE ? null : mappedValue;
+		}
+
 	}
 
 	/**
@@ -58,16 +192,38 @@ public class ProtoMapper {
 
 	}
 
+	/**
+	 * Callback to map many values of a field at once, e.g., with one request to a
+	 * remote service.
+	 */
+	@FunctionalInterface
+	public static interface BulkMapperFunction {
+
+		/**
+		 * Map the values to other values.
+		 * 
+		 * @param values   - The distinct values to map.
+		 * @param firstObj - If the values are from the first object while comparing.
+		 * @return Map of value vs mapped value. Values not in the map are left as they
+		 *         are.
+		 */
+		Map<Object, Object> mapAll(Collection<Object> values, boolean firstObj);
+
+	}
+
 	/**
 	 * Builder for {@link ProtoMapper}.
 	 */
 	public static class Builder {
 
 		private Map<String, MapperFunction> fieldVsMapper = new LinkedHashMap<>();
+		private Map<String, BulkMapperFunction> fieldVsBulkMapper;
 		private boolean useMappedValue;
+		private int cacheSize;
 
 		private Builder() {
 			fieldVsMapper = new HashMap<>();
+			fieldVsBulkMapper = new HashMap<>();
 		}
 
 		/**
@@ -106,6 +262,41 @@ public class ProtoMapper {
 			return this;
 		}
 
+		/**
+		 * Set a bulk mapper for a field. The values of the field shown in a report are
+		 * mapped in one call per side of the comparison. Values that are mapped while
+		 * comparing, i.e., with {@link #setUseMappedValue(boolean)}, or in a report
+		 * with limits, are mapped one at a time.
+		 * 
+		 * @param field  - The field for which the mapper is added. Field format should
+		 *               be like "EncasingMessage.fieldName". E.g.:
+		 *               "SampleMessage.primField"
+		 * @param mapper - The bulk mapper function to map the values.
+		 * @return The current instance of {@link Builder}.
+		 * @see BulkMapperFunction
+		 */
+		public Builder setBulkMapper(String field, BulkMapperFunction mapper) {
+			fieldVsBulkMapper.put(field, mapper);
+			return this;
+		}
+
+		/**
+		 * Cache the mapped values so that a value of a field is mapped only once per
+		 * side of the comparison. The least recently used values are evicted once
+		 * there are more than the given number. Not cached by default.
+		 * 
+		 * @param cacheSize - Maximum number of mapped values to keep. 0 to not cache.
+		 * @return The current instance of {@link Builder}.
+		 * @throws IllegalArgumentException if the size is negative.
+		 */
+		public Builder setCacheSize(int cacheSize) {
+			if (cacheSize < 0) {
+				throw new IllegalArgumentException("Cache size cannot be negative: " + cacheSize);
+			}
+			this.cacheSize = cacheSize;
+			return this;
+		}
+
 		/**
 		 * Set all mappers at once.
 		 * 
@@ -135,6 +326,20 @@ public class ProtoMapper {
 			return fieldVsMapper;
 		}
 
+		/**
+		 * Get the map of field vs bulk mapper.
+		 */
+		public Map<String, BulkMapperFunction> getFieldVsBulkMapper() {
+			return fieldVsBulkMapper;
+		}
+
+		/**
+		 * Get the maximum number of cached mapped values.
+		 */
+		public int getCacheSize() {
+			return cacheSize;
+		}
+
 		/**
 		 * Build the {@link ProtoMapper} instance.
 		 * 
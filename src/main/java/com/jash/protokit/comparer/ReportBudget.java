@@ -0,0 +1,130 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+
+import com.jash.protokit.comparer.DiffNode.Type;
+
+/**
+ * Limits of the options on writing a report, i.e., the number of differences,
+ * the depth, the size and the time, and what is used of them. Shared by the
+ * writers of the chunks of a report written in parallel, which is only done
+ * with the time limit.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class ReportBudget {
+
+	private final int maxDiffs;
+	private final int maxDepth;
+	private final long maxOutputSize;
+	private final long timeoutMillis;
+	private final long deadline;
+	private CountedAppendable countedOutput;
+	private int diffs;
+	// Reason the report is cut, null if it is not
+	private volatile String truncation;
+
+	ReportBudget(CompareOptions options) {
+		maxDiffs = options.getMaxDiffs();
+		maxDepth = options.getMaxDepth();
+		maxOutputSize = options.getMaxOutputSize();
+		timeoutMillis = options.getTimeoutMillis();
+		deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1000000 : 0;
+	}
+
+	/**
+	 * Get the output to write the report to, which counts the size of the report
+	 * if it is limited.
+	 */
+	Appendable count(Appendable out) {
+		if (maxOutputSize == Long.MAX_VALUE) {
+			return out;
+		}
+		countedOutput = new CountedAppendable(out);
+		return countedOutput;
+	}
+
+	/**
+	 * Check if a limit is reached before writing a node.
+	 *
+	 * @param node  - The node to write.
+	 * @param depth - Depth of the node, 0 for the root.
+	 */
+	boolean isExhausted(DiffNode node, int depth) {
+		if (truncation != null) {
+			return true;
+		}
+		if (node.getType() == Type.VALUE ? diffs >= maxDiffs : depth > maxDepth) {
+			truncation = node.getType() == Type.VALUE ? "reached max diffs of " + maxDiffs
+					: "reached max depth of " + maxDepth;
+		} else if (countedOutput != null && countedOutput.count >= maxOutputSize) {
+			truncation = "reached max output size of " + maxOutputSize;
+		} else if (deadline != 0 && System.nanoTime() - deadline > 0) {
+			truncation = "reached timeout of " + timeoutMillis + " ms";
+		}
+		return truncation != null;
+	}
+
+	/**
+	 * Check if the report is cut, or the time limit is reached, in which case it
+	 * is cut. Checked while the changes of a node are computed, so that they are
+	 * not all computed once the report is cut.
+	 */
+	boolean isStopped() {
+		if (truncation == null && deadline != 0 && System.nanoTime() - deadline > 0) {
+			truncation = "reached timeout of " + timeoutMillis + " ms";
+		}
+		return truncation != null;
+	}
+
+	/**
+	 * Count a written difference.
+	 */
+	void countDiff() {
+		diffs++;
+	}
+
+	/**
+	 * Get the reason the report is cut, null if it is not.
+	 */
+	String getTruncation() {
+		return truncation;
+	}
+
+	/**
+	 * Counts the characters written to an {@link Appendable}.
+	 */
+	private static final class CountedAppendable implements Appendable {
+
+		private final Appendable out;
+		private long count;
+
+		private CountedAppendable(Appendable out) {
+			this.out = out;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException {
+			String value = String.valueOf(csq);
+			count += value.length();
+			out.append(value);
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			count += end - start;
+			out.append(csq, start, end);
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException {
+			count++;
+			out.append(c);
+			return this;
+		}
+
+	}
+
+}
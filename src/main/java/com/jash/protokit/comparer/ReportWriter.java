@@ -0,0 +1,253 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.jash.protokit.comparer.DiffNode.ChangeKind;
+import com.jash.protokit.comparer.DiffNode.Type;
+
+/**
+ * Writes the text report of a {@link DiffNode} tree to an {@link Appendable}
+ * as the tree is traversed. The header of a message or repeated field is held
+ * back until the first change within it is written, so every line is written
+ * only once and nothing is written for subtrees without changes. Children that
+ * are already written are not retained.
+ * <p>
+ * If the options have a {@link ForkJoinPool}, the changes of the root message
+ * and of large repeated fields are written to separate buffers on the pool and
+ * appended in order, so the report is the same as when written sequentially.
+ * <p>
+ * The limits of the options are checked with a {@link ReportBudget} before each
+ * node. Once one is reached, no more nodes are written, the open messages are
+ * closed and a truncated line is written.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class ReportWriter {
+
+	private static final String MESSAGE_START = "{\n";
+	private static final String MESSAGE_END = "}\n";
+	private static final String LIST_START = "[\n";
+	private static final String LIST_END = "]\n";
+	private static final String COLON_SPACE = ": ";
+	private static final String TRUNCATED = "... truncated: ";
+	private static final String SPACES = "                                                                ";
+
+	private static final int LEVEL_SPACE_COUNT = 2;
+
+	private static final char SIGN_CREATE = '+';
+	private static final char SIGN_UPDATE = ' ';
+	private static final char SIGN_DELETE = '-';
+	private static final char SIGN_EMPTY = ' ';
+
+	private Appendable out;
+	private ReportBudget budget;
+	// Indent of the nodes written by this writer that have no open parent
+	private final int baseIndent;
+	// Open message and repeated nodes from the root to the current node
+	private final List<DiffNode> openNodes = new ArrayList<>();
+	// Number of open nodes whose header is written
+	private int writtenHeaders;
+	// Values mapped ahead by bulk mappers, if any
+	private MappedValues mappedValues;
+
+	ReportWriter(Appendable out) {
+		this(out, 0);
+	}
+
+	private ReportWriter(Appendable out, int baseIndent) {
+		this.out = out;
+		this.baseIndent = baseIndent;
+	}
+
+	/**
+	 * Write the report of the given node and its descendants.
+	 */
+	void write(DiffNode node) throws IOException {
+		budget = new ReportBudget(node.getOptions());
+		out = budget.count(out);
+		mappedValues = MappedValues.of(node);
+		write(node, 0);
+		if (budget.getTruncation() != null) {
+			out.append(TRUNCATED).append(budget.getTruncation()).append('\n');
+		}
+	}
+
+	private void write(DiffNode node, int indent) throws IOException {
+		if (budget.isExhausted(node, indent)) {
+			return;
+		}
+		if (node.getType() == Type.VALUE) {
+			writeOpenHeaders();
+			writePrimitiveNode(node, indent);
+			budget.countDiff();
+			return;
+		}
+		openNodes.add(node);
+		if (node.getOptions().hasReportLimits()) {
+			// Changes are computed as they are written, up to the limits
+			Iterator<DiffNode> children = ProtoComparer.iterateChildren(node, budget);
+			while (budget.getTruncation() == null && children.hasNext()) {
+				write(children.next(), indent + 1);
+			}
+		} else {
+			List<DiffNode> children = ProtoComparer.diffChildren(node, budget);
+			if (shouldWriteInParallel(node, children)) {
+				writeInParallel(node.getContext(), children, indent + 1);
+			} else {
+				for (int i = 0; i < children.size() && budget.getTruncation() == null; i++) {
+					write(children.get(i), indent + 1);
+				}
+			}
+		}
+		openNodes.remove(openNodes.size() - 1);
+		if (writtenHeaders > openNodes.size()) {
+			// Write message or repeated field end
+			writePrefix(getSign(node.getKind()), indent);
+			out.append(node.getType() == Type.MESSAGE ? MESSAGE_END : LIST_END);
+			writtenHeaders--;
+		}
+	}
+
+	/**
+	 * Split the children of the root message, i.e., the top level fields, and of
+	 * repeated fields with at least the threshold number of changed elements.
+	 */
+	private static boolean shouldWriteInParallel(DiffNode node, List<DiffNode> children) {
+		CompareOptions options = node.getOptions();
+		if (!node.getContext().isParallel() || options.hasReportLimits() || children.size() < 2) {
+			return false;
+		}
+		return node.getParent() == null
+				|| (node.getType() == Type.REPEATED && children.size() >= options.getParallelThreshold());
+	}
+
+	/**
+	 * Write the given nodes in chunks on the pool, a few chunks per thread, and
+	 * append the chunks in order. The report of a chunk is kept at the index the
+	 * chunk starts from.
+	 */
+	private void writeInParallel(CompareContext context, List<DiffNode> nodes, int indent) throws IOException {
+		String[] chunks = new String[nodes.size()];
+		context.runInChunks(nodes.size(),
+				(from, to) -> chunks[from] = writeChunk(nodes, from, to, indent, budget, mappedValues));
+		for (String chunk : chunks) {
+			if (chunk != null && !chunk.isEmpty()) {
+				writeOpenHeaders();
+				out.append(chunk);
+			}
+		}
+	}
+
+	private static String writeChunk(List<DiffNode> nodes, int from, int to, int indent, ReportBudget budget,
+			MappedValues mappedValues) {
+		StringBuilder sb = new StringBuilder();
+		ReportWriter writer = new ReportWriter(sb, indent);
+		writer.budget = budget;
+		writer.mappedValues = mappedValues;
+		try {
+			for (int i = from; i < to && budget.getTruncation() == null; i++) {
+				writer.write(nodes.get(i), indent);
+			}
+		} catch (IOException e) {
+			// Should not get here as StringBuilder does not throw IOException
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	private void writeOpenHeaders() throws IOException {
+		for (; writtenHeaders < openNodes.size(); writtenHeaders++) {
+			DiffNode node = openNodes.get(writtenHeaders);
+			writePrefix(getSign(node.getKind()), baseIndent + writtenHeaders);
+			out.append(node.getName());
+			if (node.getType() == Type.MESSAGE) {
+				// Write message start
+				String keyFieldVal = node.getKeyValue();
+				if (!keyFieldVal.isEmpty()) {
+					out.append(" (").append(keyFieldVal).append(")");
+				}
+				out.append(COLON_SPACE).append(MESSAGE_START);
+			} else {
+				// Write repeated field start
+				out.append(COLON_SPACE).append(LIST_START);
+			}
+		}
+	}
+
+	private void writePrimitiveNode(DiffNode node, int indent) throws IOException {
+		FieldDescriptor field = node.getField();
+		CompareOptions options = node.getOptions();
+		ComparePlan plan = node.getContainingPlan();
+		Object v1 = node.getOldValue();
+		Object v2 = node.getNewValue();
+		char sign = getSign(node.getKind());
+		writePrefix(sign, indent);
+		out.append(field.getName());
+		out.append(COLON_SPACE);
+		if (sign == SIGN_UPDATE) {
+			out.append(valueToString(field, v1, plan, options, true));
+			out.append(" => ");
+			out.append(valueToString(field, v2, plan, options, false));
+		} else if (sign == SIGN_CREATE) {
+			out.append(valueToString(field, v2, plan, options, false));
+		} else if (sign == SIGN_DELETE) {
+			out.append(valueToString(field, v1, plan, options, true));
+		}
+		out.append('\n');
+	}
+
+	private String valueToString(FieldDescriptor field, Object value, ComparePlan plan, CompareOptions options,
+			boolean firstObj) {
+		if (plan.isRedacted(field)) {
+			return "****";
+		}
+		String returnVal = String.valueOf(value);
+		if (field.getJavaType() == JavaType.ENUM) {
+			returnVal = ((Descriptors.EnumValueDescriptor) value).getName();
+		}
+		if (plan.hasMapper(field) && !options.getProtoMapper().shouldUseMappedValue()) {
+			Object mappedValue = mappedValues != null ? mappedValues.map(plan, field, value, firstObj)
+					: plan.map(field, value, firstObj);
+			if (Objects.equals(mappedValue, value)) {
+				return returnVal;
+			} else {
+				return returnVal + " (" + String.valueOf(mappedValue) + ")";
+			}
+		}
+		return returnVal;
+	}
+
+	private void writePrefix(char sign, int indent) throws IOException {
+		out.append(sign);
+		int spaces = (indent * LEVEL_SPACE_COUNT) + 1;
+		while (spaces > 0) {
+			int count = Math.min(spaces, SPACES.length());
+			out.append(SPACES, 0, count);
+			spaces -= count;
+		}
+	}
+
+	private static char getSign(ChangeKind kind) {
+		switch (kind) {
+		case CREATED:
+			return SIGN_CREATE;
+		case DELETED:
+			return SIGN_DELETE;
+		case UPDATED:
+			return SIGN_UPDATE;
+		default:
+			// Should not get here
+			return SIGN_EMPTY;
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.jash.protokit.comparer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Aligns the elements of two lists by their longest common subsequence using
+ * the linear space variant of Myers' O(ND) difference algorithm. The
+ * alignment gives up once the number of edits goes over a budget, so that the
+ * cost stays bounded for lists that have little in common.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class SequenceAligner {
+
+	private final List<?> a;
+	private final List<?> b;
+	private final int[] hashA;
+	private final int[] hashB;
+	private final int maxEdits;
+	// Index of the matching element in b for each element of a, -1 if none
+	private final int[] matchA;
+	private int[] forward;
+	private int[] backward;
+
+	private SequenceAligner(List<?> a, List<?> b, int maxEdits) {
+		this.a = a;
+		this.b = b;
+		this.maxEdits = maxEdits;
+		hashA = hashes(a);
+		hashB = hashes(b);
+		matchA = new int[a.size()];
+		Arrays.fill(matchA, -1);
+	}
+
+	/**
+	 * Align two lists for comparison. Elements that are equal in both lists are
+	 * placed at the same position. Between two such elements, the remaining
+	 * elements of both lists are paired by position and the extra ones are paired
+	 * with null.
+	 *
+	 * @param l1       - The first list.
+	 * @param l2       - The second list.
+	 * @param maxEdits - Maximum number of insertions and deletions to look for.
+	 * @return The aligned lists of the same size, or null if the lists differ by
+	 *         more than maxEdits.
+	 */
+	static List<?>[] align(List<?> l1, List<?> l2, int maxEdits) {
+		int[][] indexes = alignIndexes(l1, l2, maxEdits);
+		if (indexes == null) {
+			return null;
+		}
+		return new List<?>[] { select(l1, indexes[0]), select(l2, indexes[1]) };
+	}
+
+	/**
+	 * Align two lists for comparison, same as
+	 * {@link #align(List, List, int)}, but get the indexes of the aligned
+	 * elements in their lists instead of the elements.
+	 *
+	 * @param l1       - The first list.
+	 * @param l2       - The second list.
+	 * @param maxEdits - Maximum number of insertions and deletions to look for.
+	 * @return The indexes of the aligned elements as {first, second}, -1 where an
+	 *         element is paired with null, or null if the lists differ by more than
+	 *         maxEdits.
+	 */
+	static int[][] alignIndexes(List<?> l1, List<?> l2, int maxEdits) {
+		SequenceAligner aligner = new SequenceAligner(l1, l2, maxEdits);
+		if (!aligner.align(0, l1.size(), 0, l2.size())) {
+			return null;
+		}
+		return aligner.toAlignedIndexes();
+	}
+
+	/**
+	 * Get the elements of a list at the given indexes, null for -1.
+	 */
+	static List<Object> select(List<?> list, int[] indexes) {
+		List<Object> result = new ArrayList<>(indexes.length);
+		for (int index : indexes) {
+			result.add(index >= 0 ? list.get(index) : null);
+		}
+		return result;
+	}
+
+	private static int[] hashes(List<?> list) {
+		int[] hashes = new int[list.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = Objects.hashCode(list.get(i));
+		}
+		return hashes;
+	}
+
+	private boolean equal(int i, int j) {
+		return hashA[i] == hashB[j] && Objects.equals(a.get(i), b.get(j));
+	}
+
+	private boolean align(int a0, int a1, int b0, int b1) {
+		// Common prefix and suffix
+		while (a0 < a1 && b0 < b1 && equal(a0, b0)) {
+			matchA[a0++] = b0++;
+		}
+		while (a0 < a1 && b0 < b1 && equal(a1 - 1, b1 - 1)) {
+			matchA[--a1] = --b1;
+		}
+		if (a0 == a1 || b0 == b1) {
+			return true;
+		}
+		int[] snake = middleSnake(a0, a1, b0, b1);
+		if (snake == null) {
+			return false;
+		}
+		for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++) {
+			matchA[x] = y;
+		}
+		return align(a0, snake[0], b0, snake[1]) && align(snake[2], a1, snake[3], b1);
+	}
+
+	/**
+	 * Find the middle snake of the shortest edit script of a[a0, a1) and b[b0, b1).
+	 *
+	 * @return The start and end of the snake as {x, y, u, v}, or null if the edit
+	 *         script is longer than the budget.
+	 */
+	private int[] middleSnake(int a0, int a1, int b0, int b1) {
+		int n = a1 - a0;
+		int m = b1 - b0;
+		int delta = n - m;
+		boolean odd = (delta & 1) != 0;
+		int max = Math.min((n + m + 1) / 2, maxEdits / 2 + 1);
+		int offset = max + 1;
+		int size = 2 * max + 3;
+		if (forward == null || forward.length < size) {
+			forward = new int[size];
+			backward = new int[size];
+		}
+		forward[offset + 1] = 0;
+		backward[offset + 1] = 0;
+		for (int d = 0; d <= max; d++) {
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+					x = forward[offset + k + 1];
+				} else {
+					x = forward[offset + k - 1] + 1;
+				}
+				int y = x - k;
+				int startX = x, startY = y;
+				while (x < n && y < m && equal(a0 + x, b0 + y)) {
+					x++;
+					y++;
+				}
+				forward[offset + k] = x;
+				int c = delta - k;
+				if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+					return new int[] { a0 + startX, b0 + startY, a0 + x, b0 + y };
+				}
+			}
+			for (int c = -d; c <= d; c += 2) {
+				int x;
+				if (c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1])) {
+					x = backward[offset + c + 1];
+				} else {
+					x = backward[offset + c - 1] + 1;
+				}
+				int y = x - c;
+				int startX = x, startY = y;
+				while (x < n && y < m && equal(a1 - 1 - x, b1 - 1 - y)) {
+					x++;
+					y++;
+				}
+				backward[offset + c] = x;
+				int k = delta - c;
+				if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+					return new int[] { a1 - x, b1 - y, a1 - startX, b1 - startY };
+				}
+			}
+		}
+		return null;
+	}
+
+	private int[][] toAlignedIndexes() {
+		int[] first = new int[a.size() + b.size()];
+		int[] second = new int[first.length];
+		int size = 0;
+		int i = 0, j = 0;
+		while (i < a.size() || j < b.size()) {
+			// Elements up to the next common element
+			int nextI = i;
+			while (nextI < a.size() && matchA[nextI] < 0) {
+				nextI++;
+			}
+			int nextJ = nextI < a.size() ? matchA[nextI] : b.size();
+			while (i < nextI || j < nextJ) {
+				first[size] = i < nextI ? i++ : -1;
+				second[size++] = j < nextJ ? j++ : -1;
+			}
+			if (nextI < a.size()) {
+				first[size] = i++;
+				second[size++] = j++;
+			}
+		}
+		return new int[][] { Arrays.copyOf(first, size), Arrays.copyOf(second, size) };
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Compares two snapshot files of length-delimited records that are sorted by a
+ * key field, with a merge join of the two files. The files are read through
+ * memory-mapped windows and only the current record of each file is held, so
+ * the heap used does not depend on the size of the files. The key of a record
+ * is read from its bytes without parsing it, and records that are byte for
+ * byte equal are not parsed at all. Records are parsed in full only to be
+ * passed to a sink that uses them.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class SnapshotComparer {
+
+	private final FieldDescriptor keyField;
+	private final Descriptor descriptor;
+	private final CompareOptions options;
+	private final CompareSink<? super Message> sink;
+	private final boolean parseRecords;
+	// If the key is an unsigned integer, held in a signed value
+	private final boolean unsignedKey;
+	private final long windowSize;
+
+	private long added;
+	private long removed;
+	private long changed;
+	private long unchanged;
+
+	SnapshotComparer(FieldDescriptor keyField, CompareOptions options, CompareSink<? super Message> sink,
+			long windowSize) {
+		if (keyField.isRepeated() || keyField.getJavaType() == JavaType.MESSAGE) {
+			throw new IllegalArgumentException(
+					"Key field should be a singular primitive field: " + keyField.getFullName());
+		}
+		this.keyField = keyField;
+		this.descriptor = keyField.getContainingType();
+		this.options = options;
+		this.sink = sink;
+		this.windowSize = windowSize;
+		parseRecords = sink.usesRecords();
+		FieldDescriptor.Type type = keyField.getType();
+		unsignedKey = type == FieldDescriptor.Type.UINT32 || type == FieldDescriptor.Type.FIXED32
+				|| type == FieldDescriptor.Type.UINT64 || type == FieldDescriptor.Type.FIXED64;
+	}
+
+	CompareSummary compare(Path first, Path second) throws IOException {
+		long start = System.nanoTime();
+		try (MappedRecordReader reader1 = new MappedRecordReader(first, windowSize);
+				MappedRecordReader reader2 = new MappedRecordReader(second, windowSize)) {
+			ByteString b1 = reader1.next();
+			ByteString b2 = reader2.next();
+			Object k1 = b1 != null ? readKey(b1) : null;
+			Object k2 = b2 != null ? readKey(b2) : null;
+			while (b1 != null || b2 != null) {
+				int order = b1 == null ? 1 : b2 == null ? -1 : compareKeys(k1, k2);
+				if (order < 0) {
+					removed++;
+					sink.removed(k1, parse(b1));
+				} else if (order > 0) {
+					added++;
+					sink.added(k2, parse(b2));
+				} else if (b1.equals(b2)) {
+					unchanged++;
+				} else {
+					String report = ProtoComparer.compare(b1, b2, descriptor, options);
+					if (report.isEmpty()) {
+						unchanged++;
+					} else {
+						changed++;
+						sink.changed(k1, parse(b1), parse(b2), report);
+					}
+				}
+				if (order <= 0) {
+					b1 = reader1.next();
+					k1 = nextKey(b1, k1, first);
+				}
+				if (order >= 0) {
+					b2 = reader2.next();
+					k2 = nextKey(b2, k2, second);
+				}
+			}
+		}
+		return new CompareSummary(added, removed, changed, unchanged, System.nanoTime() - start);
+	}
+
+	/**
+	 * Read the key of the next record of a file and check that it is after the key
+	 * of the previous record.
+	 *
+	 * @throws IllegalArgumentException if the file is not sorted by the key.
+	 */
+	private Object nextKey(ByteString record, Object previousKey, Path file) throws IOException {
+		if (record == null) {
+			return null;
+		}
+		Object key = readKey(record);
+		if (compareKeys(previousKey, key) >= 0) {
+			throw new IllegalArgumentException("Records of " + file + " are not sorted by unique "
+					+ keyField.getName() + ": " + keyToString(key) + " after " + keyToString(previousKey));
+		}
+		return key;
+	}
+
+	private Message parse(ByteString bytes) throws IOException {
+		return parseRecords ? DynamicMessage.parseFrom(descriptor, bytes) : null;
+	}
+
+	/**
+	 * Read the value of the key field from the bytes of a record. The last
+	 * occurrence wins as when parsing, and the default value is returned if the
+	 * field is not set.
+	 */
+	Object readKey(ByteString record) throws IOException {
+		CodedInputStream in = record.newCodedInput();
+		int wireType = keyField.getLiteType().getWireType();
+		Object key = null;
+		for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+			if (WireFormat.getTagFieldNumber(tag) == keyField.getNumber()
+					&& WireFormat.getTagWireType(tag) == wireType) {
+				key = WireValues.read(keyField, in);
+			} else {
+				in.skipField(tag);
+			}
+		}
+		return key != null ? key : keyField.getDefaultValue();
+	}
+
+	/**
+	 * Compare two keys the way the files are expected to be sorted, i.e., numbers
+	 * by their value, unsigned for unsigned types, strings by
+	 * {@link String#compareTo(String)}, bytes as unsigned bytes and enums by their
+	 * numbers.
+	 */
+	@SuppressWarnings("unchecked")
+	int compareKeys(Object k1, Object k2) {
+		if (unsignedKey) {
+			return k1 instanceof Integer ? Integer.compareUnsigned((Integer) k1, (Integer) k2)
+					: Long.compareUnsigned((Long) k1, (Long) k2);
+		} else if (k1 instanceof EnumValueDescriptor) {
+			return Integer.compare(((EnumValueDescriptor) k1).getNumber(), ((EnumValueDescriptor) k2).getNumber());
+		} else if (k1 instanceof ByteString) {
+			return ByteString.unsignedLexicographicalComparator().compare((ByteString) k1, (ByteString) k2);
+		}
+		return ((Comparable<Object>) k1).compareTo(k2);
+	}
+
+	private String keyToString(Object key) {
+		if (unsignedKey) {
+			return key instanceof Integer ? Integer.toUnsignedString((Integer) key)
+					: Long.toUnsignedString((Long) key);
+		}
+		return key instanceof EnumValueDescriptor ? ((EnumValueDescriptor) key).getName() : String.valueOf(key);
+	}
+
+}
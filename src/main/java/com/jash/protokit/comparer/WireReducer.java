@@ -0,0 +1,136 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Drops the fields that are byte for byte equal in two serialized messages, so
+ * that only the differing parts of the messages need to be parsed for a
+ * comparison. Singular message fields are reduced recursively. Repeated fields
+ * are kept whole if they differ, as their elements need to be aligned. Key
+ * fields and oneof members are always kept so that the comparison report stays
+ * the same as with the complete messages.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class WireReducer {
+
+	private final CompareOptions options;
+
+	WireReducer(CompareOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * Reduce two serialized messages of the given type.
+	 *
+	 * @return The reduced messages as {first, second}.
+	 */
+	ByteString[] reduce(ByteString b1, ByteString b2, Descriptor descriptor) throws IOException {
+		return reduce(b1, b2, descriptor, options.getPlan(descriptor));
+	}
+
+	private ByteString[] reduce(ByteString b1, ByteString b2, Descriptor descriptor, ComparePlan plan)
+			throws IOException {
+		Map<Integer, List<ByteString>> fields1 = readFields(b1);
+		Map<Integer, List<ByteString>> fields2 = readFields(b2);
+		ByteString.Output out1 = ByteString.newOutput(b1.size());
+		ByteString.Output out2 = ByteString.newOutput(b2.size());
+		for (Map.Entry<Integer, List<ByteString>> entry : fields1.entrySet()) {
+			int number = entry.getKey();
+			List<ByteString> occurrences1 = entry.getValue();
+			List<ByteString> occurrences2 = fields2.remove(number);
+			FieldDescriptor field = descriptor.findFieldByNumber(number);
+			if (field != null && plan.isExcluded(field)) {
+				continue;
+			}
+			if (occurrences1.equals(occurrences2) && !mustKeep(field, plan)) {
+				continue;
+			}
+			if (occurrences2 != null && occurrences1.size() == 1 && occurrences2.size() == 1 && field != null
+					&& !field.isRepeated() && field.getType() == Type.MESSAGE) {
+				reduceMessageField(field, plan, occurrences1.get(0), occurrences2.get(0), out1, out2);
+				continue;
+			}
+			writeAll(occurrences1, out1);
+			if (occurrences2 != null) {
+				writeAll(occurrences2, out2);
+			}
+		}
+		for (Map.Entry<Integer, List<ByteString>> entry : fields2.entrySet()) {
+			FieldDescriptor field = descriptor.findFieldByNumber(entry.getKey());
+			if (field == null || !plan.isExcluded(field)) {
+				writeAll(entry.getValue(), out2);
+			}
+		}
+		return new ByteString[] { out1.toByteString(), out2.toByteString() };
+	}
+
+	private static boolean mustKeep(FieldDescriptor field, ComparePlan plan) {
+		return field != null && (plan.isKeyField(field) || field.getContainingOneof() != null);
+	}
+
+	private void reduceMessageField(FieldDescriptor field, ComparePlan plan, ByteString occurrence1,
+			ByteString occurrence2, ByteString.Output out1, ByteString.Output out2) throws IOException {
+		ByteString[] reduced = reduce(getPayload(occurrence1), getPayload(occurrence2), field.getMessageType(),
+				plan.getChildPlan(field));
+		writeMessageField(field.getNumber(), reduced[0], out1);
+		writeMessageField(field.getNumber(), reduced[1], out2);
+	}
+
+	/**
+	 * Read the fields of a serialized message as the raw bytes (tag and value) of
+	 * each occurrence, grouped by field number in the order of first occurrence.
+	 */
+	private static Map<Integer, List<ByteString>> readFields(ByteString bytes) throws IOException {
+		Map<Integer, List<ByteString>> fields = new LinkedHashMap<>();
+		CodedInputStream in = bytes.newCodedInput();
+		while (true) {
+			int start = in.getTotalBytesRead();
+			int tag = in.readTag();
+			if (tag == 0) {
+				break;
+			}
+			in.skipField(tag);
+			int number = WireFormat.getTagFieldNumber(tag);
+			List<ByteString> occurrences = fields.get(number);
+			if (occurrences == null) {
+				occurrences = new ArrayList<>(1);
+				fields.put(number, occurrences);
+			}
+			occurrences.add(bytes.substring(start, in.getTotalBytesRead()));
+		}
+		return fields;
+	}
+
+	private static ByteString getPayload(ByteString occurrence) throws IOException {
+		CodedInputStream in = occurrence.newCodedInput();
+		in.enableAliasing(true);
+		in.readTag();
+		return in.readBytes();
+	}
+
+	private static void writeMessageField(int number, ByteString payload, ByteString.Output out) throws IOException {
+		CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+		codedOut.writeBytes(number, payload);
+		codedOut.flush();
+	}
+
+	private static void writeAll(List<ByteString> occurrences, ByteString.Output out) throws IOException {
+		for (ByteString occurrence : occurrences) {
+			occurrence.writeTo(out);
+		}
+	}
+
+}
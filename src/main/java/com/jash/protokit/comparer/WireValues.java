@@ -0,0 +1,180 @@
+package com.jash.protokit.comparer;
+
+import java.io.IOException;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * Encodes and decodes field values as they are on the wire without the tag,
+ * i.e., the varint, the fixed bytes or the bytes of a string or bytes value.
+ * Messages are only decoded.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+class WireValues {
+
+	private WireValues() {
+	}
+
+	/**
+	 * Encode a value of a primitive field.
+	 */
+	static ByteString encode(FieldDescriptor field, Object value) throws IOException {
+		switch (field.getType()) {
+		case STRING:
+			return ByteString.copyFromUtf8((String) value);
+		case BYTES:
+			return (ByteString) value;
+		default:
+			break;
+		}
+		byte[] bytes = new byte[getSize(field, value)];
+		CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+		switch (field.getType()) {
+		case DOUBLE:
+			out.writeDoubleNoTag((Double) value);
+			break;
+		case FLOAT:
+			out.writeFloatNoTag((Float) value);
+			break;
+		case INT64:
+			out.writeInt64NoTag((Long) value);
+			break;
+		case UINT64:
+			out.writeUInt64NoTag((Long) value);
+			break;
+		case INT32:
+			out.writeInt32NoTag((Integer) value);
+			break;
+		case FIXED64:
+			out.writeFixed64NoTag((Long) value);
+			break;
+		case FIXED32:
+			out.writeFixed32NoTag((Integer) value);
+			break;
+		case BOOL:
+			out.writeBoolNoTag((Boolean) value);
+			break;
+		case UINT32:
+			out.writeUInt32NoTag((Integer) value);
+			break;
+		case ENUM:
+			out.writeEnumNoTag(((EnumValueDescriptor) value).getNumber());
+			break;
+		case SFIXED32:
+			out.writeSFixed32NoTag((Integer) value);
+			break;
+		case SFIXED64:
+			out.writeSFixed64NoTag((Long) value);
+			break;
+		case SINT32:
+			out.writeSInt32NoTag((Integer) value);
+			break;
+		case SINT64:
+			out.writeSInt64NoTag((Long) value);
+			break;
+		default:
+			throw new IllegalArgumentException("Not a primitive field: " + field.getFullName());
+		}
+		out.checkNoSpaceLeft();
+		return UnsafeByteOperations.unsafeWrap(bytes);
+	}
+
+	private static int getSize(FieldDescriptor field, Object value) {
+		switch (field.getType()) {
+		case DOUBLE:
+		case FIXED64:
+		case SFIXED64:
+			return 8;
+		case FLOAT:
+		case FIXED32:
+		case SFIXED32:
+			return 4;
+		case BOOL:
+			return 1;
+		case INT64:
+		case UINT64:
+			return CodedOutputStream.computeUInt64SizeNoTag((Long) value);
+		case SINT64:
+			return CodedOutputStream.computeSInt64SizeNoTag((Long) value);
+		case INT32:
+			return CodedOutputStream.computeInt32SizeNoTag((Integer) value);
+		case UINT32:
+			return CodedOutputStream.computeUInt32SizeNoTag((Integer) value);
+		case SINT32:
+			return CodedOutputStream.computeSInt32SizeNoTag((Integer) value);
+		case ENUM:
+			return CodedOutputStream.computeEnumSizeNoTag(((EnumValueDescriptor) value).getNumber());
+		default:
+			throw new IllegalArgumentException("Not a primitive field: " + field.getFullName());
+		}
+	}
+
+	/**
+	 * Decode a value of a field. Enum values not known to the enum type are
+	 * returned as an unknown value of the type, and messages as
+	 * {@link DynamicMessage}.
+	 */
+	static Object decode(FieldDescriptor field, ByteString bytes) throws IOException {
+		switch (field.getType()) {
+		case STRING:
+			return bytes.toStringUtf8();
+		case BYTES:
+			return bytes;
+		case MESSAGE:
+		case GROUP:
+			return DynamicMessage.parseFrom(field.getMessageType(), bytes);
+		default:
+			return read(field, bytes.newCodedInput());
+		}
+	}
+
+	/**
+	 * Read a value of a primitive field from a stream positioned after its tag.
+	 */
+	static Object read(FieldDescriptor field, CodedInputStream in) throws IOException {
+		switch (field.getType()) {
+		case STRING:
+			return in.readString();
+		case BYTES:
+			return in.readBytes();
+		case DOUBLE:
+			return in.readDouble();
+		case FLOAT:
+			return in.readFloat();
+		case INT64:
+			return in.readInt64();
+		case UINT64:
+			return in.readUInt64();
+		case INT32:
+			return in.readInt32();
+		case FIXED64:
+			return in.readFixed64();
+		case FIXED32:
+			return in.readFixed32();
+		case BOOL:
+			return in.readBool();
+		case UINT32:
+			return in.readUInt32();
+		case ENUM:
+			return field.getEnumType().findValueByNumberCreatingIfUnknown(in.readEnum());
+		case SFIXED32:
+			return in.readSFixed32();
+		case SFIXED64:
+			return in.readSFixed64();
+		case SINT32:
+			return in.readSInt32();
+		case SINT64:
+			return in.readSInt64();
+		default:
+			throw new IllegalArgumentException("Not a primitive field: " + field.getFullName());
+		}
+	}
+
+}
@@ -0,0 +1,309 @@
+package com.jash.protokit.internal;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.google.protobuf.Internal.EnumLite;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.ProtocolMessageEnum;
+
+/**
+ * This class is for internal use only and subject to change. It is not meant to
+ * be used by clients. Refrain from using this class.
+ * <p>
+ * Reads the fields of generated messages and builders through their generated
+ * accessors instead of {@link MessageOrBuilder#getField(FieldDescriptor)}. The
+ * accessors of a class are bound once, on first use, to functions through
+ * {@link LambdaMetafactory}, so a read skips the lookup and the reflective
+ * invocation of the field accessor table. The functions of all the fields are
+ * called from the same call sites, which the JIT does not inline as they see
+ * many classes. Values are the same as through reflection. Classes that are not
+ * generated, e.g., {@link com.google.protobuf.DynamicMessage}, map fields and
+ * extensions are read through reflection.
+ */
+public class FieldAccessors {
+
+	// Field names that protoc suffixes with an underscore in the accessors
+	private static final Set<String> FORBIDDEN_NAMES = new HashSet<>(
+			Arrays.asList("class", "cached_size", "serialized_size"));
+	private static final FieldAccessors REFLECTIVE = new FieldAccessors(null, new Accessor[0]);
+	private static final ClassValue<FieldAccessors> CLASS_VS_ACCESSORS = new ClassValue<FieldAccessors>() {
+
+		@Override
+		protected FieldAccessors computeValue(Class<?> type) {
+			return bind(type);
+		}
+
+	};
+
+	private final Descriptor descriptor;
+	// Indexed by FieldDescriptor#getIndex(), null for the fields to read through
+	// reflection
+	private final Accessor[] accessors;
+
+	private FieldAccessors(Descriptor descriptor, Accessor[] accessors) {
+		this.descriptor = descriptor;
+		this.accessors = accessors;
+	}
+
+	/**
+	 * Get the value of a field of a message or builder the same as
+	 * {@link MessageOrBuilder#getField(FieldDescriptor)}, or null if the message
+	 * is null or the field is singular and not set.
+	 */
+	public static Object getValue(MessageOrBuilder message, FieldDescriptor field) {
+		if (message == null) {
+			return null;
+		}
+		Accessor accessor = CLASS_VS_ACCESSORS.get(message.getClass()).get(field);
+		if (accessor != null) {
+			return accessor.getValue(message);
+		} else if (field.isRepeated() || message.hasField(field)) {
+			return message.getField(field);
+		}
+		return null;
+	}
+
+	/**
+	 * Get the number of elements of a repeated field of a message or builder.
+	 */
+	public static int getCount(MessageOrBuilder message, FieldDescriptor field) {
+		Accessor accessor = CLASS_VS_ACCESSORS.get(message.getClass()).get(field);
+		if (accessor != null) {
+			return accessor.count.applyAsInt(message);
+		}
+		return message.getRepeatedFieldCount(field);
+	}
+
+	private Accessor get(FieldDescriptor field) {
+		if (field.getContainingType() != descriptor || field.getIndex() >= accessors.length) {
+			return null;
+		}
+		return accessors[field.getIndex()];
+	}
+
+	/**
+	 * Bind the accessors of a generated message or builder class. Falls back to
+	 * reflection for the whole class if it is not generated or its accessors
+	 * cannot be bound.
+	 */
+	private static FieldAccessors bind(Class<?> type) {
+		if (!MessageOrBuilder.class.isAssignableFrom(type) || !isVisible(type)) {
+			return REFLECTIVE;
+		}
+		try {
+			Object descriptor = type.getMethod("getDescriptor").invoke(null);
+			if (!(descriptor instanceof Descriptor)) {
+				return REFLECTIVE;
+			}
+			List<FieldDescriptor> fields = ((Descriptor) descriptor).getFields();
+			Accessor[] accessors = new Accessor[fields.size()];
+			for (FieldDescriptor field : fields) {
+				if (!field.isMapField()) {
+					accessors[field.getIndex()] = bind(type, field);
+				}
+			}
+			return new FieldAccessors((Descriptor) descriptor, accessors);
+		} catch (Throwable e) {
+			return REFLECTIVE;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Accessor bind(Class<?> type, FieldDescriptor field) throws Throwable {
+		String name = getAccessorName(field);
+		boolean enumNumbers = field.getJavaType() == JavaType.ENUM && !field.legacyEnumFieldTreatedAsClosed();
+		if (field.isRepeated()) {
+			Function<Object, Object> get = bindFunction(type, "get" + name + (enumNumbers ? "ValueList" : "List"));
+			ToIntFunction<Object> count = bind(type, "get" + name + "Count", ToIntFunction.class, "applyAsInt",
+					int.class);
+			return new Accessor(field, get, null, null, count, enumNumbers);
+		}
+		Function<Object, Object> get = bindFunction(type, "get" + name + (enumNumbers ? "Value" : ""));
+		OneofDescriptor oneof = field.getRealContainingOneof();
+		if (oneof != null) {
+			String caseName = toCamelCase(oneof.getName(), true) + "Case";
+			Function<Object, Object> oneofCase = bindFunction(type, "get" + caseName);
+			return new Accessor(field, get, null, oneofCase, null, enumNumbers);
+		} else if (field.hasPresence()) {
+			Predicate<Object> has = bind(type, "has" + name, Predicate.class, "test", boolean.class);
+			return new Accessor(field, get, has, null, null, enumNumbers);
+		}
+		return new Accessor(field, get, null, null, null, enumNumbers);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Function<Object, Object> bindFunction(Class<?> type, String methodName) throws Throwable {
+		return bind(type, methodName, Function.class, "apply", Object.class);
+	}
+
+	/**
+	 * Bind a no argument method of a class to an instance of a functional
+	 * interface, with the result boxed if the interface method returns an object.
+	 */
+	private static <F> F bind(Class<?> type, String methodName, Class<F> functionType, String functionMethod,
+			Class<?> returnType) throws Throwable {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle getter = lookup.findVirtual(type, methodName,
+				MethodType.methodType(type.getMethod(methodName).getReturnType()));
+		CallSite site = LambdaMetafactory.metafactory(lookup, functionMethod, MethodType.methodType(functionType),
+				MethodType.methodType(returnType, Object.class), getter, MethodType.methodType(returnType, type));
+		return functionType.cast(site.getTarget().invoke());
+	}
+
+	/**
+	 * Check if a class can be seen from the class loader of this class, which
+	 * the bound functions are defined in.
+	 */
+	private static boolean isVisible(Class<?> type) {
+		try {
+			return Class.forName(type.getName(), false, FieldAccessors.class.getClassLoader()) == type;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the name of a field as in its generated accessors, e.g., PostalCode for
+	 * postal_code.
+	 */
+	public static String getAccessorName(FieldDescriptor field) {
+		String name = field.getType() == Type.GROUP ? field.getMessageType().getName() : field.getName();
+		String camelCase = toCamelCase(name, true);
+		return FORBIDDEN_NAMES.contains(name) ? camelCase + "_" : camelCase;
+	}
+
+	/**
+	 * Convert a name to camel case the way protoc does for Java, i.e., an
+	 * underscore or a digit starts a new word.
+	 */
+	public static String toCamelCase(String name, boolean capitalizeFirst) {
+		StringBuilder result = new StringBuilder(name.length());
+		boolean capitalizeNext = capitalizeFirst;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c >= 'a' && c <= 'z') {
+				result.append(capitalizeNext ? Character.toUpperCase(c) : c);
+				capitalizeNext = false;
+			} else if (c >= 'A' && c <= 'Z') {
+				result.append(i == 0 && !capitalizeFirst ? Character.toLowerCase(c) : c);
+				capitalizeNext = false;
+			} else if (c >= '0' && c <= '9') {
+				result.append(c);
+				capitalizeNext = true;
+			} else {
+				capitalizeNext = true;
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The bound accessors of a field. Singular fields are set if the case of
+	 * their oneof is the field, else if the has accessor is true, else if the
+	 * value is not the default value.
+	 */
+	private static final class Accessor {
+
+		private final FieldDescriptor field;
+		private final Function<Object, Object> get;
+		private final Predicate<Object> has;
+		private final Function<Object, Object> oneofCase;
+		private final ToIntFunction<Object> count;
+		// Enum values are read as numbers, as unknown values are kept
+		private final boolean enumNumbers;
+
+		private Accessor(FieldDescriptor field, Function<Object, Object> get, Predicate<Object> has,
+				Function<Object, Object> oneofCase, ToIntFunction<Object> count, boolean enumNumbers) {
+			this.field = field;
+			this.get = get;
+			this.has = has;
+			this.oneofCase = oneofCase;
+			this.count = count;
+			this.enumNumbers = enumNumbers;
+		}
+
+		private Object getValue(Object message) {
+			if (oneofCase != null && ((EnumLite) oneofCase.apply(message)).getNumber() != field.getNumber()) {
+				return null;
+			} else if (has != null && !has.test(message)) {
+				return null;
+			}
+			Object value = get.apply(message);
+			if (field.isRepeated()) {
+				return field.getJavaType() == JavaType.ENUM ? toValueDescriptors((List<?>) value) : value;
+			} else if (oneofCase == null && has == null && isDefault(value)) {
+				return null;
+			}
+			return field.getJavaType() == JavaType.ENUM ? toValueDescriptor(value) : value;
+		}
+
+		private Object toValueDescriptor(Object value) {
+			if (enumNumbers) {
+				return field.getEnumType().findValueByNumberCreatingIfUnknown((Integer) value);
+			}
+			return ((ProtocolMessageEnum) value).getValueDescriptor();
+		}
+
+		private List<Object> toValueDescriptors(List<?> values) {
+			List<Object> descriptors = new ArrayList<>(values.size());
+			for (Object value : values) {
+				descriptors.add(toValueDescriptor(value));
+			}
+			return Collections.unmodifiableList(descriptors);
+		}
+
+		/**
+		 * Check if the value of a field without presence is the default value, in
+		 * which case the field is not set. Floating point values are compared by
+		 * their bits, so that -0.0 is set.
+		 */
+		private boolean isDefault(Object value) {
+			switch (field.getJavaType()) {
+			case INT:
+			case LONG:
+				return ((Number) value).longValue() == 0;
+			case FLOAT:
+				return Float.floatToRawIntBits((Float) value) == 0;
+			case DOUBLE:
+				return Double.doubleToRawLongBits((Double) value) == 0;
+			case BOOLEAN:
+				return !(Boolean) value;
+			case STRING:
+				return ((String) value).isEmpty();
+			case BYTE_STRING:
+				return ((ByteString) value).isEmpty();
+			case ENUM:
+				return enumNumbers ? (Integer) value == 0
+						: ((ProtocolMessageEnum) value).getNumber() == getFirstNumber(field.getEnumType());
+			default:
+				return false;
+			}
+		}
+
+		private static int getFirstNumber(EnumDescriptor enumType) {
+			return enumType.getValues().get(0).getNumber();
+		}
+
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.jash.protokit.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+/**
+ * This class is for internal use only and subject to change. It is not meant to
+ * be used by clients. Refrain from using this class.
+ * <p>
+ * Field rules of the options compiled into a trie of field names. A rule is
+ * either of the form "EncasingMessage.fieldName", which matches the field in
+ * the message type wherever it is, or a path from the compared message like
+ * "Member.address.city". Paths can have "*" for any one field and "**" for any
+ * number of fields, e.g., "Member.**.price". The first part of a path is the
+ * simple or full name of the compared message type, or "*" for any type.
+ * <p>
+ * The trie is walked a field at a time with {@link State}. The states and
+ * their transitions are built on first use and cached by descriptor, so a
+ * lookup is a map lookup per field of the path. The caches are keyed weakly, so
+ * that descriptors built at runtime are not kept alive by the trie.
+ *
+ * @param <V> Type of the values of the rules.
+ */
+public class PathTrie<V> {
+
+	private static final String ANY_FIELD = "*";
+	private static final String ANY_FIELDS = "**";
+
+	// Rules of the form "EncasingMessage.fieldName"
+	private final Map<String, List<V>> fieldRules = new HashMap<>();
+	private final Map<FieldDescriptor, List<V>> fieldRulesByField = Collections
+			.synchronizedMap(new WeakHashMap<>());
+	// Rules by the type the path starts at
+	private final Map<String, Node<V>> roots = new LinkedHashMap<>();
+	private final Map<String, State<V>> states = new ConcurrentHashMap<>();
+	private final State<V> noPathState = new State<>(this, Collections.<Node<V>>emptyList());
+	private int nodeCount;
+
+	/**
+	 * Add a rule.
+	 *
+	 * @param pattern - The field or path of the rule.
+	 * @param value   - The value of the rule.
+	 * @return The current instance.
+	 */
+	public PathTrie<V> put(String pattern, V value) {
+		String[] parts = pattern.split("\\.");
+		if (parts.length < 2 || parts.length == 2 && !isWildcard(parts[0]) && !isWildcard(parts[1])) {
+			fieldRules.computeIfAbsent(pattern, key -> new ArrayList<>()).add(value);
+			return this;
+		}
+		// A path starting with "**" is from any type through any number of fields
+		String type = isWildcard(parts[0]) ? ANY_FIELD : parts[0];
+		Node<V> node = roots.computeIfAbsent(type, key -> newNode());
+		if (ANY_FIELDS.equals(parts[0])) {
+			node = node.child(ANY_FIELDS, this);
+		}
+		for (int i = 1; i < parts.length; i++) {
+			node = node.child(parts[i], this);
+		}
+		node.values.add(value);
+		return this;
+	}
+
+	private static boolean isWildcard(String part) {
+		return ANY_FIELD.equals(part) || ANY_FIELDS.equals(part);
+	}
+
+	private Node<V> newNode() {
+		return new Node<>(nodeCount++);
+	}
+
+	/**
+	 * Check if there are any rules that are paths, in which case the rules of a
+	 * field depend on the path to it.
+	 */
+	public boolean hasPaths() {
+		return !roots.isEmpty();
+	}
+
+	/**
+	 * Get the state of the trie at a compared message.
+	 *
+	 * @param descriptor - Descriptor of the compared message.
+	 */
+	public State<V> start(Descriptor descriptor) {
+		if (roots.isEmpty()) {
+			return noPathState;
+		}
+		List<Node<V>> nodes = new ArrayList<>();
+		for (String type : new String[] { ANY_FIELD, descriptor.getName(), descriptor.getFullName() }) {
+			Node<V> root = roots.get(type);
+			if (root != null) {
+				addWithAnyFields(root, nodes);
+			}
+		}
+		return getState(nodes);
+	}
+
+	/**
+	 * Add a node to a set of nodes, along with its "**" child which matches no
+	 * fields too.
+	 */
+	private static <V> void addWithAnyFields(Node<V> node, List<Node<V>> nodes) {
+		while (node != null && !nodes.contains(node)) {
+			nodes.add(node);
+			node = node.children.get(ANY_FIELDS);
+		}
+	}
+
+	private State<V> getState(List<Node<V>> nodes) {
+		if (nodes.isEmpty()) {
+			return noPathState;
+		}
+		int[] ids = new int[nodes.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = nodes.get(i).id;
+		}
+		Arrays.sort(ids);
+		return states.computeIfAbsent(Arrays.toString(ids), key -> new State<>(this, nodes));
+	}
+
+	private List<V> getFieldRules(FieldDescriptor field) {
+		if (fieldRules.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<V> values = fieldRulesByField.get(field);
+		if (values == null) {
+			values = fieldRules.getOrDefault(Util.getFieldName(field.getFullName()), Collections.<V>emptyList());
+			fieldRulesByField.put(field, values);
+		}
+		return values;
+	}
+
+	/**
+	 * Position in the trie after a path of fields. Immutable and shared by all the
+	 * paths that match the same rules.
+	 *
+	 * @param <V> Type of the values of the rules.
+	 */
+	public static final class State<V> {
+
+		private final PathTrie<V> trie;
+		private final List<Node<V>> nodes;
+		// Values of the rules of the paths ending at this state
+		private final List<V> values;
+		private final Map<FieldDescriptor, State<V>> next = Collections.synchronizedMap(new WeakHashMap<>());
+
+		private State(PathTrie<V> trie, List<Node<V>> nodes) {
+			this.trie = trie;
+			this.nodes = nodes;
+			List<V> nodeValues = new ArrayList<>();
+			for (Node<V> node : nodes) {
+				nodeValues.addAll(node.values);
+			}
+			this.values = nodeValues;
+		}
+
+		/**
+		 * Get the state after a field of the message at this state.
+		 */
+		public State<V> next(FieldDescriptor field) {
+			if (nodes.isEmpty()) {
+				return this;
+			}
+			State<V> state = next.get(field);
+			if (state == null) {
+				List<Node<V>> nextNodes = new ArrayList<>();
+				for (Node<V> node : nodes) {
+					Node<V> child = node.children.get(field.getName());
+					if (child != null) {
+						addWithAnyFields(child, nextNodes);
+					}
+					child = node.children.get(ANY_FIELD);
+					if (child != null) {
+						addWithAnyFields(child, nextNodes);
+					}
+					if (node.isAnyFields) {
+						// "**" matches one more field
+						addWithAnyFields(node, nextNodes);
+					}
+				}
+				state = trie.getState(nextNodes);
+				next.put(field, state);
+			}
+			return state;
+		}
+
+		/**
+		 * Get the values of the rules of a field of the message at this state, in the
+		 * order the rules are added, field rules first.
+		 */
+		public List<V> get(FieldDescriptor field) {
+			List<V> fieldValues = trie.getFieldRules(field);
+			if (nodes.isEmpty()) {
+				return fieldValues;
+			}
+			List<V> pathValues = next(field).values;
+			if (pathValues.isEmpty() || fieldValues.isEmpty()) {
+				return pathValues.isEmpty() ? fieldValues : pathValues;
+			}
+			List<V> allValues = new ArrayList<>(fieldValues);
+			allValues.addAll(pathValues);
+			return allValues;
+		}
+
+		/**
+		 * Check if any rule matches a field of the message at this state.
+		 */
+		public boolean matches(FieldDescriptor field) {
+			return !get(field).isEmpty();
+		}
+
+	}
+
+	private static final class Node<V> {
+
+		private final int id;
+		private final boolean isAnyFields;
+		private final Map<String, Node<V>> children = new HashMap<>();
+		private final List<V> values = new ArrayList<>();
+
+		private Node(int id) {
+			this(id, false);
+		}
+
+		private Node(int id, boolean isAnyFields) {
+			this.id = id;
+			this.isAnyFields = isAnyFields;
+		}
+
+		private Node<V> child(String name, PathTrie<V> trie) {
+			Node<V> child = children.get(name);
+			if (child == null) {
+				child = new Node<>(trie.nodeCount++, ANY_FIELDS.equals(name));
+				children.put(name, child);
+			}
+			return child;
+		}
+
+	}
+
+}
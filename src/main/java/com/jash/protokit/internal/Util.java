@@ -40,10 +40,7 @@ public class Util {
 	}
 
 	protected static Object getValue(Builder builder, FieldDescriptor field) {
-		if (builder != null && (field.isRepeated() || builder.hasField(field))) {
-			return builder.getField(field);
-		}
-		return null;
+		return FieldAccessors.getValue(builder, field);
 	}
 
 }
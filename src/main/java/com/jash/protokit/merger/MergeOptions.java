@@ -6,8 +6,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Message;
-import com.jash.protokit.merger.Internal.UtilAdapter;
+import com.jash.protokit.internal.PathTrie;
 
 /**
  * A class to hold options for merging two messages.
@@ -22,27 +24,56 @@ public class MergeOptions {
 	private Map<String, Resolver> conflictResolver;
 	private Map<String, String> mergeRepeatedByField;
 	private List<String> excludeFields;
+	private PathTrie<FieldRule> fieldRules;
 
 	private MergeOptions(Builder builder) {
 		conflictResolver = builder.conflictResolver;
 		mergeRepeatedByField = builder.mergeRepeatedByField;
 		excludeFields = builder.excludeFields;
+		fieldRules = new PathTrie<>();
+		for (String field : excludeFields) {
+			fieldRules.put(field, FieldRule.EXCLUDE);
+		}
+		for (Map.Entry<String, Resolver> entry : conflictResolver.entrySet()) {
+			fieldRules.put(entry.getKey(), new FieldRule(FieldRule.RESOLVED, entry.getValue(), null));
+		}
+		for (Map.Entry<String, String> entry : mergeRepeatedByField.entrySet()) {
+			fieldRules.put(entry.getKey(), new FieldRule(FieldRule.MERGED, null, entry.getValue()));
+		}
+	}
+
+	/**
+	 * Get the state of the field rules at a merged message.
+	 */
+	protected PathTrie.State<FieldRule> getFieldRules(Descriptor descriptor) {
+		return fieldRules.start(descriptor);
 	}
 
-	protected Resolver getResolverForField(String fieldFullName) {
-		return conflictResolver.get(UtilAdapter.getFieldName(fieldFullName));
+	protected Resolver getResolverForField(PathTrie.State<FieldRule> rules, FieldDescriptor field) {
+		FieldRule rule = getRule(rules, field, FieldRule.RESOLVED);
+		return rule != null ? rule.resolver : null;
 	}
 
-	protected boolean shouldMergeRepeatedField(String fieldFullName) {
-		return mergeRepeatedByField.containsKey(UtilAdapter.getFieldName(fieldFullName));
+	protected boolean shouldMergeRepeatedField(PathTrie.State<FieldRule> rules, FieldDescriptor field) {
+		return getRule(rules, field, FieldRule.MERGED) != null;
 	}
 
-	protected String getMergeByFieldForRepeatedField(String fieldFullName) {
-		return mergeRepeatedByField.get(UtilAdapter.getFieldName(fieldFullName));
+	protected String getMergeByFieldForRepeatedField(PathTrie.State<FieldRule> rules, FieldDescriptor field) {
+		FieldRule rule = getRule(rules, field, FieldRule.MERGED);
+		return rule != null ? rule.mergeByField : null;
 	}
 
-	protected boolean isFieldExcluded(String fieldFullName) {
-		return excludeFields.contains(UtilAdapter.getFieldName(fieldFullName));
+	protected boolean isFieldExcluded(PathTrie.State<FieldRule> rules, FieldDescriptor field) {
+		return getRule(rules, field, FieldRule.EXCLUDED) != null;
+	}
+
+	private static FieldRule getRule(PathTrie.State<FieldRule> rules, FieldDescriptor field, int kind) {
+		for (FieldRule rule : rules.get(field)) {
+			if (rule.kind == kind) {
+				return rule;
+			}
+		}
+		return null;
 	}
 
 	@Override
@@ -51,6 +82,29 @@ public class MergeOptions {
 				+ mergeRepeatedByField + ", excludeFields=" + excludeFields + "]";
 	}
 
+	/**
+	 * A rule of the options for a field.
+	 */
+	static final class FieldRule {
+
+		static final int EXCLUDED = 0;
+		static final int RESOLVED = 1;
+		static final int MERGED = 2;
+		static final FieldRule EXCLUDE = new FieldRule(EXCLUDED, null, null);
+
+		final int kind;
+		final Resolver resolver;
+		// Field to merge a repeated field by
+		final String mergeByField;
+
+		FieldRule(int kind, Resolver resolver, String mergeByField) {
+			this.kind = kind;
+			this.resolver = resolver;
+			this.mergeByField = mergeByField;
+		}
+
+	}
+
 	/**
 	 * Builder for {@link MergeOptions}.
 	 */
@@ -83,7 +137,10 @@ public class MergeOptions {
 		 * is null.
 		 * 
 		 * @param field    - Conflicting field. Field format should be like
-		 *                 "EncasingMessage.fieldName". E.g.: "SampleMessage.primField"
+		 *                 "EncasingMessage.fieldName". E.g.: "SampleMessage.primField".
+		 *                 Can also be a path from the merged message with "*" for any
+		 *                 field and "**" for any number of fields. E.g.:
+		 *                 "Member.**.price"
 		 * @param resolver - Resolver type to use in case of conflict.
 		 * @return The current instance of {@link Builder}.
 		 */
@@ -113,7 +170,9 @@ public class MergeOptions {
 		 * Can be used if the order of elements in a repeated field doesn't matter and
 		 * needs to be merged. If a repeated field is not given here, it will not be
 		 * merged. Field format should be like "EncasingMessage.fieldName". E.g.:
-		 * "SampleMessage.repeatedField"
+		 * "SampleMessage.repeatedField". Can also be a path from the merged message
+		 * with "*" for any field and "**" for any number of fields. E.g.:
+		 * "Member.**.borrowHistory"
 		 * 
 		 * @param field   - Repeated field to be merged.
 		 * @param byField - Field to be used for merging if the repeated field is of
@@ -145,7 +204,9 @@ public class MergeOptions {
 		 * Add a field to be excluded from merging.
 		 * 
 		 * @param field - Field to be excluded. Field format should be like
-		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field"
+		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field". Can
+		 *              also be a path from the merged message with "*" for any field
+		 *              and "**" for any number of fields. E.g.: "Member.**.price"
 		 * @return The current instance of {@link Builder}.
 		 */
 		public Builder addExcludeField(String field) {
@@ -11,7 +11,9 @@ import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
+import com.jash.protokit.internal.PathTrie;
 import com.jash.protokit.merger.Internal.UtilAdapter;
+import com.jash.protokit.merger.MergeOptions.FieldRule;
 import com.jash.protokit.merger.MergeOptions.Resolver;
 
 /**
@@ -84,32 +86,33 @@ public class ProtoMerger {
 		if (options == null) {
 			options = MergeOptions.DUMMY_OPTIONS;
 		}
-		mergeBuilders(alphaBuilder, betaBuilder, options);
+		mergeBuilders(alphaBuilder, betaBuilder, options, options.getFieldRules(alphaBuilder.getDescriptorForType()));
 	}
 
-	private static void mergeBuilders(Builder alphaBuilder, Builder betaBuilder, MergeOptions options) {
+	private static void mergeBuilders(Builder alphaBuilder, Builder betaBuilder, MergeOptions options,
+			PathTrie.State<FieldRule> rules) {
 		Object alphaValue = null, betaValue = null;
 		for (FieldDescriptor field : UtilAdapter.getAllFields(alphaBuilder, betaBuilder)) {
 			alphaValue = UtilAdapter.getValue(alphaBuilder, field);
 			betaValue = UtilAdapter.getValue(betaBuilder, field);
-			if (Objects.equals(alphaValue, betaValue) || options.isFieldExcluded(field.getFullName())) {
+			if (Objects.equals(alphaValue, betaValue) || options.isFieldExcluded(rules, field)) {
                 continue;
             }
-			mergeField(field, alphaBuilder, betaBuilder, alphaValue, betaValue, options);
+			mergeField(field, alphaBuilder, betaBuilder, alphaValue, betaValue, options, rules);
         }
 	}
 
 	private static void mergeField(FieldDescriptor field, Builder alphaBuilder, Builder betaBuilder, Object alphaValue,
-			Object betaValue, MergeOptions options) {
+			Object betaValue, MergeOptions options, PathTrie.State<FieldRule> rules) {
 		if (field.isRepeated()) {
-			mergeRepeatedField(field, alphaBuilder, betaBuilder, alphaValue, betaValue, options);
+			mergeRepeatedField(field, alphaBuilder, betaBuilder, alphaValue, betaValue, options, rules);
 		} else {
-			mergeSingleField(field, alphaBuilder, betaBuilder, alphaValue, betaValue, options);
+			mergeSingleField(field, alphaBuilder, betaBuilder, alphaValue, betaValue, options, rules);
 		}
 	}
 
 	private static void mergeRepeatedField(FieldDescriptor field, Builder alphaBuilder, Builder betaBuilder,
-			Object alphaValue, Object betaValue, MergeOptions options) {
+			Object alphaValue, Object betaValue, MergeOptions options, PathTrie.State<FieldRule> rules) {
 		@SuppressWarnings("unchecked")
 		List<Object> l1 = new ArrayList<>(alphaValue != null ? (List<Object>) alphaValue : Collections.emptyList());
 		@SuppressWarnings("unchecked")
@@ -121,8 +124,8 @@ public class ProtoMerger {
 		} else {
 			// mergeByField can be deliberately set to null if the repeated field is of
 			// primitive type and hence mergeRepeated
-			boolean mergeRepeated = options.shouldMergeRepeatedField(field.getFullName());
-			String mergeByField = options.getMergeByFieldForRepeatedField(field.getFullName());
+			boolean mergeRepeated = options.shouldMergeRepeatedField(rules, field);
+			String mergeByField = options.getMergeByFieldForRepeatedField(rules, field);
 			if (!mergeRepeated) {
 				return;
 			}
@@ -174,7 +177,9 @@ public class ProtoMerger {
 					Message msg2 = (Message) l2.get(i);
 					Builder bbd1 = msg1.toBuilder();
 					Builder bbd2 = msg2.toBuilder();
-					merge(bbd1, bbd2, options);
+					if (!Objects.equals(msg1, msg2)) {
+						mergeBuilders(bbd1, bbd2, options, rules.next(field));
+					}
 					alphaBuilder.addRepeatedField(field, bbd1.build());
 					betaBuilder.addRepeatedField(field, bbd2.build());
 				}
@@ -199,15 +204,15 @@ public class ProtoMerger {
 	}
 
 	private static void mergeSingleField(FieldDescriptor field, Builder alphaBuilder, Builder betaBuilder,
-			Object alphaValue, Object betaValue, MergeOptions options) {
-		Resolver cmp = options.getResolverForField(field.getFullName());
+			Object alphaValue, Object betaValue, MergeOptions options, PathTrie.State<FieldRule> rules) {
+		Resolver cmp = options.getResolverForField(rules, field);
 		if (field.getJavaType() == JavaType.MESSAGE) {
 			if (alphaValue != null && betaValue != null) {
 				Message m1 = (Message) alphaValue;
 				Message m2 = (Message) betaValue;
 				Builder bb1 = m1.toBuilder();
 				Builder bb2 = m2.toBuilder();
-				mergeBuilders(bb1, bb2, options);
+				mergeBuilders(bb1, bb2, options, rules.next(field));
 				alphaBuilder.setField(field, bb1.build());
 				betaBuilder.setField(field, bb2.build());
 			} else {
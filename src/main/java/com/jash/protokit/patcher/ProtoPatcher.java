@@ -0,0 +1,485 @@
+package com.jash.protokit.patcher;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+import com.google.protobuf.Message.Builder;
+import com.jash.protokit.comparer.DiffFormat.FieldChange;
+import com.jash.protokit.comparer.DiffFormat.FieldChange.ElementKey;
+import com.jash.protokit.comparer.DiffFormat.FieldChange.ElementPosition;
+import com.jash.protokit.comparer.DiffFormat.FieldChange.Kind;
+import com.jash.protokit.comparer.DiffFormat.MessageDiff;
+import com.jash.protokit.comparer.DiffReader;
+
+/**
+ * Utility class to apply a diff written by
+ * {@link com.jash.protokit.comparer.ProtoComparer#writeBinaryDiff(Message, Message, com.jash.protokit.comparer.CompareOptions, java.io.OutputStream)}
+ * to the first of the compared messages, to get the second one. The builder of
+ * the base message is edited in place.
+ * <p>
+ * Every change is checked against the base message before it is applied, i.e.,
+ * the old value must match and a created value must not be set, so a diff taken
+ * against a different version of the message fails instead of corrupting it.
+ * Elements of repeated fields are matched by their index, or by the value of
+ * the field they are ordered by if the field is set to be ordered in the
+ * compare options, in which case the created elements are added at the end.
+ * Elements of other repeated fields aligned by the comparer are matched by
+ * their values, which is only possible for primitive fields.
+ * <p>
+ * Diffs with redacted changes, changes by mapped value or that are truncated
+ * cannot be applied.
+ *
+ * @author Jeevan Prakash (jeevanprakash1998@gmail.com)
+ */
+public class ProtoPatcher {
+
+	private final List<FieldChange> changes;
+	private final Descriptor descriptor;
+
+	private ProtoPatcher(List<FieldChange> changes, Descriptor descriptor) {
+		this.changes = changes;
+		this.descriptor = descriptor;
+	}
+
+	/**
+	 * Apply a diff to a message.
+	 *
+	 * @param base - The message the diff is taken from.
+	 * @param diff - The diff to apply.
+	 * @return The patched message.
+	 * @throws IllegalArgumentException      if the diff cannot be applied to the
+	 *                                       message, e.g., if an old value does
+	 *                                       not match.
+	 * @throws UnsupportedOperationException if the diff has changes within
+	 *                                       elements of a repeated message field
+	 *                                       matched by value.
+	 */
+	public static <T extends Message> T apply(T base, MessageDiff diff) {
+		Builder builder = base.toBuilder();
+		apply(builder, diff);
+		@SuppressWarnings("unchecked")
+		T patched = (T) builder.build();
+		return patched;
+	}
+
+	/**
+	 * Apply a diff to a message builder in place. The builder is left partially
+	 * patched if the diff cannot be applied.
+	 *
+	 * @param base - Builder of the message the diff is taken from.
+	 * @param diff - The diff to apply.
+	 * @throws IllegalArgumentException      if the diff cannot be applied to the
+	 *                                       message, e.g., if an old value does
+	 *                                       not match.
+	 * @throws UnsupportedOperationException if the diff has changes within
+	 *                                       elements of a repeated message field
+	 *                                       matched by value.
+	 */
+	public static void apply(Builder base, MessageDiff diff) {
+		Descriptor descriptor = base.getDescriptorForType();
+		if (!diff.getTruncation().isEmpty()) {
+			throw new IllegalArgumentException("Truncated diff cannot be applied: " + diff.getTruncation());
+		}
+		if (diff.getChangesCount() == 0) {
+			return;
+		}
+		if (!diff.getMessageType().equals(descriptor.getFullName())) {
+			throw new IllegalArgumentException(
+					"Diff of " + diff.getMessageType() + " cannot be applied to " + descriptor.getFullName());
+		}
+		for (FieldChange change : diff.getChangesList()) {
+			if (change.getFieldNumbersCount() == 0) {
+				throw new IllegalArgumentException("Change has no field");
+			} else if (change.getRedacted() || change.getMapped()) {
+				throw new IllegalArgumentException("Change of " + (change.getRedacted() ? "redacted" : "mapped")
+						+ " value cannot be applied: " + DiffReader.getPath(change, descriptor));
+			}
+		}
+		new ProtoPatcher(diff.getChangesList(), descriptor).apply(base, 0, diff.getChangesCount(), 0);
+	}
+
+	/**
+	 * Apply the changes in a range to a message, where the path of the changes up
+	 * to the given depth is the path of the message.
+	 */
+	private void apply(Builder builder, int from, int to, int depth) {
+		Map<FieldDescriptor, Elements> elementsByField = new HashMap<>();
+		int i = from;
+		while (i < to) {
+			FieldChange change = changes.get(i);
+			FieldDescriptor field = findField(builder.getDescriptorForType(), change.getFieldNumbers(depth));
+			// The changes within the same message or element are next to each other
+			int end = i + 1;
+			while (end < to && isWithinSameMessage(changes.get(end), change, depth)) {
+				end++;
+			}
+			if (field.isRepeated()) {
+				Elements elements = elementsByField.get(field);
+				if (elements == null) {
+					elements = new Elements(builder, field);
+					elementsByField.put(field, elements);
+				}
+				applyToElement(elements, i, end, depth);
+			} else if (depth < change.getFieldNumbersCount() - 1) {
+				applyToMessage(builder, field, i, end, depth);
+			} else {
+				applyToValue(builder, field, change);
+			}
+			i = end;
+		}
+		for (Elements elements : elementsByField.values()) {
+			elements.finish();
+		}
+	}
+
+	private void applyToMessage(Builder builder, FieldDescriptor field, int from, int to, int depth) {
+		FieldChange change = changes.get(from);
+		Kind kind = getPathKind(change, depth);
+		Builder fieldBuilder;
+		if (kind == Kind.CREATED) {
+			if (builder.hasField(field)) {
+				throw stale(change, field.getName() + " is already set");
+			}
+			fieldBuilder = builder.newBuilderForField(field);
+		} else {
+			if (!builder.hasField(field)) {
+				throw stale(change, field.getName() + " is not set");
+			}
+			fieldBuilder = ((Message) builder.getField(field)).toBuilder();
+		}
+		apply(fieldBuilder, from, to, depth + 1);
+		if (kind == Kind.DELETED) {
+			builder.clearField(field);
+		} else {
+			builder.setField(field, fieldBuilder.build());
+		}
+	}
+
+	private void applyToValue(Builder builder, FieldDescriptor field, FieldChange change) {
+		switch (change.getKind()) {
+		case CREATED:
+			if (builder.hasField(field)) {
+				throw stale(change, "value is already set");
+			}
+			builder.setField(field, getNewValue(builder, field, change));
+			break;
+		case DELETED:
+			checkOldValue(builder.hasField(field) ? builder.getField(field) : null, field, change);
+			builder.clearField(field);
+			break;
+		default:
+			checkOldValue(builder.hasField(field) ? builder.getField(field) : null, field, change);
+			builder.setField(field, getNewValue(builder, field, change));
+			break;
+		}
+	}
+
+	private void applyToElement(Elements elements, int from, int to, int depth) {
+		FieldChange change = changes.get(from);
+		FieldDescriptor field = elements.field;
+		boolean isValue = depth == change.getFieldNumbersCount() - 1;
+		Kind kind = isValue ? change.getKind() : getPathKind(change, depth);
+		ElementKey key = getElementKey(change, depth);
+		// Index of the element in the base message, or in the patched message if
+		// it is created, -1 to add it at the end
+		int index;
+		if (key == null) {
+			ElementPosition position = getElementPosition(change, depth);
+			if (position != null) {
+				index = kind == Kind.CREATED ? position.getNewIndex() : position.getOldIndex();
+			} else {
+				index = change.getIndexes(depth);
+			}
+			// Elements compared by index are only created at the end
+			if (kind == Kind.CREATED ? position == null && index != elements.size() + elements.inserted.size()
+					: !elements.isPresent(index)) {
+				throw stale(change, field.getName() + " has no element at " + index);
+			}
+		} else if (key.getFieldNumber() == 0) {
+			if (!isValue || field.getJavaType() == JavaType.MESSAGE) {
+				throw new UnsupportedOperationException(
+						"Elements of repeated message field " + field.getFullName() + " are not ordered by a field");
+			}
+			index = kind == Kind.CREATED ? -1 : elements.indexOf(getOldValue(field, change));
+			if (kind != Kind.CREATED && index < 0) {
+				throw stale(change, field.getName() + " has no element " + getOldValue(field, change));
+			}
+		} else {
+			Object keyValue = getKeyValue(field, key);
+			index = elements.indexOfKey(key.getFieldNumber(), keyValue);
+			if (kind == Kind.CREATED ? index >= 0 : index < 0) {
+				throw stale(change, field.getName() + (index >= 0 ? " already has" : " has no") + " element with "
+						+ field.getMessageType().findFieldByNumber(key.getFieldNumber()).getName() + " " + keyValue);
+			}
+		}
+
+		Builder builder = elements.builder;
+		Object element;
+		if (kind == Kind.CREATED) {
+			if (isValue) {
+				element = getNewValue(builder, field, change);
+			} else {
+				Builder elementBuilder = builder.newBuilderForField(field);
+				apply(elementBuilder, from, to, depth + 1);
+				element = elementBuilder.build();
+			}
+			elements.insert(index, element, change);
+			return;
+		}
+		element = builder.getRepeatedField(field, index);
+		if (isValue) {
+			checkOldValue(element, field, change);
+		} else {
+			Builder elementBuilder = ((Message) element).toBuilder();
+			apply(elementBuilder, from, to, depth + 1);
+			element = elementBuilder.build();
+		}
+		if (kind == Kind.DELETED) {
+			elements.delete(index);
+		} else {
+			elements.set(index, isValue ? getNewValue(builder, field, change) : element);
+		}
+	}
+
+	/**
+	 * Check if a change is within the same message or element as another change,
+	 * where the path of both the changes is the same up to the given depth.
+	 */
+	private static boolean isWithinSameMessage(FieldChange change, FieldChange other, int depth) {
+		return depth < change.getFieldNumbersCount() - 1 && depth < other.getFieldNumbersCount() - 1
+				&& change.getFieldNumbers(depth) == other.getFieldNumbers(depth)
+				&& getIndex(change, depth) == getIndex(other, depth)
+				&& Objects.equals(getElementKey(change, depth), getElementKey(other, depth));
+	}
+
+	private static int getIndex(FieldChange change, int position) {
+		return position < change.getIndexesCount() ? change.getIndexes(position) : -1;
+	}
+
+	private static Kind getPathKind(FieldChange change, int position) {
+		return position < change.getPathKindsCount() ? change.getPathKinds(position) : Kind.UPDATED;
+	}
+
+	private static ElementKey getElementKey(FieldChange change, int position) {
+		for (ElementKey key : change.getElementKeysList()) {
+			if (key.getPosition() == position) {
+				return key;
+			}
+		}
+		return null;
+	}
+
+	private static ElementPosition getElementPosition(FieldChange change, int position) {
+		for (ElementPosition elementPosition : change.getElementPositionsList()) {
+			if (elementPosition.getPosition() == position) {
+				return elementPosition;
+			}
+		}
+		return null;
+	}
+
+	private void checkOldValue(Object value, FieldDescriptor field, FieldChange change) {
+		if (field.getJavaType() == JavaType.MESSAGE) {
+			// Messages without any compared value have no value in the diff
+			if (value == null) {
+				throw stale(change, field.getName() + " is not set");
+			}
+			return;
+		}
+		Object oldValue = getOldValue(field, change);
+		if (!isEqual(value, oldValue)) {
+			throw stale(change, "expected " + oldValue + " but found " + value);
+		}
+	}
+
+	private static Object getOldValue(FieldDescriptor field, FieldChange change) {
+		return decode(field, change.getOldValue());
+	}
+
+	private static Object getNewValue(Builder builder, FieldDescriptor field, FieldChange change) {
+		if (field.getJavaType() == JavaType.MESSAGE) {
+			return builder.newBuilderForField(field).build();
+		}
+		return decode(field, change.getNewValue());
+	}
+
+	/**
+	 * Get the value of the field the elements of a repeated field are ordered by,
+	 * null if it is not set.
+	 */
+	private static Object getKeyValue(FieldDescriptor field, ElementKey key) {
+		if (key.getValue().isEmpty()) {
+			return null;
+		}
+		return normalize(decode(findField(field.getMessageType(), key.getFieldNumber()), key.getValue()));
+	}
+
+	private static Object decode(FieldDescriptor field, ByteString value) {
+		try {
+			return DiffReader.decodeValue(field, value);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Invalid value of " + field.getFullName(), e);
+		}
+	}
+
+	private static boolean isEqual(Object v1, Object v2) {
+		return Objects.equals(normalize(v1), normalize(v2));
+	}
+
+	/**
+	 * Get a value that is equal to the same value decoded from a diff, i.e., the
+	 * number for enum values, which may be unknown to the enum type.
+	 */
+	private static Object normalize(Object value) {
+		return value instanceof EnumValueDescriptor ? (Object) ((EnumValueDescriptor) value).getNumber() : value;
+	}
+
+	private IllegalArgumentException stale(FieldChange change, String reason) {
+		return new IllegalArgumentException(
+				"Diff does not apply at " + DiffReader.getPath(change, descriptor) + ": " + reason);
+	}
+
+	private static FieldDescriptor findField(Descriptor descriptor, int number) {
+		FieldDescriptor field = descriptor.findFieldByNumber(number);
+		if (field == null) {
+			throw new IllegalArgumentException("Field " + number + " not found in " + descriptor.getFullName());
+		}
+		return field;
+	}
+
+	/**
+	 * Elements of a repeated field of a builder. Deleted and created elements are
+	 * removed and inserted after all the changes to the field are applied, so that
+	 * the indexes stay the same as in the base message.
+	 */
+	private final class Elements {
+
+		private final Builder builder;
+		private final FieldDescriptor field;
+		// Elements deleted, or set by the changes
+		private final BitSet deleted = new BitSet();
+		private final BitSet changed = new BitSet();
+		// Created elements with their index in the patched message, -1 to add them at
+		// the end, and their changes
+		private final List<Object[]> inserted = new ArrayList<>();
+		// Index of the elements by the value of the field they are ordered by
+		private FieldDescriptor keyField;
+		private Map<Object, Integer> indexByKey;
+		// Indexes of the elements by their value, in order
+		private Map<Object, Deque<Integer>> indexesByValue;
+
+		private Elements(Builder builder, FieldDescriptor field) {
+			this.builder = builder;
+			this.field = field;
+		}
+
+		private int size() {
+			return builder.getRepeatedFieldCount(field);
+		}
+
+		private boolean isPresent(int index) {
+			return index >= 0 && index < size() && !deleted.get(index);
+		}
+
+		/**
+		 * Get the index of the first element equal to a value that is not changed.
+		 */
+		private int indexOf(Object value) {
+			if (indexesByValue == null) {
+				indexesByValue = new HashMap<>(size() * 2);
+				for (int i = 0; i < size(); i++) {
+					indexesByValue.computeIfAbsent(normalize(builder.getRepeatedField(field, i)), k -> new ArrayDeque<>())
+							.add(i);
+				}
+			}
+			Deque<Integer> indexes = indexesByValue.get(normalize(value));
+			if (indexes == null) {
+				return -1;
+			}
+			// Elements deleted or set by earlier changes stay so, and are dropped as found
+			while (!indexes.isEmpty() && (deleted.get(indexes.peek()) || changed.get(indexes.peek()))) {
+				indexes.poll();
+			}
+			return indexes.isEmpty() ? -1 : indexes.peek();
+		}
+
+		private int indexOfKey(int keyFieldNumber, Object key) {
+			if (indexByKey == null) {
+				keyField = findField(field.getMessageType(), keyFieldNumber);
+				indexByKey = new HashMap<>(size() * 2);
+				for (int i = 0; i < size(); i++) {
+					indexByKey.put(getKey((Message) builder.getRepeatedField(field, i)), i);
+				}
+			}
+			Integer index = indexByKey.get(key);
+			return index != null && !deleted.get(index) ? index : -1;
+		}
+
+		private Object getKey(Message element) {
+			return element.hasField(keyField) ? normalize(element.getField(keyField)) : null;
+		}
+
+		private void insert(int index, Object element, FieldChange change) {
+			inserted.add(new Object[] { index, element, change });
+		}
+
+		private void set(int index, Object element) {
+			changed.set(index);
+			builder.setRepeatedField(field, index, element);
+		}
+
+		private void delete(int index) {
+			deleted.set(index);
+		}
+
+		/**
+		 * Remove the deleted elements and insert the created ones.
+		 */
+		private void finish() {
+			if (deleted.isEmpty() && inserted.isEmpty()) {
+				return;
+			}
+			int size = size();
+			List<Object> elements = new ArrayList<>(size + inserted.size());
+			int next = 0;
+			// Created elements are in the order of their indexes in the patched message
+			for (Object[] insert : inserted) {
+				int index = (Integer) insert[0];
+				for (; next < size && (index < 0 || elements.size() < index); next++) {
+					if (!deleted.get(next)) {
+						elements.add(builder.getRepeatedField(field, next));
+					}
+				}
+				if (index >= 0 && index != elements.size()) {
+					throw stale((FieldChange) insert[2],
+							"cannot insert element of " + field.getName() + " at " + index);
+				}
+				elements.add(insert[1]);
+			}
+			for (; next < size; next++) {
+				if (!deleted.get(next)) {
+					elements.add(builder.getRepeatedField(field, next));
+				}
+			}
+			builder.clearField(field);
+			for (Object element : elements) {
+				builder.addRepeatedField(field, element);
+			}
+		}
+
+	}
+
+}
@@ -14,10 +14,6 @@ public class Internal {
 
 	protected static class UtilAdapter extends Util {
 
-		protected static String getFieldName(String fieldFullName) {
-			return Util.getFieldName(fieldFullName);
-		}
-
 		protected static List<FieldDescriptor> getAllFields(Builder alphaBuilder, Builder betaBuilder) {
 			return Util.getAllFields(alphaBuilder, betaBuilder);
 		}
@@ -1,5 +1,6 @@
 package com.jash.protokit.simplifier;
 
+import java.util.List;
 import java.util.Objects;
 
 import com.google.protobuf.Descriptors.FieldDescriptor;
@@ -7,6 +8,7 @@ import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.UnknownFieldSet;
+import com.jash.protokit.internal.PathTrie;
 import com.jash.protokit.simplifier.Internal.UtilAdapter;
 
 /**
@@ -40,13 +42,18 @@ public class ProtoSimplifier {
 		if (options == null) {
 			options = SimplifyOptions.DUMMY_OPTIONS;
 		}
+		return simplifyMessage(message, options, options.getDropRules(message.getDescriptorForType()));
+	}
+
+	private static <E extends Message> E simplifyMessage(E message, SimplifyOptions options,
+			PathTrie.State<Boolean> rules) {
 		E.Builder builder = message.toBuilder();
 		if (!builder.getUnknownFields().asMap().isEmpty()) {
 			builder.setUnknownFields(UnknownFieldSet.getDefaultInstance());
 		}
 		Object value = null;
 		for (FieldDescriptor field : UtilAdapter.getAllFields(builder, null)) {
-			if (options.canDropField(field.getFullName())) {
+			if (options.canDropField(rules, field)) {
 				builder.clearField(field);
 				continue;
 			}
@@ -54,30 +61,31 @@ public class ProtoSimplifier {
 			if (value == null) {
 				continue;
 			}
-			simplifyField(builder, field, value, options);
+			simplifyField(builder, field, value, options, rules.next(field));
 		}
 		E simplifiedMsg = (E) builder.build();
 		return simplifiedMsg;
 	}
 
 	private static void simplifyField(Builder builder, FieldDescriptor field, Object value,
-			SimplifyOptions options) {
+			SimplifyOptions options, PathTrie.State<Boolean> rules) {
 		if (field.isRepeated()) {
-			simplifyRepeatedField(builder, field, options);
+			simplifyRepeatedField(builder, field, (List<?>) value, options, rules);
 		} else {
-			simplifySingleField(builder, field, value, options);
+			simplifySingleField(builder, field, value, options, rules);
 		}
 	}
 
-	private static void simplifyRepeatedField(Builder builder, FieldDescriptor field, SimplifyOptions options) {
+	private static void simplifyRepeatedField(Builder builder, FieldDescriptor field, List<?> elements,
+			SimplifyOptions options, PathTrie.State<Boolean> rules) {
 		if (field.getJavaType() != JavaType.MESSAGE) {
 			return;
 		}
 		Message msg = null;
 		Message simplifiedMsg = null;
-		for (int i = 0; i < builder.getRepeatedFieldCount(field); i++) {
-			msg = (Message) builder.getRepeatedField(field, i);
-			simplifiedMsg = simplifyMessage(msg, options);
+		for (int i = 0; i < elements.size(); i++) {
+			msg = (Message) elements.get(i);
+			simplifiedMsg = simplifyMessage(msg, options, rules);
 			if (Objects.equals(simplifiedMsg, msg.getDefaultInstanceForType())) {
 				builder.setRepeatedField(field, i, msg.getDefaultInstanceForType());
 			} else {
@@ -87,13 +95,13 @@ public class ProtoSimplifier {
 	}
 
 	private static void simplifySingleField(Builder builder, FieldDescriptor field, Object value,
-			SimplifyOptions options) {
+			SimplifyOptions options, PathTrie.State<Boolean> rules) {
 		if (field.getJavaType() == JavaType.MESSAGE) {
 			Message msg = (Message) value;
 			if (Objects.equals(msg, msg.getDefaultInstanceForType())) {
 				builder.clearField(field);
 			}
-			Message simplifiedMsg = simplifyMessage(msg, options);
+			Message simplifiedMsg = simplifyMessage(msg, options, rules);
 			if (Objects.equals(simplifiedMsg, msg.getDefaultInstanceForType())) {
 				builder.clearField(field);
 			} else {
@@ -3,7 +3,9 @@ package com.jash.protokit.simplifier;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.jash.protokit.simplifier.Internal.UtilAdapter;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.jash.protokit.internal.PathTrie;
 
 /**
  * A class to hold options for simplifying a message.
@@ -16,13 +18,25 @@ public class SimplifyOptions {
 	protected static final SimplifyOptions DUMMY_OPTIONS = new SimplifyOptions(Builder.newBuilder());
 
 	private List<String> dropFields;
+	private PathTrie<Boolean> dropRules;
 
 	private SimplifyOptions(Builder builder) {
 		dropFields = builder.dropFields;
+		dropRules = new PathTrie<>();
+		for (String field : dropFields) {
+			dropRules.put(field, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Get the state of the drop rules at a simplified message.
+	 */
+	protected PathTrie.State<Boolean> getDropRules(Descriptor descriptor) {
+		return dropRules.start(descriptor);
 	}
 
-	protected boolean canDropField(String fieldFullName) {
-		return dropFields.contains(UtilAdapter.getFieldName(fieldFullName));
+	protected boolean canDropField(PathTrie.State<Boolean> rules, FieldDescriptor field) {
+		return rules.matches(field);
 	}
 
 	@Override
@@ -49,7 +63,10 @@ public class SimplifyOptions {
 		 * Add a field to drop from the message.
 		 * 
 		 * @param field - The field to be dropped. Field format should be like
-		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field"
+		 *              "EncasingMessage.fieldName". E.g.: "SampleMessage.field". Can
+		 *              also be a path from the simplified message with "*" for any
+		 *              field and "**" for any number of fields. E.g.:
+		 *              "Member.**.price"
 		 * @return The current instance of {@link Builder}.
 		 */
 		public Builder addFieldToDrop(String field) {
@@ -0,0 +1,92 @@
+package com.jash.protokit.cli;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Message;
+import com.jash.protokit.LibraryManagement;
+import com.jash.protokit.LibraryManagement.Member;
+
+public class ProtokitCliTest {
+
+	private static File createTempFile(String suffix) throws IOException {
+		File file = File.createTempFile("protokit", suffix);
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static File writeRecords(List<? extends Message> records) throws IOException {
+		File file = createTempFile(".bin");
+		try (OutputStream out = new FileOutputStream(file)) {
+			for (Message record : records) {
+				record.writeDelimitedTo(out);
+			}
+		}
+		return file;
+	}
+
+	private static File writeDescriptorSet() throws IOException {
+		FileDescriptorSet.Builder descriptorSet = FileDescriptorSet.newBuilder();
+		for (FileDescriptor dependency : LibraryManagement.getDescriptor().getDependencies()) {
+			descriptorSet.addFile(dependency.toProto());
+		}
+		descriptorSet.addFile(LibraryManagement.getDescriptor().toProto());
+		File file = createTempFile(".desc");
+		try (OutputStream out = new FileOutputStream(file)) {
+			descriptorSet.build().writeTo(out);
+		}
+		return file;
+	}
+
+	private static Member member(int memberId, String firstName) {
+		return Member.newBuilder().setMemberId(memberId).setFirstName(firstName).build();
+	}
+
+	@Test
+	public void testRun() throws IOException {
+		File descriptorSet = writeDescriptorSet();
+		File first = writeRecords(Arrays.asList(member(1, "A"), member(2, "B"), member(3, "C")));
+		File second = writeRecords(Arrays.asList(member(1, "A"), member(2, "D"), member(3, "C"),
+				member(4, "E")));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int status = ProtokitCli.run(new String[] { descriptorSet.getPath(), "Member", first.getPath(),
+				second.getPath() }, new PrintStream(out, true), new PrintStream(err, true));
+		assertEquals(status, 1);
+		assertEquals(out.toString(), "  record 1:\n"
+				+ "  Member: {\n"
+				+ "    firstName: B => D\n"
+				+ "  }\n"
+				+ "+ record 3\n");
+		assertTrue(err.toString().startsWith("records: 4, added: 1, removed: 0, changed: 1, unchanged: 2\ntime: "),
+				err.toString());
+
+		out.reset();
+		err.reset();
+		status = ProtokitCli.run(new String[] { "--exclude", "Member.firstName", descriptorSet.getPath(), "Member",
+				first.getPath(), first.getPath() }, new PrintStream(out, true), new PrintStream(err, true));
+		assertEquals(status, 0);
+		assertEquals(out.toString(), "");
+
+		status = ProtokitCli.run(new String[] { descriptorSet.getPath(), "Unknown", first.getPath(),
+				second.getPath() }, new PrintStream(out, true), new PrintStream(err, true));
+		assertEquals(status, 2);
+		assertTrue(err.toString().contains("Message type Unknown not found in the descriptor set"));
+		assertEquals(ProtokitCli.run(new String[] { "Member" }, new PrintStream(out, true),
+				new PrintStream(err, true)), 2);
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.jash.protokit.codegen;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+import com.jash.protokit.LibraryManagement;
+import com.jash.protokit.LibraryManagement.Address;
+import com.jash.protokit.LibraryManagement.Book;
+import com.jash.protokit.LibraryManagement.BookStatus;
+import com.jash.protokit.LibraryManagement.Member;
+import com.jash.protokit.LibraryManagement.MemberPlan;
+import com.jash.protokit.comparer.CompareOptions;
+import com.jash.protokit.comparer.MessageComparator;
+import com.jash.protokit.comparer.ProtoComparer;
+
+public class ComparatorGeneratorTest {
+
+	private Map<String, MessageComparator<Message>> comparators;
+
+	/**
+	 * Generate the comparators of the test messages and compile them.
+	 */
+	@BeforeClass
+	@SuppressWarnings("unchecked")
+	public void generateComparators() throws IOException, ReflectiveOperationException, URISyntaxException {
+		CodeGeneratorRequest request = CodeGeneratorRequest.newBuilder()
+				.addFileToGenerate(LibraryManagement.getDescriptor().getName())
+				.addProtoFile(LibraryManagement.getDescriptor().toProto()).build();
+		CodeGeneratorResponse response = ComparatorGenerator.generate(request);
+		assertFalse(response.hasError(), response.getError());
+		File dir = Files.createTempDirectory("comparators").toFile();
+		List<String> args = new ArrayList<>(Arrays.asList("-d", dir.getPath(), "-classpath",
+				getLocation(Message.class) + File.pathSeparator + getLocation(MessageComparator.class)
+						+ File.pathSeparator + getLocation(Member.class)));
+		List<String> names = new ArrayList<>();
+		for (CodeGeneratorResponse.File file : response.getFileList()) {
+			File source = new File(dir, file.getName());
+			source.getParentFile().mkdirs();
+			Files.write(source.toPath(), file.getContent().getBytes(StandardCharsets.UTF_8));
+			args.add(source.getPath());
+			names.add(file.getName());
+		}
+		assertEquals(names, Arrays.asList("com/jash/protokit/AddressComparator.java",
+				"com/jash/protokit/AddressOldComparator.java", "com/jash/protokit/BookComparator.java",
+				"com/jash/protokit/MemberComparator.java"));
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assertEquals(compiler.run(null, null, null, args.toArray(new String[0])), 0);
+		comparators = new HashMap<>();
+		URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader());
+		for (String name : Arrays.asList("Address", "Book", "Member")) {
+			Class<?> comparatorClass = loader.loadClass("com.jash.protokit." + name + "Comparator");
+			comparators.put(name, (MessageComparator<Message>) comparatorClass.getField("INSTANCE").get(null));
+		}
+	}
+
+	private static String getLocation(Class<?> type) throws URISyntaxException {
+		return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+	}
+
+	private static Member getMember() {
+		Address address = Address.newBuilder().setStreet("Street").setPostalCode("12345").build();
+		Book book = Book.newBuilder().setBookId(1).setName("Book").setPrice(10).setStatus(BookStatus.BORROWED)
+				.build();
+		return Member.newBuilder().setMemberId(1).setFirstName("First").setAddress(address)
+				.addPhoneNumbers("1234567890").addBorrowHistory(book).setPlan(MemberPlan.GOLD)
+				.putAttributes("color", "red").putReservations(1, book).addFines(1.5).addFines(-0.0).build();
+	}
+
+	@DataProvider
+	public Object[][] getMessages() {
+		Member member = getMember();
+		Book book = member.getBorrowHistory(0);
+		return new Object[][] { { member, member.toBuilder().setFirstName("Second").clearAddress().build() },
+				{ member, member.toBuilder().setPlanValue(7).setFines(1, 0.0).build() },
+				{ member, member.toBuilder().addBorrowHistory(book.toBuilder().setBookId(2).setStatusValue(9))
+						.putAttributes("size", "small").setMemberId(0).build() },
+				{ Member.getDefaultInstance(), member } };
+	}
+
+	@Test(dataProvider = "getMessages")
+	public void testGeneratedValues(Member m1, Member m2) {
+		for (Message message : Arrays.<Message>asList(m1, m2, m2.getAddress(), m2.getBorrowHistory(0),
+				m2.toBuilder().setBorrowHistory(0, m2.getBorrowHistory(0).toBuilder().setStatusValue(9)).build())) {
+			MessageComparator<Message> comparator = comparators.get(message.getDescriptorForType().getName());
+			assertNotNull(comparator);
+			for (FieldDescriptor field : message.getDescriptorForType().getFields()) {
+				Object expected = field.isRepeated() || message.hasField(field) ? message.getField(field) : null;
+				assertEquals(comparator.getValue(message, field), expected, field.getFullName());
+			}
+		}
+	}
+
+	@Test(dataProvider = "getMessages")
+	public void testReportWithComparators(Member m1, Member m2) throws InvalidProtocolBufferException {
+		CompareOptions.Builder builder = CompareOptions.Builder.newBuilder()
+				.setMessageKeyField(Book.class, "Book.bookId")
+				.setFieldToOrderRepeatedMsg("Member.borrowHistory", "bookId");
+		String report = ProtoComparer.compare(m1, m2, builder.build());
+		assertFalse(report.isEmpty());
+		for (MessageComparator<Message> comparator : comparators.values()) {
+			builder.addMessageComparator(comparator);
+		}
+		CompareOptions options = builder.build();
+		assertEquals(ProtoComparer.compare(m1, m2, options), report);
+		Message dynamic1 = DynamicMessage.parseFrom(Member.getDescriptor(), m1.toByteString());
+		Message dynamic2 = DynamicMessage.parseFrom(Member.getDescriptor(), m2.toByteString());
+		assertEquals(ProtoComparer.compare(dynamic1, dynamic2, options), report);
+		assertTrue(ProtoComparer.isEquivalent(m2, m2.toBuilder().build(), options));
+	}
+
+}
@@ -1,12 +1,32 @@
 package com.jash.protokit.comparer;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -18,12 +38,32 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.UInt32Value;
+import com.google.protobuf.UInt64Value;
+import com.jash.protokit.LibraryManagement;
 import com.jash.protokit.LibraryManagement.Address;
 import com.jash.protokit.LibraryManagement.Book;
 import com.jash.protokit.LibraryManagement.BookStatus;
 import com.jash.protokit.LibraryManagement.Member;
+import com.jash.protokit.LibraryManagement.MemberPlan;
+import com.jash.protokit.comparer.DiffFormat.FieldChange;
+import com.jash.protokit.comparer.DiffFormat.MessageDiff;
+import com.jash.protokit.comparer.DiffNode.ChangeKind;
+import com.jash.protokit.comparer.DiffNode.Type;
+import com.jash.protokit.comparer.ProtoMapper.BulkMapperFunction;
 import com.jash.protokit.comparer.ProtoMapper.MapperFunction;
+import com.jash.protokit.internal.FieldAccessors;
 
 public class ProtoComparerTest {
 
@@ -242,4 +282,1096 @@ public class ProtoComparerTest {
 		assertEquals(report, expectedReport);
 	}
 
+	@Test(dataProvider = "dataProvider")
+	public void testComparerWithWriter(Message message1, Message message2, CompareOptions options,
+			String expectedReport) throws IOException {
+		StringWriter writer = new StringWriter();
+		ProtoComparer.compare(message1, message2, options, writer);
+		assertEquals(writer.toString(), expectedReport);
+	}
+
+	@Test(dataProvider = "dataProvider")
+	public void testComparerWithBytes(Message message1, Message message2, CompareOptions options,
+			String expectedReport) throws InvalidProtocolBufferException {
+		String report = ProtoComparer.compare(message1.toByteString(), message2.toByteString(),
+				message1.getDescriptorForType(), options);
+		assertEquals(report, expectedReport);
+	}
+
+	@Test(dataProvider = "dataProvider")
+	public void testIsEquivalent(Message message1, Message message2, CompareOptions options, String expectedReport) {
+		assertEquals(ProtoComparer.isEquivalent(message1, message2, options), expectedReport.isEmpty());
+	}
+
+	@Test
+	public void testIsEquivalentWithOptions() {
+		Book book1 = Book.newBuilder().setBookId(1).setAuthor("Author name 1").setStatus(BookStatus.BORROWED).build();
+		Book book2 = Book.newBuilder().setBookId(1).setAuthor("Author name 2").build();
+		Member message1 = Member.newBuilder().addBorrowHistory(book1).build();
+		Member message2 = Member.newBuilder().addBorrowHistory(book2).build();
+		MapperFunction authorMapper = (value, firstObj) -> ((String) value).split(" ")[0];
+		ProtoMapper mapper = ProtoMapper.Builder.newBuilder().setMapper("Book.author", authorMapper)
+				.setUseMappedValue(true).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().addExcludeField("Book.status")
+				.setProtoMapper(mapper).build();
+		assertTrue(ProtoComparer.isEquivalent(message1, message2, options));
+		assertEquals(ProtoComparer.compare(message1, message2, options), "");
+		assertFalse(ProtoComparer.isEquivalent(message1, message2));
+	}
+
+	@Test
+	public void testProtoMapperCacheAndBulkMapper() {
+		Member.Builder builder1 = Member.newBuilder();
+		Member.Builder builder2 = Member.newBuilder();
+		for (int i = 0; i < 3; i++) {
+			builder1.addBorrowHistory(Book.newBuilder().setBookId(i).setAuthor("Author name " + i));
+			builder2.addBorrowHistory(Book.newBuilder().setBookId(i).setAuthor("Author name " + (i + 1)));
+		}
+		Member message1 = builder1.build();
+		Member message2 = builder2.build();
+		List<Object> calls = new ArrayList<>();
+		MapperFunction authorMapper = (value, firstObj) -> {
+			calls.add(value);
+			return ((String) value).split(" ")[2] + (firstObj ? " First" : " Second");
+		};
+		ProtoMapper mapper = ProtoMapper.Builder.newBuilder().setMapper("Book.author", authorMapper).setCacheSize(10)
+				.build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setProtoMapper(mapper).build();
+		String report = ProtoComparer.compare(message1, message2, options);
+		assertEquals(calls.size(), 6);
+		assertEquals(ProtoComparer.compare(message1, message2, options), report);
+		assertEquals(calls.size(), 6);
+		// Least recently used values are evicted
+		ProtoMapper smallCache = ProtoMapper.Builder.newBuilder().setMapper("Book.author", authorMapper)
+				.setCacheSize(1).build();
+		ProtoComparer.compare(message1, message2,
+				CompareOptions.Builder.newBuilder().setProtoMapper(smallCache).build());
+		assertEquals(calls.size(), 12);
+
+		List<Collection<Object>> bulkCalls = new ArrayList<>();
+		BulkMapperFunction bulkMapper = (values, firstObj) -> {
+			bulkCalls.add(values);
+			Map<Object, Object> mappedValues = new HashMap<>();
+			for (Object value : values) {
+				mappedValues.put(value, authorMapper.map(value, firstObj));
+			}
+			return mappedValues;
+		};
+		ProtoMapper bulk = ProtoMapper.Builder.newBuilder().setBulkMapper("Book.author", bulkMapper).build();
+		assertEquals(ProtoComparer.compare(message1, message2,
+				CompareOptions.Builder.newBuilder().setProtoMapper(bulk).build()), report);
+		assertEquals(bulkCalls.size(), 2);
+		assertEquals(bulkCalls.get(0).size(), 3);
+		assertEquals(bulkCalls.get(1).size(), 3);
+	}
+
+	@Test
+	public void testComparerWithPackedPrimitiveFields() throws InvalidProtocolBufferException {
+		Member.Builder builder = Member.newBuilder().setMemberId(1);
+		for (int i = 0; i < 1000; i++) {
+			builder.addFines(i % 10 == 0 ? Double.NaN : i * 0.5);
+		}
+		Member message1 = builder.build();
+		Member message2 = builder.setFines(500, -1).addFines(7).build();
+		Message dynamic1 = DynamicMessage.parseFrom(Member.getDescriptor(), message1.toByteString());
+		Message dynamic2 = DynamicMessage.parseFrom(Member.getDescriptor(), message2.toByteString());
+		assertTrue(PrimitiveLists.isPrimitive(message1.getField(Member.getDescriptor().findFieldByName("fines"))));
+		DiffNode fines = ProtoComparer.diff(message1, message2).getChildren().get(0);
+		assertEquals(fines.getChildren().size(), 2);
+		assertEquals(fines.getChildren().get(0).getIndex(), 500);
+		assertEquals(fines.getChildren().get(0).getNewValue(), -1.0);
+		assertEquals(fines.getChildren().get(1).getKind(), ChangeKind.CREATED);
+		assertEquals(ProtoComparer.compare(message1, message2), ProtoComparer.compare(dynamic1, dynamic2));
+		assertTrue(ProtoComparer.isEquivalent(message1, Member.parseFrom(message1.toByteString())));
+		assertFalse(ProtoComparer.isEquivalent(message1, message2));
+		CompareOptions options = CompareOptions.Builder.newBuilder()
+				.setFieldToOrderRepeatedMsg("Member.fines", null).build();
+		Member reordered = Member.newBuilder(message1).clearFines()
+				.addAllFines(message1.getFinesList().subList(1, 1000)).addFines(message1.getFines(0)).build();
+		assertTrue(ProtoComparer.isEquivalent(message1, reordered, options));
+		assertEquals(ProtoComparer.compare(message1, message2, options),
+				ProtoComparer.compare(dynamic1, dynamic2, options));
+		assertEquals(ProtoComparer.compare(message1, message2, options),
+				"  Member: {\n    fines: [\n      fines: NaN => -1.0\n+     fines: 7.0\n    ]\n  }\n");
+	}
+
+	@Test
+	public void testFieldAccessorsMatchReflection() {
+		Book book = Book.newBuilder().setBookId(1).setStatusValue(9).build();
+		Member member = Member.newBuilder().setMemberId(1).setFirstName("First").setPlanValue(7)
+				.addBorrowHistory(book).putAttributes("color", "red").addFines(-0.0).addFines(Double.NaN).build();
+		for (MessageOrBuilder message : Arrays.<MessageOrBuilder>asList(member, member.toBuilder(), book,
+				Member.getDefaultInstance(), Member.newBuilder().setPlan(MemberPlan.GOLD).setAddress(
+						Address.getDefaultInstance()))) {
+			for (FieldDescriptor field : message.getDescriptorForType().getFields()) {
+				Object expected = field.isRepeated() || message.hasField(field) ? message.getField(field) : null;
+				assertEquals(FieldAccessors.getValue(message, field), expected, field.getFullName());
+				if (field.isRepeated()) {
+					assertEquals(FieldAccessors.getCount(message, field), message.getRepeatedFieldCount(field));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBaselineComparer() throws InvalidProtocolBufferException {
+		Member.Builder builder = Member.newBuilder().setMemberId(1).setFirstName("First");
+		for (int i = 0; i < 100; i++) {
+			builder.addBorrowHistory(Book.newBuilder().setBookId(i).setName("Book " + i));
+		}
+		Member version = builder.build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setMessageKeyField(Book.class, "Book.bookId")
+				.build();
+		BaselineComparer<Member> comparer = new BaselineComparer<>(null, options);
+		assertEquals(comparer.compare(version), ProtoComparer.compare(null, version, options));
+		for (int i = 0; i < 100; i++) {
+			Member next = version.toBuilder()
+					.setBorrowHistory(i, version.getBorrowHistory(i).toBuilder().setName("Book " + i + "-" + i))
+					.setBooksOnHold(i % 3).build();
+			assertEquals(comparer.compare(next), ProtoComparer.compare(version, next, options));
+			assertTrue(comparer.getBaseline() == next);
+			version = next;
+		}
+		assertEquals(comparer.compare(version), "");
+		assertEquals(comparer.compare(Member.parseFrom(version.toByteString())), "");
+		comparer.reset(Member.getDefaultInstance());
+		assertEquals(comparer.compare(version), ProtoComparer.compare(Member.getDefaultInstance(), version, options));
+		assertEquals(comparer.compare(null), ProtoComparer.compare(version, null, options));
+	}
+
+	@Test
+	public void testBaselineComparerWithParsedVersions() throws InvalidProtocolBufferException {
+		Member.Builder builder = Member.newBuilder().setMemberId(1).setFirstName("First");
+		for (int i = 0; i < 100; i++) {
+			builder.addBorrowHistory(Book.newBuilder().setBookId(i).setName("Book " + i));
+		}
+		Member version = builder.build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setMessageKeyField(Book.class, "Book.bookId")
+				.build();
+		BaselineComparer<Member> comparer = new BaselineComparer<>(version, options);
+		for (int i = 0; i < 10; i++) {
+			Member next = Member.parseFrom(version.toBuilder()
+					.setBorrowHistory(i, version.getBorrowHistory(i).toBuilder().setName("Book " + i + "-" + i))
+					.build().toByteString());
+			assertEquals(comparer.compare(next), ProtoComparer.compare(version, next, options));
+			version = next;
+		}
+		// The baseline is not walked again, but a parsed version is walked in full
+		FingerprintCache fingerprints = new FingerprintCache();
+		fingerprints.of(version);
+		assertEquals(fingerprints.getComputedCount(), 101);
+		fingerprints = fingerprints.advance();
+		Member shared = version.toBuilder()
+				.setBorrowHistory(5, version.getBorrowHistory(5).toBuilder().setName("Book 5")).build();
+		fingerprints.of(shared);
+		assertEquals(fingerprints.getComputedCount(), 2);
+		fingerprints = fingerprints.advance();
+		Member parsed = Member.parseFrom(shared.toBuilder()
+				.setBorrowHistory(5, shared.getBorrowHistory(5).toBuilder().setName("Book 5-5")).build()
+				.toByteString());
+		fingerprints.of(parsed);
+		fingerprints.of(shared);
+		assertEquals(fingerprints.getComputedCount(), 101);
+	}
+
+	@Test
+	public void testComparerWithMapFields() throws InvalidProtocolBufferException {
+		Book book = Book.newBuilder().setBookId(1).setName("Book name 1").build();
+		Member message1 = Member.newBuilder().setMemberId(1).putAttributes("color", "red")
+				.putAttributes("size", "small").putAttributes("shape", "round").putReservations(1, book)
+				.putReservations(2, book).build();
+		// Same entries in another order
+		Member.Builder reordered = Member.newBuilder().setMemberId(1);
+		for (Message entry : reversed(message1.getField(Member.getDescriptor().findFieldByName("attributes")))) {
+			reordered.addRepeatedField(Member.getDescriptor().findFieldByName("attributes"), entry);
+		}
+		reordered.putReservations(2, book).putReservations(1, book);
+		assertTrue(ProtoComparer.isEquivalent(message1, reordered.build()));
+		assertEquals(ProtoComparer.compare(message1, reordered.build()), "");
+		assertEquals(ProtoComparer.changedPaths(message1, reordered.build(), null).getPathsCount(), 0);
+		Member message2 = message1.toBuilder().removeAttributes("size").putAttributes("color", "blue")
+				.putAttributes("weight", "light").putReservations(2, book.toBuilder().setName("Book name 2").build())
+				.build();
+		assertFalse(ProtoComparer.isEquivalent(message1, message2));
+		assertEquals(ProtoComparer.compare(message1, message2),
+				"  Member: {\n"
+				+ "    attributes: [\n"
+				+ "      attributes (color): {\n"
+				+ "        value: red => blue\n"
+				+ "      }\n"
+				+ "-     attributes (size): {\n"
+				+ "-       key: size\n"
+				+ "-       value: small\n"
+				+ "-     }\n"
+				+ "+     attributes (weight): {\n"
+				+ "+       key: weight\n"
+				+ "+       value: light\n"
+				+ "+     }\n"
+				+ "    ]\n"
+				+ "    reservations: [\n"
+				+ "      reservations (2): {\n"
+				+ "        value: {\n"
+				+ "          name: Book name 1 => Book name 2\n"
+				+ "        }\n"
+				+ "      }\n"
+				+ "    ]\n"
+				+ "  }\n");
+		assertEquals(ProtoComparer.compare(message1.toByteString(), message2.toByteString(), Member.getDescriptor(),
+				null), ProtoComparer.compare(message1, message2));
+	}
+
+	private static List<Message> reversed(Object entries) {
+		@SuppressWarnings("unchecked")
+		List<Message> list = new ArrayList<>((List<Message>) entries);
+		Collections.reverse(list);
+		return list;
+	}
+
+	@Test
+	public void testDiffTree() {
+		Book book11 = Book.newBuilder().setBookId(1).setName("Book name 1").setAuthor("Author name 1").build();
+		Book book12 = Book.newBuilder().setBookId(1).setAuthor("Author name 2").build();
+		Member message1 = Member.newBuilder().setMemberId(1).addBorrowHistory(book11).build();
+		Member message2 = Member.newBuilder().setMemberId(1).addBorrowHistory(book12).addPhoneNumbers("1234567890")
+				.build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setMessageKeyField(Book.class, "Book.bookId")
+				.build();
+		DiffNode root = ProtoComparer.diff(message1, message2, options);
+		assertEquals(root.getName(), "Member");
+		assertEquals(root.getChildren().size(), 2);
+
+		DiffNode phoneNumbers = root.getChildren().get(0);
+		assertEquals(phoneNumbers.getType(), Type.REPEATED);
+		assertEquals(phoneNumbers.getChildren().get(0).getKind(), ChangeKind.CREATED);
+		assertEquals(phoneNumbers.getChildren().get(0).getNewValue(), "1234567890");
+
+		DiffNode book = root.getChildren().get(1).getChildren().get(0);
+		assertEquals(book.getType(), Type.MESSAGE);
+		assertEquals(book.getKeyValue(), "1");
+		assertEquals(book.getPath(), "borrowHistory[0]");
+		DiffNode name = book.getChildren().get(0);
+		assertEquals(name.getPath(), "borrowHistory[0].name");
+		assertEquals(name.getKind(), ChangeKind.DELETED);
+		DiffNode author = book.getChildren().get(1);
+		assertEquals(author.getKind(), ChangeKind.UPDATED);
+		assertEquals(author.getOldValue(), "Author name 1");
+		assertEquals(author.getNewValue(), "Author name 2");
+		assertTrue(root.hasChanges());
+	}
+
+	@Test
+	public void testDiffTreeWithoutChanges() {
+		Book message1 = Book.newBuilder().setBookId(1).setStatus(BookStatus.BORROWED).build();
+		Book message2 = Book.newBuilder().setBookId(1).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().addExcludeField("Book.status").build();
+		DiffNode root = ProtoComparer.diff(message1, message2, options);
+		assertFalse(root.hasChanges());
+		assertTrue(root.getChildren().isEmpty());
+	}
+
+	@Test
+	public void testOrderRepeatedMsgOnLargeList() {
+		int n = 50000;
+		Member.Builder builder1 = Member.newBuilder();
+		Member.Builder builder2 = Member.newBuilder();
+		for (int i = 0; i < n; i++) {
+			builder1.addBorrowHistory(Book.newBuilder().setBookId(i).setName("Book name " + i));
+			int bookId = n - 1 - i;
+			String name = bookId == 10 ? "Changed name" : "Book name " + bookId;
+			builder2.addBorrowHistory(Book.newBuilder().setBookId(bookId).setName(name));
+		}
+		CompareOptions options = CompareOptions.Builder.newBuilder().setMessageKeyField(Book.class, "Book.bookId")
+				.setFieldToOrderRepeatedMsg("Member.borrowHistory", "Book.bookId").build();
+		String report = ProtoComparer.compare(builder1.build(), builder2.build(), options);
+		String expected = "  Member: {\n    borrowHistory: [\n      borrowHistory (10): {\n"
+				+ "        name: Book name 10 => Changed name\n      }\n    ]\n  }\n";
+		assertEquals(report, expected);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*Duplicate value: 1")
+	public void testOrderRepeatedMsgWithDuplicateKeys() {
+		Book book1 = Book.newBuilder().setBookId(1).setName("Book name 1").build();
+		Book book2 = Book.newBuilder().setBookId(1).setName("Book name 2").build();
+		Book book3 = Book.newBuilder().setBookId(2).setName("Book name 3").build();
+		Member message1 = Member.newBuilder().addBorrowHistory(book1).addBorrowHistory(book2).build();
+		Member message2 = Member.newBuilder().addBorrowHistory(book3).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder()
+				.setFieldToOrderRepeatedMsg("Member.borrowHistory", "Book.bookId").build();
+		ProtoComparer.compare(message1, message2, options);
+	}
+
+	@Test
+	public void testSequenceAlignment() {
+		Member message1 = Member.newBuilder().addPhoneNumbers("1234567890").addPhoneNumbers("0987654321")
+				.addPhoneNumbers("1111111111").build();
+		Member message2 = Member.newBuilder().addPhoneNumbers("9876543210").addPhoneNumbers("1234567890")
+				.addPhoneNumbers("2222222222").addPhoneNumbers("1111111111").build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setSequenceAlignment(true).build();
+		String expected = "  Member: {\n    phoneNumbers: [\n+     phoneNumbers: 9876543210\n"
+				+ "      phoneNumbers: 0987654321 => 2222222222\n    ]\n  }\n";
+		assertEquals(ProtoComparer.compare(message1, message2, options), expected);
+
+		// Falls back to positional comparison beyond the limits
+		options = CompareOptions.Builder.newBuilder().setSequenceAlignment(true).setSequenceAlignmentLimits(2, 10)
+				.build();
+		assertEquals(ProtoComparer.compare(message1, message2, options),
+				ProtoComparer.compare(message1, message2));
+	}
+
+	@Test
+	public void testSequenceAlignerFindsLongestCommonSubsequence() {
+		Random random = new Random(7);
+		for (int run = 0; run < 500; run++) {
+			List<Integer> l1 = new ArrayList<>();
+			List<Integer> l2 = new ArrayList<>();
+			for (int i = random.nextInt(30); i > 0; i--) {
+				l1.add(random.nextInt(4));
+			}
+			for (int i = random.nextInt(30); i > 0; i--) {
+				l2.add(random.nextInt(4));
+			}
+			List<?>[] aligned = SequenceAligner.align(l1, l2, Integer.MAX_VALUE);
+			assertEquals(aligned[0].size(), aligned[1].size());
+			int common = 0;
+			List<Object> first = new ArrayList<>();
+			List<Object> second = new ArrayList<>();
+			for (int i = 0; i < aligned[0].size(); i++) {
+				Object v1 = aligned[0].get(i);
+				Object v2 = aligned[1].get(i);
+				if (v1 != null && v1.equals(v2)) {
+					common++;
+				}
+				if (v1 != null) {
+					first.add(v1);
+				}
+				if (v2 != null) {
+					second.add(v2);
+				}
+			}
+			assertEquals(first, l1);
+			assertEquals(second, l2);
+			assertTrue(common >= lcsLength(l1, l2), "Alignment is not optimal for " + l1 + " - " + l2);
+		}
+	}
+
+	private static int lcsLength(List<Integer> l1, List<Integer> l2) {
+		int[][] lcs = new int[l1.size() + 1][l2.size() + 1];
+		for (int i = 1; i <= l1.size(); i++) {
+			for (int j = 1; j <= l2.size(); j++) {
+				lcs[i][j] = l1.get(i - 1).equals(l2.get(j - 1)) ? lcs[i - 1][j - 1] + 1
+						: Math.max(lcs[i - 1][j], lcs[i][j - 1]);
+			}
+		}
+		return lcs[l1.size()][l2.size()];
+	}
+
+	@Test
+	public void testComparerInParallel() {
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Member.Builder builder1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setAddress(address);
+		Member.Builder builder2 = Member.newBuilder().setMemberId(1).setFirstName("First name 2")
+				.setAddress(address.toBuilder().setCity("City name 2"));
+		for (int i = 0; i < 3000; i++) {
+			Book book = Book.newBuilder().setBookId(i).setName("Book name " + i).setAuthor("Author " + i % 7).build();
+			builder1.addBorrowHistory(book);
+			if (i % 3 != 0) {
+				builder2.addBorrowHistory(book.toBuilder().setAuthor("Author " + i % 5));
+			} else {
+				builder2.addBorrowHistory(book);
+			}
+			builder1.addPhoneNumbers(String.valueOf(i));
+			builder2.addPhoneNumbers(String.valueOf(i % 11 == 0 ? -i : i));
+		}
+		Member message1 = builder1.build();
+		Member message2 = builder2.build();
+		CompareOptions sequentialOptions = CompareOptions.Builder.newBuilder()
+				.setMessageKeyField(Book.class, "Book.bookId").build();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			CompareOptions parallelOptions = CompareOptions.Builder.newBuilder()
+					.setMessageKeyField(Book.class, "Book.bookId").setParallelism(pool, 100).build();
+			String expectedReport = ProtoComparer.compare(message1, message2, sequentialOptions);
+			assertEquals(ProtoComparer.compare(message1, message2, parallelOptions), expectedReport);
+			assertEquals(ProtoComparer.compare(null, message2, parallelOptions),
+					ProtoComparer.compare(null, message2, sequentialOptions));
+			assertEquals(ProtoComparer.compare(message1, message1.toBuilder().setLastName("Last name").build(),
+					parallelOptions),
+					ProtoComparer.compare(message1, message1.toBuilder().setLastName("Last name").build(),
+							sequentialOptions));
+			// Few changes in a large field, compared in chunks but written sequentially
+			Member message3 = message1.toBuilder()
+					.setBorrowHistory(17, message1.getBorrowHistory(17).toBuilder().setName("Book name"))
+					.setBorrowHistory(2900, message1.getBorrowHistory(2900).toBuilder().setPrice(10)).build();
+			assertEquals(ProtoComparer.compare(message1, message3, parallelOptions),
+					ProtoComparer.compare(message1, message3, sequentialOptions));
+			assertTrue(ProtoComparer.isEquivalent(message1, message1.toBuilder().build(), parallelOptions));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(dataProvider = "dataProvider")
+	public void testComparerInParallelWithCommonPool(Message message1, Message message2, CompareOptions options,
+			String expectedReport) {
+		if (options == null) {
+			options = CompareOptions.Builder.newBuilder().setParallelism(ForkJoinPool.commonPool(), 1).build();
+			assertEquals(ProtoComparer.compare(message1, message2, options), expectedReport);
+		}
+	}
+
+	@Test
+	public void testCompareAll() {
+		List<Member> members1 = new ArrayList<>();
+		List<Member> members2 = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			Member member = Member.newBuilder().setMemberId(i).setFirstName("First name " + i)
+					.addBorrowHistory(Book.newBuilder().setBookId(i).setName("Book name " + i)).build();
+			if (i % 10 != 1) {
+				members1.add(member);
+			}
+			if (i % 10 == 2) {
+				continue;
+			}
+			members2.add(i % 10 == 3 ? member.toBuilder().setLastName("Last name " + i).build() : member);
+		}
+		List<String> events = new ArrayList<>();
+		CompareSink<Member> sink = new CompareSink<Member>() {
+
+			@Override
+			public void added(Object key, Member message) {
+				events.add("added " + key);
+			}
+
+			@Override
+			public void removed(Object key, Member message) {
+				events.add("removed " + key);
+			}
+
+			@Override
+			public void changed(Object key, Member m1, Member m2, String report) {
+				assertEquals(report, ProtoComparer.compare(m1, m2));
+				events.add("changed " + key);
+			}
+
+		};
+		CompareSummary summary = ProtoComparer.compareAll(members1, members2, Member::getMemberId, null, sink);
+		assertEquals(summary.getAdded(), 300);
+		assertEquals(summary.getRemoved(), 300);
+		assertEquals(summary.getChanged(), 300);
+		assertEquals(summary.getUnchanged(), 2100);
+		assertEquals(summary.getRecords(), 3000);
+		assertEquals(events.size(), 900);
+		assertEquals(events.get(0), "added 1");
+		assertEquals(events.get(1), "changed 3");
+		assertEquals(events.get(events.size() - 1), "removed 2992");
+		List<String> sequentialEvents = new ArrayList<>(events);
+		events.clear();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			CompareOptions options = CompareOptions.Builder.newBuilder().setParallelism(pool, 100).build();
+			summary = ProtoComparer.compareAll(members1.stream(), members2.stream(), Member::getMemberId, options,
+					sink);
+			assertEquals(summary.getChanged(), 300);
+			assertEquals(events, sequentialEvents);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*second records. Duplicate key: 1")
+	public void testCompareAllWithDuplicateKeys() {
+		Member member = Member.newBuilder().setMemberId(1).build();
+		ProtoComparer.compareAll(Arrays.asList(member), Arrays.asList(member, member), Member::getMemberId, null,
+				new CompareSink<Member>() {
+				});
+	}
+
+	@Test
+	public void testCollectStats() {
+		Book book1 = Book.newBuilder().setBookId(1).setName("Book name 1").setAuthor("Author name 1").build();
+		Book book2 = Book.newBuilder().setBookId(2).setName("Book name 2").build();
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").addBorrowHistory(book1)
+				.addBorrowHistory(book2).build();
+		Member message2 = Member.newBuilder().setMemberId(1).setLastName("Last name")
+				.addBorrowHistory(book1.toBuilder().setAuthor("Author name 2"))
+				.addBorrowHistory(book2.toBuilder().setAuthor("Author name 2")).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().addExcludeField("Member.firstName").build();
+		DiffStats stats1 = new DiffStats();
+		assertTrue(ProtoComparer.collectStats(message1, message2, options, stats1));
+		assertFalse(ProtoComparer.collectStats(message1, message1, options, stats1));
+		assertFalse(ProtoComparer.collectStats(message1, message1.toBuilder().setFirstName("First name 2").build(),
+				options, stats1));
+		assertEquals(stats1.getCompareCount(), 3);
+		assertEquals(stats1.getDiffCount(), 1);
+		assertEquals(stats1.getCount("Member.lastName", ChangeKind.CREATED), 1);
+		assertEquals(stats1.getCount("Member.borrowHistory.author", ChangeKind.UPDATED), 1);
+		assertEquals(stats1.getCount("Member.borrowHistory.author", ChangeKind.CREATED), 1);
+		assertEquals(stats1.getCount("Member.firstName", ChangeKind.DELETED), 0);
+		assertEquals(stats1.getCount("Member.address.city", ChangeKind.UPDATED), 0);
+
+		DiffStats stats2 = new DiffStats();
+		ProtoComparer.collectStats(message1, message2, options, stats2);
+		ProtoComparer.collectStats(null, message2, options, stats2);
+		stats1.merge(stats2);
+		assertEquals(stats1.getCompareCount(), 5);
+		assertEquals(stats1.getDiffCount(), 3);
+		Map<String, Long> created = stats1.getCounts(ChangeKind.CREATED);
+		assertEquals(created.get("Member.borrowHistory.author"), Long.valueOf(4));
+		assertEquals(created.get("Member.borrowHistory.bookId"), Long.valueOf(2));
+		assertEquals(created.get("Member.lastName"), Long.valueOf(3));
+		assertEquals(stats1.getCounts(ChangeKind.UPDATED).get("Member.borrowHistory.author"), Long.valueOf(2));
+		stats1.reset();
+		assertEquals(stats1.getCompareCount(), 0);
+		assertTrue(stats1.getCounts(ChangeKind.CREATED).isEmpty());
+	}
+
+	@Test
+	public void testCollectStatsOfTypesWithSameName() {
+		Descriptor member1 = buildMemberType("first");
+		Descriptor member2 = buildMemberType("second");
+		DiffStats stats = new DiffStats();
+		for (Descriptor member : Arrays.asList(member1, member2)) {
+			ProtoComparer.collectStats(DynamicMessage.getDefaultInstance(member), DynamicMessage.newBuilder(member)
+					.setField(member.findFieldByName(member == member1 ? "firstName" : "lastName"), "Name").build(),
+					null, stats);
+		}
+		assertEquals(stats.getCount(member1, "firstName", ChangeKind.CREATED), 1);
+		assertEquals(stats.getCount(member1, "lastName", ChangeKind.CREATED), 0);
+		assertEquals(stats.getCount(member2, "lastName", ChangeKind.CREATED), 1);
+		assertEquals(stats.getCount("second.Member.lastName", ChangeKind.CREATED), 1);
+		assertEquals(stats.getCount("second.Member.firstName", ChangeKind.CREATED), 0);
+		assertThrows(IllegalArgumentException.class, () -> stats.getCount("Member.lastName", ChangeKind.CREATED));
+		assertEquals(stats.getCounts(ChangeKind.CREATED).keySet(),
+				new HashSet<>(Arrays.asList("first.Member.firstName", "second.Member.lastName")));
+	}
+
+	/**
+	 * Build a Member type with a first and a last name in a package.
+	 */
+	private static Descriptor buildMemberType(String packageName) {
+		DescriptorProto.Builder type = DescriptorProto.newBuilder().setName("Member");
+		for (String name : new String[] { "firstName", "lastName" }) {
+			type.addField(FieldDescriptorProto.newBuilder().setName(name).setNumber(type.getFieldCount() + 1)
+					.setType(FieldDescriptorProto.Type.TYPE_STRING));
+		}
+		try {
+			return FileDescriptor.buildFrom(FileDescriptorProto.newBuilder().setName(packageName + ".proto")
+					.setPackage(packageName).setSyntax("proto3").addMessageType(type).build(), new FileDescriptor[0])
+					.findMessageTypeByName("Member");
+		} catch (DescriptorValidationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testChangedPaths() {
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Book book = Book.newBuilder().setBookId(1).setName("Book name 1").build();
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setEmail("Email")
+				.setAddress(address).addPhoneNumbers("123").addPhoneNumbers("456").addBorrowHistory(book).build();
+		Member message2 = Member.newBuilder().setMemberId(1).setLastName("Last name").setEmail("Email 2")
+				.setAddress(address.toBuilder().setCity("City name 2").setCountry("Country name"))
+				.addPhoneNumbers("456").addPhoneNumbers("123").addBorrowHistory(book.toBuilder().setPrice(10))
+				.build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().addExcludeField("Member.email")
+				.setFieldToOrderRepeatedMsg("Member.phoneNumbers", null).build();
+		assertEquals(ProtoComparer.changedPaths(message1, message2, options).getPathsList(),
+				Arrays.asList("firstName", "lastName", "address.city", "address.country", "borrowHistory"));
+		assertEquals(ProtoComparer.changedPaths(message1, message2, null).getPathsList(),
+				Arrays.asList("firstName", "lastName", "email", "address.city", "address.country", "phoneNumbers",
+						"borrowHistory"));
+		assertEquals(ProtoComparer.changedPaths(message1, message1.toBuilder().clearAddress().build(), null)
+				.getPathsList(), Arrays.asList("address"));
+		assertEquals(ProtoComparer.changedPaths(message1, message1, options).getPathsCount(), 0);
+	}
+
+	@Test
+	public void testComparerWithPathRules() throws InvalidProtocolBufferException {
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Book book = Book.newBuilder().setBookId(1).setName("Book name 1").setPrice(10).build();
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setAddress(address)
+				.addBorrowHistory(book).build();
+		Member message2 = message1.toBuilder().setAddress(address.toBuilder().setCity("City name 2"))
+				.setBorrowHistory(0, book.toBuilder().setName("Book name 2").setPrice(20)).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().addExcludeField("Member.address.city")
+				.addExcludeField("Member.**.price").build();
+		assertEquals(ProtoComparer.changedPaths(message1, message2, options).getPathsList(),
+				Arrays.asList("borrowHistory"));
+		assertEquals(ProtoComparer.compare(message1.toByteString(), message2.toByteString(),
+				Member.getDescriptor(), options), ProtoComparer.compare(message1, message2, options));
+		assertFalse(ProtoComparer.isEquivalent(message1, message2, options));
+		assertTrue(ProtoComparer.isEquivalent(message1,
+				message2.toBuilder().setBorrowHistory(0, book.toBuilder().setPrice(20)).build(), options));
+		// Paths apply only from the compared message
+		assertFalse(ProtoComparer.isEquivalent(address, message2.getAddress(), options));
+		assertFalse(ProtoComparer.isEquivalent(book, book.toBuilder().setPrice(20).build(), options));
+		// "*" matches any one field, legacy rules match at any depth
+		CompareOptions wildcards = CompareOptions.Builder.newBuilder().addExcludeField("Member.*.name")
+				.addRedactionField("Address.city").build();
+		assertEquals(ProtoComparer.changedPaths(message1, message2, wildcards).getPathsList(),
+				Arrays.asList("address.city", "borrowHistory"));
+		assertTrue(ProtoComparer.compare(address, message2.getAddress(), wildcards).contains("****"));
+		assertTrue(ProtoComparer.isEquivalent(book, book.toBuilder().setName("Book name 2").build(),
+				CompareOptions.Builder.newBuilder().addExcludeField("**.name").build()));
+	}
+
+	@Test
+	public void testOptionsDoNotKeepDescriptors() throws Exception {
+		CompareOptions options = CompareOptions.Builder.newBuilder().addExcludeField("Member.address.city")
+				.addExcludeField("Book.price").build();
+		for (CompareOptions compareOptions : Arrays.asList(null, options)) {
+			WeakReference<Descriptor> descriptor = compareWithBuiltDescriptor(compareOptions);
+			for (int i = 0; i < 100 && descriptor.get() != null; i++) {
+				System.gc();
+				Thread.sleep(10);
+			}
+			assertNull(descriptor.get());
+		}
+	}
+
+	/**
+	 * Compare messages of a descriptor built at runtime, as for a request, and get
+	 * a weak reference to the descriptor.
+	 */
+	private static WeakReference<Descriptor> compareWithBuiltDescriptor(CompareOptions options) throws Exception {
+		FileDescriptor file = FileDescriptor.buildFrom(LibraryManagement.getDescriptor().toProto(),
+				LibraryManagement.getDescriptor().getDependencies().toArray(new FileDescriptor[0]));
+		Descriptor descriptor = file.findMessageTypeByName("Member");
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Member member = Member.newBuilder().setMemberId(1).setAddress(address)
+				.addBorrowHistory(Book.newBuilder().setBookId(1).setPrice(10)).build();
+		Message message1 = DynamicMessage.parseFrom(descriptor, member.toByteString());
+		Message message2 = DynamicMessage.parseFrom(descriptor,
+				member.toBuilder().setMemberId(2).setAddress(address.toBuilder().setCity("City name 2")).build()
+						.toByteString());
+		assertEquals(ProtoComparer.changedPaths(message1, message2, options).getPathsList(),
+				options == null ? Arrays.asList("memberId", "address.city") : Arrays.asList("memberId"));
+		return new WeakReference<>(descriptor);
+	}
+
+	@Test
+	public void testComparerWithBudgets() {
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setAddress(address)
+				.addBorrowHistory(Book.newBuilder().setBookId(1).setName("Book name 1")).build();
+		Member message2 = Member.newBuilder().setMemberId(1).setFirstName("First name 2").setLastName("Last name")
+				.setAddress(address.toBuilder().setCity("City name 2"))
+				.addBorrowHistory(Book.newBuilder().setBookId(1).setName("Book name 2")).build();
+
+		CompareOptions options = CompareOptions.Builder.newBuilder().setMaxDiffs(2).build();
+		assertEquals(ProtoComparer.compare(message1, message2, options), "  Member: {\n"
+				+ "    firstName: First name => First name 2\n" + "+   lastName: Last name\n" + "  }\n"
+				+ "... truncated: reached max diffs of 2\n");
+
+		options = CompareOptions.Builder.newBuilder().setMaxDepth(0).build();
+		assertEquals(ProtoComparer.compare(message1, message2, options), "  Member: {\n"
+				+ "    firstName: First name => First name 2\n" + "+   lastName: Last name\n" + "  }\n"
+				+ "... truncated: reached max depth of 0\n");
+
+		options = CompareOptions.Builder.newBuilder().setMaxOutputSize(20).build();
+		assertEquals(ProtoComparer.compare(message1, message2, options), "  Member: {\n"
+				+ "    firstName: First name => First name 2\n" + "  }\n"
+				+ "... truncated: reached max output size of 20\n");
+
+		options = CompareOptions.Builder.newBuilder().setMaxDiffs(10).setMaxDepth(5).setMaxOutputSize(1000).build();
+		assertEquals(ProtoComparer.compare(message1, message2, options), ProtoComparer.compare(message1, message2));
+
+		// Each value takes longer than the timeout to write
+		ProtoMapper protoMapper = ProtoMapper.Builder.newBuilder().setMapper("Member.firstName", (value, firstObj) -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return value;
+		}).build();
+		options = CompareOptions.Builder.newBuilder().setProtoMapper(protoMapper).setTimeout(10).build();
+		assertEquals(ProtoComparer.compare(message1, message2, options), "  Member: {\n"
+				+ "    firstName: First name => First name 2\n" + "  }\n" + "... truncated: reached timeout of 10 ms\n");
+	}
+
+	@Test
+	public void testComparerWithBudgetsStopsComparing() throws IOException {
+		Member.Builder builder1 = Member.newBuilder().setMemberId(1);
+		Member.Builder builder2 = Member.newBuilder().setMemberId(1);
+		for (int i = 0; i < 10000; i++) {
+			builder1.addBorrowHistory(book(i, "Book " + i));
+			builder2.addBorrowHistory(book(i, "Book " + i + " updated"));
+		}
+		Member message1 = builder1.build();
+		Member message2 = builder2.build();
+		CompareContext context = new CompareContext(CompareOptions.Builder.newBuilder().setMaxDiffs(1).build());
+		StringBuilder sb = new StringBuilder();
+		new ReportWriter(sb).write(ProtoComparer.createRoot(message1, message2, context));
+		assertEquals(sb.toString(), "  Member: {\n" + "    borrowHistory: [\n" + "      borrowHistory: {\n"
+				+ "        name: Book 0 => Book 0 updated\n" + "      }\n" + "    ]\n" + "  }\n"
+				+ "... truncated: reached max diffs of 1\n");
+		// Only the elements up to the cut are compared, not all the changed ones
+		assertTrue(context.getFingerprints().getComputedCount() < 10);
+	}
+
+	@Test
+	public void testWritePatch() throws IOException {
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City \"name\"").build();
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setEmail("a@b.c")
+				.setAddress(address).addBorrowHistory(Book.newBuilder().setBookId(1).setPrice(10))
+				.setPlan(MemberPlan.GOLD).build();
+		Member message2 = Member.newBuilder().setMemberId(1).setLastName("Last\nname").setEmail("d@e.f")
+				.setAddress(address.toBuilder().setCity("City name 2"))
+				.addBorrowHistory(Book.newBuilder().setBookId(1).setStatus(BookStatus.BORROWED))
+				.setPlan(MemberPlan.PLATINUM).build();
+		ProtoMapper protoMapper = ProtoMapper.Builder.newBuilder()
+				.setMapper("Member.plan", (value, firstObj) -> value.toString().toLowerCase()).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().addRedactionField("Member.email")
+				.setProtoMapper(protoMapper).build();
+		StringWriter writer = new StringWriter();
+		ProtoComparer.writePatch(message1, message2, options, writer);
+		assertEquals(writer.toString(), "[\n"
+				+ "{\"op\":\"remove\",\"path\":\"/firstName\",\"oldValue\":\"First name\"},\n"
+				+ "{\"op\":\"add\",\"path\":\"/lastName\",\"value\":\"Last\\nname\"},\n"
+				+ "{\"op\":\"replace\",\"path\":\"/email\",\"value\":\"****\",\"oldValue\":\"****\"},\n"
+				+ "{\"op\":\"replace\",\"path\":\"/address/city\",\"value\":\"City name 2\",\"oldValue\":\"City \\\"name\\\"\"},\n"
+				+ "{\"op\":\"remove\",\"path\":\"/borrowHistory/0/price\",\"oldValue\":10},\n"
+				+ "{\"op\":\"add\",\"path\":\"/borrowHistory/0/status\",\"value\":\"BORROWED\"},\n"
+				+ "{\"op\":\"replace\",\"path\":\"/plan\",\"value\":\"PLATINUM\",\"mappedValue\":\"platinum\",\"oldValue\":\"GOLD\",\"oldMappedValue\":\"gold\"}\n"
+				+ "]\n");
+
+		writer = new StringWriter();
+		ProtoComparer.writePatch(message1, message1, options, writer);
+		assertEquals(writer.toString(), "[]\n");
+
+		writer = new StringWriter();
+		ProtoComparer.writePatch(message1, message2, CompareOptions.Builder.newBuilder().setMaxDiffs(1).build(),
+				writer);
+		assertEquals(writer.toString(), "[\n"
+				+ "{\"op\":\"remove\",\"path\":\"/firstName\",\"oldValue\":\"First name\"},\n"
+				+ "{\"op\":\"truncated\",\"reason\":\"reached max diffs of 1\"}\n" + "]\n");
+	}
+
+	@Test
+	public void testWritePatchOfOrderedField() throws IOException {
+		Member message1 = Member.newBuilder().setMemberId(1).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(2, "Book 2")).addBorrowHistory(book(3, "Book 3")).build();
+		Member message2 = Member.newBuilder().setMemberId(1).addBorrowHistory(book(4, "Book 4"))
+				.addBorrowHistory(book(3, "Book 3 updated")).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(5, "Book 5")).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder()
+				.setFieldToOrderRepeatedMsg("Member.borrowHistory", "Book.bookId").build();
+		StringWriter writer = new StringWriter();
+		ProtoComparer.writePatch(message1, message2, options, writer);
+		// Book 3 is compared first, at its index in the first message, and book 2 is
+		// compared with book 4
+		assertEquals(writer.toString(), "[\n"
+				+ "{\"op\":\"replace\",\"path\":\"/borrowHistory/2/name\",\"value\":\"Book 3 updated\",\"oldValue\":\"Book 3\"},\n"
+				+ "{\"op\":\"replace\",\"path\":\"/borrowHistory/1/bookId\",\"value\":4,\"oldValue\":2},\n"
+				+ "{\"op\":\"replace\",\"path\":\"/borrowHistory/1/name\",\"value\":\"Book 4\",\"oldValue\":\"Book 2\"},\n"
+				+ "{\"op\":\"replace\",\"path\":\"/borrowHistory/1/author\",\"value\":\"Author 4\",\"oldValue\":\"Author 2\"},\n"
+				+ "{\"op\":\"add\",\"path\":\"/borrowHistory/3/bookId\",\"value\":5},\n"
+				+ "{\"op\":\"add\",\"path\":\"/borrowHistory/3/name\",\"value\":\"Book 5\"},\n"
+				+ "{\"op\":\"add\",\"path\":\"/borrowHistory/3/author\",\"value\":\"Author 5\"}\n"
+				+ "]\n");
+		// Applied to the first message, the patch gives the second message as per
+		// the options, with book 4 in place of book 2
+		Message patched = applyPatch(message1, writer.toString());
+		assertEquals(patched, Member.newBuilder().setMemberId(1).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(4, "Book 4")).addBorrowHistory(book(3, "Book 3 updated"))
+				.addBorrowHistory(book(5, "Book 5")).build());
+		assertTrue(ProtoComparer.isEquivalent(patched, message2, options));
+	}
+
+	private static Book book(int bookId, String name) {
+		return Book.newBuilder().setBookId(bookId).setName(name).setAuthor("Author " + bookId).build();
+	}
+
+	/**
+	 * Apply the operations of a patch of primitive values to a message. An
+	 * element at the end of a repeated field is added.
+	 */
+	private static Message applyPatch(Message message, String patch) {
+		Message.Builder builder = message.toBuilder();
+		Matcher matcher = Pattern.compile("\\{\"op\":\"(\\w+)\",\"path\":\"([^\"]*)\"(?:,\"value\":(\"[^\"]*\"|[^,}]*))?")
+				.matcher(patch);
+		while (matcher.find()) {
+			String[] segments = matcher.group(2).substring(1).split("/");
+			Message.Builder target = builder;
+			FieldDescriptor field = null;
+			for (int i = 0; i < segments.length; i++) {
+				field = target.getDescriptorForType().findFieldByName(segments[i]);
+				if (i == segments.length - 1) {
+					break;
+				} else if (field.isRepeated()) {
+					int index = Integer.parseInt(segments[++i]);
+					if (index == target.getRepeatedFieldCount(field)) {
+						target.addRepeatedField(field, target.newBuilderForField(field).build());
+					}
+					target = target.getRepeatedFieldBuilder(field, index);
+				} else {
+					target = target.getFieldBuilder(field);
+				}
+			}
+			String value = matcher.group(3);
+			if (matcher.group(1).equals("remove")) {
+				target.clearField(field);
+			} else if (value.startsWith("\"")) {
+				target.setField(field, value.substring(1, value.length() - 1));
+			} else {
+				target.setField(field, Integer.parseInt(value));
+			}
+		}
+		return builder.build();
+	}
+
+	@Test(dataProvider = "dataProvider")
+	public void testBinaryDiff(Message message1, Message message2, CompareOptions options, String expectedReport)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProtoComparer.writeBinaryDiff(message1, message2, options, out);
+		ProtoComparer.writeBinaryDiff(message1, message1, options, out);
+		DiffReader reader = new DiffReader(new ByteArrayInputStream(out.toByteArray()));
+		MessageDiff messageDiff = reader.next();
+		Descriptor descriptor = (message1 != null ? message1 : message2).getDescriptorForType();
+		assertEquals(messageDiff.getMessageType(), descriptor.getFullName());
+		// Same changes as the value nodes of the diff tree
+		List<DiffNode> valueNodes = new ArrayList<>();
+		collectValueNodes(ProtoComparer.diff(message1, message2, options), valueNodes);
+		assertEquals(messageDiff.getChangesCount(), valueNodes.size());
+		for (int i = 0; i < valueNodes.size(); i++) {
+			DiffNode node = valueNodes.get(i);
+			FieldChange change = messageDiff.getChanges(i);
+			assertEquals(DiffReader.getPath(change, descriptor), node.getPath());
+			assertEquals(change.getKind().name(), node.getKind().name());
+			if (!change.getRedacted() && !change.getMapped()) {
+				assertEquals(DiffReader.getOldValue(change, descriptor), node.getOldValue());
+				assertEquals(DiffReader.getNewValue(change, descriptor), node.getNewValue());
+			}
+		}
+		assertEquals(messageDiff.getChangesCount() == 0, expectedReport.isEmpty());
+		if (!expectedReport.isEmpty()) {
+			assertTrue(messageDiff.getSerializedSize() < expectedReport.length());
+		}
+		assertEquals(reader.next().getChangesCount(), 0);
+		assertEquals(reader.next(), null);
+	}
+
+	private static void collectValueNodes(DiffNode node, List<DiffNode> valueNodes) {
+		for (DiffNode child : node.getChildren()) {
+			if (child.getType() == Type.VALUE) {
+				valueNodes.add(child);
+			} else {
+				collectValueNodes(child, valueNodes);
+			}
+		}
+	}
+
+	@Test
+	public void testFingerprintOfEqualMessages() throws InvalidProtocolBufferException {
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setAddress(address)
+				.addPhoneNumbers("123").addBorrowHistory(Book.newBuilder().setBookId(1).setName("Book name 1"))
+				.setPlan(MemberPlan.GOLD).build();
+		Member message2 = Member.parseFrom(message1.toByteString());
+		Message message3 = DynamicMessage.parseFrom(Member.getDescriptor(), message1.toByteString());
+		FingerprintCache fingerprints = new FingerprintCache();
+		assertEquals(fingerprints.of(message1), fingerprints.of(message2));
+		assertEquals(fingerprints.of(message1), fingerprints.of(message3));
+		Member message4 = message1.toBuilder().setBorrowHistory(0, message1.getBorrowHistory(0).toBuilder().setBookId(2))
+				.build();
+		assertNotEquals(fingerprints.of(message1), fingerprints.of(message4));
+		CompareContext context = new CompareContext(CompareOptions.DUMMY_OPTIONS);
+		assertTrue(context.isEqual(message1, message2));
+		assertFalse(context.isEqual(message1, message4));
+		assertTrue(context.isEqual(message1.getBorrowHistoryList(), message2.getBorrowHistoryList()));
+		assertFalse(context.isEqual(message1.getBorrowHistoryList(), message4.getBorrowHistoryList()));
+	}
+
+	@Test
+	public void testCompareDelimited() throws IOException {
+		ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		for (int i = 0; i < 100; i++) {
+			Member member = Member.newBuilder().setMemberId(i).setFirstName("Name " + i).build();
+			member.writeDelimitedTo(out1);
+			(i == 7 ? member.toBuilder().setFirstName("Name").build() : member).writeDelimitedTo(out2);
+		}
+		Member.newBuilder().setMemberId(100).build().writeDelimitedTo(out1);
+		List<Object> keys = new ArrayList<>();
+		CompareSummary summary = ProtoComparer.compareDelimited(new ByteArrayInputStream(out1.toByteArray()),
+				new ByteArrayInputStream(out2.toByteArray()), Member.getDescriptor(), null, new CompareSink<Message>() {
+
+					@Override
+					public void removed(Object key, Message message) {
+						keys.add(key);
+					}
+
+					@Override
+					public void changed(Object key, Message m1, Message m2, String report) {
+						keys.add(key);
+						assertEquals(report, "  Member: {\n    firstName: Name 7 => Name\n  }\n");
+					}
+
+				});
+		assertEquals(keys, Arrays.<Object>asList(7L, 100L));
+		assertEquals(summary.getUnchanged(), 99);
+		assertEquals(summary.getChanged(), 1);
+		assertEquals(summary.getRemoved(), 1);
+		byte[] truncated = Arrays.copyOf(out1.toByteArray(), out1.size() - 1);
+		assertThrows(EOFException.class, () -> ProtoComparer.compareDelimited(new ByteArrayInputStream(truncated),
+				new ByteArrayInputStream(out2.toByteArray()), Member.getDescriptor(), null, new CompareSink<Message>() {
+				}));
+		// A corrupt size fails at the end of the stream without allocating the size
+		byte[] corrupt = { (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x08, 0x01 };
+		assertThrows(EOFException.class, () -> ProtoComparer.compareDelimited(new ByteArrayInputStream(corrupt),
+				new ByteArrayInputStream(out2.toByteArray()), Member.getDescriptor(), null, new CompareSink<Message>() {
+				}));
+		// Records are not parsed for a sink that does not use them
+		keys.clear();
+		ProtoComparer.compareDelimited(new ByteArrayInputStream(out1.toByteArray()),
+				new ByteArrayInputStream(out2.toByteArray()), Member.getDescriptor(), null, new CompareSink<Message>() {
+
+					@Override
+					public void removed(Object key, Message message) {
+						keys.add(message);
+					}
+
+					@Override
+					public void changed(Object key, Message m1, Message m2, String report) {
+						keys.add(m1);
+						keys.add(m2);
+					}
+
+					@Override
+					public boolean usesRecords() {
+						return false;
+					}
+
+				});
+		assertEquals(keys, Arrays.asList(null, null, null));
+	}
+
+	@Test
+	public void testCompareSnapshots() throws IOException {
+		File file1 = File.createTempFile("snapshot", ".bin");
+		File file2 = File.createTempFile("snapshot", ".bin");
+		file1.deleteOnExit();
+		file2.deleteOnExit();
+		try (FileOutputStream out1 = new FileOutputStream(file1); FileOutputStream out2 = new FileOutputStream(file2)) {
+			for (int i = 0; i < 100; i++) {
+				Member member = Member.newBuilder().setMemberId(i).setFirstName("Name " + i).build();
+				if (i != 3) {
+					member.writeDelimitedTo(out1);
+				}
+				if (i != 5) {
+					(i == 7 ? member.toBuilder().setFirstName("Name").build() : member).writeDelimitedTo(out2);
+				}
+			}
+		}
+		List<Object> keys = new ArrayList<>();
+		CompareSink<Message> sink = new CompareSink<Message>() {
+
+			@Override
+			public void added(Object key, Message message) {
+				keys.add("+" + key);
+			}
+
+			@Override
+			public void removed(Object key, Message message) {
+				keys.add("-" + key);
+			}
+
+			@Override
+			public void changed(Object key, Message m1, Message m2, String report) {
+				keys.add(key);
+				assertEquals(report, "  Member: {\n    firstName: Name 7 => Name\n  }\n");
+			}
+
+		};
+		FieldDescriptor keyField = Member.getDescriptor().findFieldByName("memberId");
+		// A window smaller than a record maps the files many times
+		for (long windowSize : new long[] { 7, 64, MappedRecordReader.DEFAULT_WINDOW_SIZE }) {
+			keys.clear();
+			CompareSummary summary = ProtoComparer.compareSnapshots(file1.toPath(), file2.toPath(), keyField, null,
+					sink, windowSize);
+			assertEquals(keys, Arrays.<Object>asList("+3", "-5", 7));
+			assertEquals(summary.getUnchanged(), 97);
+			assertEquals(summary.getChanged(), 1);
+			assertEquals(summary.getAdded(), 1);
+			assertEquals(summary.getRemoved(), 1);
+		}
+		try (FileOutputStream out = new FileOutputStream(file2)) {
+			Member.newBuilder().setMemberId(2).setFirstName("Name 2").build().writeDelimitedTo(out);
+			Member.newBuilder().setMemberId(1).setFirstName("Name 1").build().writeDelimitedTo(out);
+		}
+		assertThrows(IllegalArgumentException.class,
+				() -> ProtoComparer.compareSnapshots(file1.toPath(), file2.toPath(), keyField, null, sink));
+		assertThrows(IllegalArgumentException.class, () -> ProtoComparer.compareSnapshots(file1.toPath(),
+				file2.toPath(), Member.getDescriptor().findFieldByName("address"), null, sink));
+	}
+
+	@Test
+	public void testCompareSnapshotsByUnsignedKey() throws IOException {
+		File file1 = File.createTempFile("snapshot", ".bin");
+		File file2 = File.createTempFile("snapshot", ".bin");
+		file1.deleteOnExit();
+		file2.deleteOnExit();
+		// Keys with the high bit set are after the others
+		try (FileOutputStream out1 = new FileOutputStream(file1); FileOutputStream out2 = new FileOutputStream(file2)) {
+			for (long key : new long[] { 1, Long.MAX_VALUE, Long.MIN_VALUE, -1 }) {
+				UInt64Value.of(key).writeDelimitedTo(out1);
+				if (key != Long.MIN_VALUE) {
+					UInt64Value.of(key).writeDelimitedTo(out2);
+				}
+			}
+		}
+		List<Object> keys = new ArrayList<>();
+		CompareSink<Message> sink = new CompareSink<Message>() {
+
+			@Override
+			public void added(Object key, Message message) {
+				keys.add(key);
+			}
+
+			@Override
+			public void removed(Object key, Message message) {
+				keys.add(key);
+			}
+
+		};
+		CompareSummary summary = ProtoComparer.compareSnapshots(file1.toPath(), file2.toPath(),
+				UInt64Value.getDescriptor().findFieldByName("value"), null, sink);
+		assertEquals(keys, Arrays.<Object>asList(Long.MIN_VALUE));
+		assertEquals(summary.getUnchanged(), 3);
+		try (FileOutputStream out1 = new FileOutputStream(file1); FileOutputStream out2 = new FileOutputStream(file2)) {
+			for (int key : new int[] { 1, Integer.MIN_VALUE, -1 }) {
+				UInt32Value.of(key).writeDelimitedTo(out1);
+			}
+			for (int key : new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+				UInt32Value.of(key).writeDelimitedTo(out2);
+			}
+		}
+		keys.clear();
+		summary = ProtoComparer.compareSnapshots(file1.toPath(), file2.toPath(),
+				UInt32Value.getDescriptor().findFieldByName("value"), null, sink);
+		assertEquals(keys, Arrays.<Object>asList(1, Integer.MAX_VALUE, -1));
+		assertEquals(summary.getUnchanged(), 1);
+	}
+
+	@Test
+	public void testComparerWithBytesSkipsEqualFields() throws InvalidProtocolBufferException {
+		Address address = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Book book1 = Book.newBuilder().setBookId(1).setName("Book name 1").build();
+		Book book2 = Book.newBuilder().setBookId(2).setName("Book name 2").build();
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setAddress(address)
+				.addBorrowHistory(book1).addBorrowHistory(book2).build();
+		Member message2 = message1.toBuilder().setAddress(address.toBuilder().setCity("City name 2"))
+				.setBorrowHistory(1, book2.toBuilder().setName("Book name 3")).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setMessageKeyField(Book.class, "Book.bookId")
+				.build();
+		assertEquals(ProtoComparer.compare(message1.toByteString(), message2.toByteString(),
+				Member.getDescriptor(), options), ProtoComparer.compare(message1, message2, options));
+		assertEquals(ProtoComparer.compare(null, message2.toByteString(), Member.getDescriptor(), options),
+				ProtoComparer.compare(null, message2, options));
+		assertEquals(ProtoComparer.compare(message1.toByteString(), message1.toByteString(), Member.getDescriptor(),
+				options), "");
+	}
+
 }
@@ -167,6 +167,34 @@ public class ProtoMergerTest {
 		return data;
 	}
 
+	private Object[] getPathRulesCase() {
+		Object[] data = new Object[5];
+		Book book1 = Book.newBuilder().setBookId(1).setName("Book name").setGenre("Genre 1").setPrice(10).build();
+		Book book2 = Book.newBuilder().setBookId(1).setAuthor("Author name").setGenre("Genre 2").setPrice(20).build();
+		Member message1 = Member.newBuilder()
+				.setAddress(Address.newBuilder().setStreet("Street name").setCountry("Country 1"))
+				.addBorrowHistory(book1).build();
+		Member message2 = Member.newBuilder()
+				.setAddress(Address.newBuilder().setCity("City name").setCountry("Country 2"))
+				.addBorrowHistory(book2).build();
+		Book mergedBook = Book.newBuilder().setBookId(1).setName("Book name").setAuthor("Author name").setPrice(20)
+				.build();
+		Address mergedAddress = Address.newBuilder().setStreet("Street name").setCity("City name").build();
+		Member expected1 = Member.newBuilder().setAddress(mergedAddress.toBuilder().setCountry("Country 1"))
+				.addBorrowHistory(mergedBook.toBuilder().setGenre("Genre 1")).build();
+		Member expected2 = Member.newBuilder().setAddress(mergedAddress.toBuilder().setCountry("Country 2"))
+				.addBorrowHistory(mergedBook.toBuilder().setGenre("Genre 2")).build();
+		MergeOptions options = MergeOptions.Builder.newBuilder().addExcludeField("Member.address.country")
+				.addExcludeField("Member.**.genre").setConflictResolver("Member.*.price", Resolver.GREATER)
+				.setMergeRepeatedByField("Member.borrowHistory", "Book.bookId").build();
+		data[0] = message1;
+		data[1] = message2;
+		data[2] = options;
+		data[3] = expected1;
+		data[4] = expected2;
+		return data;
+	}
+
 	@DataProvider(name = "dataProvider")
 	public Object[][] dataProvider() {
 		List<Object[]> data = new ArrayList<>();
@@ -178,6 +206,7 @@ public class ProtoMergerTest {
 		data.add(getExcludeFieldCase());
 		data.add(getPrimitiveRepeatedCase());
 		data.add(getMergeRepeatedByFieldCase());
+		data.add(getPathRulesCase());
 		return data.toArray(new Object[data.size()][]);
 	}
 
@@ -0,0 +1,197 @@
+package com.jash.protokit.patcher;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.jash.protokit.LibraryManagement.Address;
+import com.jash.protokit.LibraryManagement.Book;
+import com.jash.protokit.LibraryManagement.BookStatus;
+import com.jash.protokit.LibraryManagement.Member;
+import com.jash.protokit.LibraryManagement.MemberPlan;
+import com.jash.protokit.comparer.CompareOptions;
+import com.jash.protokit.comparer.DiffFormat.MessageDiff;
+import com.jash.protokit.comparer.DiffReader;
+import com.jash.protokit.comparer.ProtoComparer;
+
+public class ProtoPatcherTest {
+
+	private static Book book(int bookId, String name) {
+		return Book.newBuilder().setBookId(bookId).setName(name).setAuthor("Author " + bookId).build();
+	}
+
+	private static MessageDiff diff(Message m1, Message m2, CompareOptions options) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProtoComparer.writeBinaryDiff(m1, m2, options, out);
+		return new DiffReader(new ByteArrayInputStream(out.toByteArray())).next();
+	}
+
+	private Object[] getUpdateCase() {
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").setLastName("Last name")
+				.setAddress(Address.newBuilder().setStreet("Street 1").setCity("City 1")).addPhoneNumbers("123")
+				.addBorrowHistory(book(1, "Book 1")).addBorrowHistory(book(2, "Book 2")).build();
+		Member message2 = Member.newBuilder().setMemberId(1).setFirstName("Name").setEmail("a@b.c")
+				.setAddress(Address.newBuilder().setStreet("Street 2").setCountry("Country")).addPhoneNumbers("456")
+				.addPhoneNumbers("789").addBorrowHistory(book(1, "Book 1").toBuilder().setStatus(BookStatus.BORROWED))
+				.addBorrowHistory(book(2, "Book 2")).addBorrowHistory(book(3, "Book 3")).setPlan(MemberPlan.GOLD)
+				.build();
+		return new Object[] { message1, message2, null, message2 };
+	}
+
+	private Object[] getDeleteCase() {
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name")
+				.setAddress(Address.newBuilder().setStreet("Street 1")).addPhoneNumbers("123").addPhoneNumbers("456")
+				.addBorrowHistory(book(1, "Book 1")).addBorrowHistory(book(2, "Book 2"))
+				.addBorrowHistory(book(3, "Book 3")).setBooksOnHold(2).build();
+		Member message2 = Member.newBuilder().setMemberId(1).addPhoneNumbers("123")
+				.addBorrowHistory(book(1, "Book 1")).build();
+		return new Object[] { message1, message2, null, message2 };
+	}
+
+	private Object[] getEmptyMessageCase() {
+		Member message1 = Member.newBuilder().setMemberId(1).addBorrowHistory(Book.getDefaultInstance()).build();
+		Member message2 = Member.newBuilder().setMemberId(1).setAddress(Address.getDefaultInstance()).build();
+		return new Object[] { message1, message2, null, message2 };
+	}
+
+	private Object[] getOrderedByFieldCase() {
+		Member message1 = Member.newBuilder().setMemberId(1).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(2, "Book 2")).addBorrowHistory(book(3, "Book 3")).build();
+		Member message2 = Member.newBuilder().setMemberId(1).addBorrowHistory(book(4, "Book 4"))
+				.addBorrowHistory(book(3, "Book 3 updated")).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(5, "Book 5")).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder()
+				.setFieldToOrderRepeatedMsg("Member.borrowHistory", "Book.bookId").build();
+		// Book 2 is compared with book 4 and created elements are added at the end
+		Member expected = Member.newBuilder().setMemberId(1).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(4, "Book 4")).addBorrowHistory(book(3, "Book 3 updated"))
+				.addBorrowHistory(book(5, "Book 5")).build();
+		return new Object[] { message1, message2, options, expected };
+	}
+
+	private Object[] getOrderedPrimitiveCase() {
+		Member message1 = Member.newBuilder().addPhoneNumbers("1").addPhoneNumbers("2").addPhoneNumbers("3")
+				.addPhoneNumbers("2").build();
+		Member message2 = Member.newBuilder().addPhoneNumbers("3").addPhoneNumbers("4").addPhoneNumbers("2")
+				.addPhoneNumbers("1").addPhoneNumbers("5").build();
+		CompareOptions options = CompareOptions.Builder.newBuilder()
+				.setFieldToOrderRepeatedMsg("Member.phoneNumbers", null).build();
+		Member expected = Member.newBuilder().addPhoneNumbers("1").addPhoneNumbers("4").addPhoneNumbers("3")
+				.addPhoneNumbers("2").addPhoneNumbers("5").build();
+		return new Object[] { message1, message2, options, expected };
+	}
+
+	private Object[] getSequenceAlignmentCase() {
+		Member message1 = Member.newBuilder().addPhoneNumbers("1").addPhoneNumbers("2").addPhoneNumbers("3")
+				.addBorrowHistory(book(1, "Book 1")).addBorrowHistory(book(2, "Book 2"))
+				.addBorrowHistory(book(3, "Book 3")).build();
+		Member message2 = Member.newBuilder().addPhoneNumbers("0").addPhoneNumbers("1").addPhoneNumbers("3")
+				.addPhoneNumbers("4").addBorrowHistory(book(0, "Book 0")).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(3, "Book 3").toBuilder().setPrice(10)).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setSequenceAlignment(true).build();
+		return new Object[] { message1, message2, options, message2 };
+	}
+
+	private Object[] getSequenceAlignmentInsertsCase() {
+		// Several elements inserted before a common element and at the end
+		Member message1 = Member.newBuilder().addPhoneNumbers("1").addBorrowHistory(book(1, "Book 1")).build();
+		Member message2 = Member.newBuilder().addPhoneNumbers("2").addPhoneNumbers("3").addPhoneNumbers("1")
+				.addPhoneNumbers("4").addPhoneNumbers("5").addBorrowHistory(book(2, "Book 2"))
+				.addBorrowHistory(book(3, "Book 3")).addBorrowHistory(book(1, "Book 1"))
+				.addBorrowHistory(book(4, "Book 4")).build();
+		CompareOptions options = CompareOptions.Builder.newBuilder().setSequenceAlignment(true).build();
+		return new Object[] { message1, message2, options, message2 };
+	}
+
+	private Object[] getMapCase() {
+		Member message1 = Member.newBuilder().putAttributes("color", "red").putAttributes("size", "small")
+				.putReservations(1, book(1, "Book 1")).putReservations(2, book(2, "Book 2")).build();
+		Member message2 = Member.newBuilder().putAttributes("weight", "light").putAttributes("color", "blue")
+				.putReservations(2, book(2, "Book 2").toBuilder().setPrice(10).build())
+				.putReservations(3, book(3, "Book 3")).build();
+		return new Object[] { message1, message2, null, message2 };
+	}
+
+	@DataProvider(name = "dataProvider")
+	public Object[][] dataProvider() {
+		List<Object[]> data = new ArrayList<>();
+		data.add(getUpdateCase());
+		data.add(getDeleteCase());
+		data.add(getEmptyMessageCase());
+		data.add(getOrderedByFieldCase());
+		data.add(getOrderedPrimitiveCase());
+		data.add(getSequenceAlignmentCase());
+		data.add(getSequenceAlignmentInsertsCase());
+		data.add(getMapCase());
+		return data.toArray(new Object[0][]);
+	}
+
+	@Test(dataProvider = "dataProvider")
+	public void testApply(Member message1, Member message2, CompareOptions options, Member expected)
+			throws IOException {
+		MessageDiff diff = diff(message1, message2, options);
+		assertEquals(ProtoPatcher.apply(message1, diff), expected);
+		assertTrue(ProtoComparer.isEquivalent(ProtoPatcher.apply(message1, diff), message2, options));
+		// Patched in place, also for dynamic messages
+		DynamicMessage.Builder builder = DynamicMessage.newBuilder(message1);
+		ProtoPatcher.apply(builder, diff);
+		// Parsed back as the entries of maps can be in another order
+		assertEquals(Member.parseFrom(builder.build().toByteString()), expected);
+		// No changes
+		assertEquals(ProtoPatcher.apply(message1, diff(message1, message1, options)), message1);
+	}
+
+	@Test
+	public void testApplyStaleDiff() throws IOException {
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name")
+				.addBorrowHistory(book(1, "Book 1")).build();
+		Member message2 = message1.toBuilder().setFirstName("Name").build();
+		MessageDiff diff = diff(message1, message2, null);
+		assertThrows(IllegalArgumentException.class,
+				() -> ProtoPatcher.apply(message1.toBuilder().setFirstName("Other name").build(), diff));
+		// Applied twice
+		assertThrows(IllegalArgumentException.class, () -> ProtoPatcher.apply(message2, diff));
+
+		Member message3 = message1.toBuilder().addBorrowHistory(book(2, "Book 2")).build();
+		MessageDiff createdDiff = diff(message1, message3, null);
+		assertThrows(IllegalArgumentException.class, () -> ProtoPatcher.apply(message3, createdDiff));
+
+		CompareOptions options = CompareOptions.Builder.newBuilder()
+				.setFieldToOrderRepeatedMsg("Member.borrowHistory", "Book.bookId").build();
+		Member message4 = message1.toBuilder().setBorrowHistory(0, book(1, "Book 1 updated")).build();
+		MessageDiff keyedDiff = diff(message1, message4, options);
+		Member otherBook = message1.toBuilder().setBorrowHistory(0, book(5, "Book 1")).build();
+		IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+				() -> ProtoPatcher.apply(otherBook, keyedDiff));
+		assertEquals(e.getMessage(),
+				"Diff does not apply at borrowHistory[0].name: borrowHistory has no element with bookId 1");
+	}
+
+	@Test
+	public void testApplyUnsupportedDiff() throws IOException {
+		Member message1 = Member.newBuilder().setMemberId(1).setFirstName("First name").build();
+		Member message2 = message1.toBuilder().setFirstName("Name").build();
+		CompareOptions redaction = CompareOptions.Builder.newBuilder().addRedactionField("Member.firstName").build();
+		assertThrows(IllegalArgumentException.class,
+				() -> ProtoPatcher.apply(message1, diff(message1, message2, redaction)));
+		CompareOptions limit = CompareOptions.Builder.newBuilder().setMaxDiffs(1).build();
+		Member message3 = message2.toBuilder().setLastName("Last name").build();
+		assertThrows(IllegalArgumentException.class,
+				() -> ProtoPatcher.apply(message1, diff(message1, message3, limit)));
+		assertThrows(IllegalArgumentException.class,
+				() -> ProtoPatcher.apply(Book.getDefaultInstance(), diff(message1, message2, null)));
+	}
+
+}
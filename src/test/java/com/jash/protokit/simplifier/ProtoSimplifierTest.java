@@ -9,6 +9,7 @@ import com.jash.protokit.LibraryManagement.Address;
 import com.jash.protokit.LibraryManagement.AddressOld;
 import com.jash.protokit.LibraryManagement.Book;
 import com.jash.protokit.LibraryManagement.BookStatus;
+import com.jash.protokit.LibraryManagement.Member;
 
 public class ProtoSimplifierTest {
 
@@ -58,12 +59,28 @@ public class ProtoSimplifierTest {
 		return data;
 	}
 
+	private Object[] getDropFieldPathCase() {
+		Object[] data = new Object[3];
+		SimplifyOptions options = SimplifyOptions.Builder.newBuilder().addFieldToDrop("Member.address.country")
+				.addFieldToDrop("Member.**.genre").build();
+		Member toBeSimplified = Member.newBuilder().setMemberId(1)
+				.setAddress(Address.newBuilder().setStreet("Street name").setCountry("Country name"))
+				.addBorrowHistory(Book.newBuilder().setBookId(1).setGenre("Genre name")).build();
+		Member expected = Member.newBuilder().setMemberId(1).setAddress(Address.newBuilder().setStreet("Street name"))
+				.addBorrowHistory(Book.newBuilder().setBookId(1)).build();
+		data[0] = toBeSimplified;
+		data[1] = expected;
+		data[2] = options;
+		return data;
+	}
+
 	@DataProvider(name = "dataProvider")
 	public Object[][] dataProvider() {
-		Object[][] data = new Object[3][3];
+		Object[][] data = new Object[4][3];
 		data[0] = getDropFieldCase();
 		data[1] = getDropUnknownFieldCase();
 		data[2] = getDropDefaultFieldCase();
+		data[3] = getDropFieldPathCase();
 		return data;
 	}
 